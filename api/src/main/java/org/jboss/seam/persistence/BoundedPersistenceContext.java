@@ -0,0 +1,59 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Bounds the number of entities held by a seam managed persistence context.
+ * This is placed on the <code>@ExtensionManaged</code> producer field or
+ * method that configures the persistence context, and is intended for long
+ * running conversations that read more entities than they need to keep.
+ * <p/>
+ * Once the persistence context holds more than {@link #value()} entities, the
+ * least recently used entities that have no unflushed changes are detached.
+ * Entities are considered used when they are passed to or returned from
+ * <code>find</code>, <code>getReference</code>, <code>merge</code>,
+ * <code>persist</code>, <code>refresh</code> or <code>lock</code>. Whether an
+ * entity has unflushed changes is determined by
+ * {@link ExtendedPersistenceProvider#isDirty(javax.persistence.EntityManager, Object)},
+ * so persistence providers that cannot check individual entities never detach
+ * anything.
+ * <p/>
+ * The bound is checked after <code>find</code>, <code>getReference</code>,
+ * <code>merge</code> and <code>remove</code>, and when a query is created, so
+ * entities loaded by a query are only detached once one of these is called
+ * again.
+ * <p/>
+ * Changes made to an entity after it has been detached are not flushed, so the
+ * application must not hold on to entities across calls that may evict them.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface BoundedPersistenceContext {
+    /**
+     * the maximum number of entities to keep in the persistence context
+     */
+    int value();
+}
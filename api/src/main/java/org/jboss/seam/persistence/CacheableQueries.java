@@ -0,0 +1,47 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks queries that contain EL as cacheable. This is placed on the
+ * <code>@ExtensionManaged</code> producer field or method that configures a
+ * seam managed persistence context.
+ * <p/>
+ * Seam rewrites EL in queries into query parameters. Queries rewritten by a
+ * persistence context with this annotation are marked cacheable in the given
+ * query cache region through
+ * {@link ExtendedPersistenceProvider#setCacheable(javax.persistence.Query, String)},
+ * so lookups can be served from the query cache without changing the code
+ * that creates them. The query cache must be enabled in the persistence unit.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface CacheableQueries {
+    /**
+     * the query cache region, or the default region if this is empty
+     */
+    String region() default "";
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * Optional capabilities of a {@link SeamPersistenceProvider}.
+ * <p/>
+ * Providers that only implement {@link SeamPersistenceProvider} keep working:
+ * for them Seam falls back to the portable JPA behaviour of its default
+ * provider. To cast the result of
+ * {@link ManagedPersistenceContext#getProvider()}, check for this interface
+ * first.
+ */
+public interface ExtendedPersistenceProvider extends SeamPersistenceProvider {
+
+    /**
+     * Configures the entity manager of a read only persistence context. It
+     * should not flush, and should not keep the state of loaded entities for
+     * dirty checking if the provider supports this.
+     *
+     * @see ReadOnly
+     */
+    public abstract void setReadOnly(EntityManager entityManager);
+
+    /**
+     * Does the entity, or any entity that detaching it would cascade to, have
+     * changes that have not been flushed? This is used to decide whether an
+     * entity can be detached from a bounded persistence context without losing
+     * changes, so implementations that cannot tell must return true.
+     *
+     * @param entity a managed entity instance
+     * @see BoundedPersistenceContext
+     */
+    public abstract boolean isDirty(EntityManager entityManager, Object entity);
+
+    /**
+     * Returns the number of entity instances managed by the persistence
+     * context, or -1 if this is not known
+     */
+    public abstract int getManagedEntityCount(EntityManager entityManager);
+
+    /**
+     * Returns a snapshot of the entity instances managed by the persistence
+     * context, or an empty collection if they cannot be listed
+     */
+    public abstract Collection<Object> getManagedEntities(EntityManager entityManager);
+
+    /**
+     * Returns the persistence unit properties that enable JDBC batching with
+     * the given batch size. These are used when Seam bootstraps a persistence
+     * unit whose persistence context is in batch mode.
+     *
+     * @see BatchMode
+     */
+    public abstract Map<String, Object> getBatchProperties(int batchSize);
+
+    /**
+     * Returns an iterator over the results of the query that fetches
+     * <code>fetchSize</code> rows at a time, and evicts returned entities from
+     * the entity manager
+     *
+     * @see ManagedPersistenceContext#iterate(Query, int)
+     */
+    public abstract <T> QueryIterator<T> iterate(EntityManager entityManager, Query query, int fetchSize);
+
+    /**
+     * Returns an iterator over all entities of the given type
+     *
+     * @see ManagedPersistenceContext#iterate(Class, int)
+     */
+    public abstract <T> QueryIterator<T> iterate(EntityManager entityManager, Class<T> entityClass, int fetchSize);
+
+    /**
+     * Marks the query as cacheable in the query cache. Query caching is not
+     * part of the JPA specification, so this may do nothing.
+     *
+     * @param region the query cache region, or null for the default region
+     * @see CacheableQueries
+     */
+    public abstract void setCacheable(Query query, String region);
+
+    /**
+     * Evicts all entities of the given type from the second level cache
+     */
+    public abstract void evict(EntityManager entityManager, Class<?> entityClass);
+
+    /**
+     * Evicts a single entity from the second level cache
+     */
+    public abstract void evict(EntityManager entityManager, Class<?> entityClass, Object id);
+
+    /**
+     * Evicts all cached results from a query cache region
+     *
+     * @param region the query cache region, or null for the default region
+     */
+    public abstract void evictQueryRegion(EntityManager entityManager, String region);
+
+    /**
+     * Resets an entity manager before it is pooled, so the next request that
+     * borrows it sees the same state as in a new entity manager. If the state
+     * cannot be reset this should throw an exception, and the entity manager
+     * is closed instead.
+     */
+    public abstract void reset(EntityManager entityManager);
+}
@@ -19,6 +19,8 @@ package org.jboss.seam.persistence;
 import java.lang.annotation.Annotation;
 import java.util.Set;
 
+import javax.persistence.Query;
+
 /**
  * Support for additional operations for all seam managed persistence contexts.
  *
@@ -61,4 +63,53 @@ public interface ManagedPersistenceContext {
      */
     public void closeAfterTransaction();
 
+    /**
+     * Enables or disables batch write-behind mode. In batch mode the
+     * persistence context is flushed and cleared after every
+     * <code>batchSize</code> entities that are persisted while a transaction
+     * is active. Entities are detached when the persistence context is
+     * cleared, so references to them must not be used after they have been
+     * persisted.
+     *
+     * @param batchSize the number of entities to persist between flushes, or 0
+     *                  to disable batch mode
+     * @see BatchMode
+     */
+    public void setBatchSize(int batchSize);
+
+    /**
+     * @return the batch size, or 0 if batch mode is disabled
+     */
+    public int getBatchSize();
+
+    /**
+     * Streams the results of a query created by this persistence context. Rows
+     * are fetched <code>fetchSize</code> at a time, and entities that have
+     * been returned are evicted from the persistence context every
+     * <code>fetchSize</code> rows, so large results can be processed in
+     * constant memory.
+     * <p/>
+     * Providers that support database cursors scroll through the results. If
+     * this is not supported the query is run a page at a time, in which case
+     * it must have a stable order.
+     * <p/>
+     * Managed Hibernate sessions cannot create JPA queries, so they throw an
+     * {@link IllegalArgumentException}. Use
+     * {@link org.jboss.seam.persistence.hibernate.ManagedHibernateSession#iterate(org.hibernate.Query, int)}
+     * instead.
+     *
+     * @param query     a query created by this persistence context
+     * @param fetchSize the number of rows to fetch at a time
+     */
+    public <T> QueryIterator<T> iterate(Query query, int fetchSize);
+
+    /**
+     * Streams all entities of the given type, fetching <code>fetchSize</code>
+     * at a time. If the provider does not support database cursors the
+     * entities are read in identifier order using keyset pagination.
+     *
+     * @see #iterate(Query, int)
+     */
+    public <T> QueryIterator<T> iterate(Class<T> entityClass, int fetchSize);
+
 }
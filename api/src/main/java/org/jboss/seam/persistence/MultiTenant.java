@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Makes a seam managed persistence context use a separate
+ * <code>EntityManagerFactory</code> for each tenant. This is placed on the
+ * <code>@ExtensionManaged</code> <code>@PersistenceUnit</code> producer field
+ * of the persistence context, which must name its persistence unit.
+ * <p/>
+ * When a persistence context is created the current tenant is obtained from
+ * the {@link TenantResolver} bean. The tenant's factory is built from the
+ * persistence unit through <code>javax.persistence.Persistence</code>, with
+ * the properties returned by {@link TenantResolver#getProperties(String)},
+ * and is cached for later persistence contexts of the same tenant. Factories
+ * are built on background threads, and concurrent requests for a tenant
+ * whose factory is being built wait for the same build.
+ * <p/>
+ * Factories that are not used by any open persistence context are closed when
+ * more than {@link #maxTenants()} are cached, least recently used first, or
+ * when they have not been used for {@link #maxIdleMinutes()}.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(FIELD)
+public @interface MultiTenant {
+    /**
+     * the number of tenant factories to keep open
+     */
+    int maxTenants() default 100;
+
+    /**
+     * the number of minutes after which an unused tenant factory is closed, or
+     * 0 to keep factories open until they are evicted by newer tenants
+     */
+    int maxIdleMinutes() default 30;
+}
@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.Iterator;
+
+/**
+ * Iterates over the results of a query without loading them all into memory.
+ * Entities that have been returned by the iterator are periodically evicted
+ * from the persistence context, so changes made to them must be flushed
+ * before the iterator moves on.
+ * <p/>
+ * Iterators hold database resources until they are closed, so they should
+ * always be closed in a finally block. An iterator is closed automatically
+ * once it has been exhausted.
+ *
+ * @see ManagedPersistenceContext#iterate(javax.persistence.Query, int)
+ * @see ManagedPersistenceContext#iterate(Class, int)
+ */
+public interface QueryIterator<T> extends Iterator<T> {
+
+    /**
+     * Releases the database resources held by the iterator. It is safe to call
+     * this more than once.
+     */
+    public void close();
+}
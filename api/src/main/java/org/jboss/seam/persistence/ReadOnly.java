@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Makes a seam managed persistence context or Hibernate session read only.
+ * This is placed on the <code>@ExtensionManaged</code> producer field or
+ * method that configures the persistence context.
+ * <p/>
+ * Read only persistence contexts never flush, and reject calls that would
+ * write to the database, such as <code>persist()</code>, <code>merge()</code>
+ * and <code>remove()</code>, with an {@link IllegalStateException}. If the
+ * persistence provider supports it, loaded entities are also read only, so no
+ * state is kept for dirty checking.
+ *
+ * @see ExtendedPersistenceProvider#setReadOnly(javax.persistence.EntityManager)
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface ReadOnly {
+}
@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Routes reads from a seam managed persistence context to replica databases.
+ * This is placed on the <code>@ExtensionManaged</code> producer field or
+ * method of the primary <code>EntityManagerFactory</code>, and lists the
+ * qualifiers of the <code>EntityManagerFactory</code> beans of the replicas.
+ * The qualifiers must not have any members.
+ * <p/>
+ * Queries are sent to a replica if they are created outside a transaction, or
+ * at any time if the persistence context is {@link ReadOnly}.
+ * <code>find()</code> and <code>getReference()</code> always use the primary,
+ * so the entities they return can be changed like any other. Each persistence context uses a single replica, chosen
+ * when it first reads from one. Once a persistence context has written
+ * through <code>persist()</code>, <code>merge()</code> or
+ * <code>remove()</code>, it only uses the primary, so it always reads its own
+ * writes.
+ * <p/>
+ * Entities returned by queries on a replica are managed by a separate read
+ * only persistence context, so they must be merged before they can be
+ * changed.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface ReadReplicas {
+    /**
+     * the qualifiers of the replica entity manager factories
+     */
+    Class<? extends Annotation>[] value();
+
+    /**
+     * how a replica is chosen for each persistence context
+     */
+    ReplicaSelection selection() default ReplicaSelection.ROUND_ROBIN;
+}
@@ -0,0 +1,34 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+/**
+ * Determines which replica a persistence context reads from
+ *
+ * @see ReadReplicas
+ */
+public enum ReplicaSelection {
+    /**
+     * Each persistence context uses the next replica in turn
+     */
+    ROUND_ROBIN,
+    /**
+     * Each persistence context uses the replica that currently has the fewest
+     * open persistence contexts reading from it
+     */
+    LEAST_OUTSTANDING
+}
@@ -0,0 +1,40 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.Map;
+
+/**
+ * Determines the tenant of {@link MultiTenant} seam managed persistence
+ * contexts. The application provides an implementation as a bean with the
+ * default qualifier. It is looked up once, so it should be request scoped or
+ * read the tenant from the current request itself.
+ */
+public interface TenantResolver {
+    /**
+     * Returns the tenant that a persistence context created now belongs to.
+     * This must not return null.
+     */
+    public String getCurrentTenant();
+
+    /**
+     * Returns the properties that the tenant's
+     * <code>EntityManagerFactory</code> is built with in addition to those in
+     * persistence.xml, e.g. the tenant's schema or JDBC URL
+     */
+    public Map<String, Object> getProperties(String tenant);
+}
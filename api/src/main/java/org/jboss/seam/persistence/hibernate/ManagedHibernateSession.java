@@ -0,0 +1,40 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.hibernate;
+
+import org.hibernate.Query;
+import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.QueryIterator;
+
+/**
+ * Additional operations of Seam managed Hibernate sessions. The session proxy
+ * implements this interface as well as {@link ManagedPersistenceContext}.
+ */
+public interface ManagedHibernateSession {
+
+    /**
+     * Streams the results of a query created by this session. Rows are
+     * fetched <code>fetchSize</code> at a time through a database cursor, and
+     * entities that have been returned are evicted from the session every
+     * <code>fetchSize</code> rows.
+     *
+     * @param query     a query created by this session
+     * @param fetchSize the number of rows to fetch at a time
+     * @see ManagedPersistenceContext#iterate(javax.persistence.Query, int)
+     */
+    public <T> QueryIterator<T> iterate(Query query, int fetchSize);
+}
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.benchmark;
+
+import java.lang.annotation.Annotation;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.jboss.weld.context.bound.BoundConversationContext;
+import org.jboss.weld.context.bound.BoundLiteral;
+import org.jboss.weld.context.bound.BoundRequestContext;
+import org.jboss.weld.context.bound.MutableBoundRequest;
+import org.jboss.weld.environment.se.Weld;
+import org.jboss.weld.environment.se.WeldContainer;
+
+/**
+ * Boots Weld SE for the benchmarks, and activates the request and
+ * conversation contexts that seam persistence expects on the calling thread.
+ */
+public class BenchmarkContainer {
+
+    private final Weld weld;
+
+    private final WeldContainer container;
+
+    private final Map<String, Object> requestMap = new HashMap<String, Object>();
+
+    private final Map<String, Object> sessionMap = new HashMap<String, Object>();
+
+    private BoundRequestContext requestContext;
+
+    private BoundConversationContext conversationContext;
+
+    private MutableBoundRequest boundRequest;
+
+    public BenchmarkContainer() {
+        weld = new Weld();
+        container = weld.initialize();
+    }
+
+    public <T> T getInstance(Class<T> type, Annotation... qualifiers) {
+        return container.instance().select(type, qualifiers).get();
+    }
+
+    public BeanManager getBeanManager() {
+        return container.getBeanManager();
+    }
+
+    /**
+     * Activates the request and conversation contexts for the current thread
+     */
+    public void activateContexts() {
+        requestContext = getInstance(BoundRequestContext.class, BoundLiteral.INSTANCE);
+        requestContext.associate(requestMap);
+        requestContext.activate();
+        boundRequest = new MutableBoundRequest(requestMap, sessionMap);
+        conversationContext = getInstance(BoundConversationContext.class, BoundLiteral.INSTANCE);
+        conversationContext.associate(boundRequest);
+        conversationContext.activate();
+    }
+
+    /**
+     * Ends the request and conversation contexts for the current thread,
+     * destroying any beans they hold
+     */
+    public void deactivateContexts() {
+        if (conversationContext != null) {
+            conversationContext.invalidate();
+            conversationContext.deactivate();
+            conversationContext.dissociate(boundRequest);
+            conversationContext = null;
+        }
+        if (requestContext != null) {
+            requestContext.invalidate();
+            requestContext.deactivate();
+            requestContext.dissociate(requestMap);
+            requestContext = null;
+        }
+    }
+
+    public void shutdown() {
+        deactivateContexts();
+        weld.shutdown();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.benchmark;
+
+import javax.enterprise.inject.Produces;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+
+import org.jboss.solder.core.ExtensionManaged;
+
+/**
+ * Configures the Seam managed persistence context used by the benchmarks.
+ * <p/>
+ * The SMPC is dependent scoped, so that the benchmarks measure the SMPC itself
+ * rather than the CDI client proxy in front of it.
+ */
+public class BenchmarkPersistenceUnit {
+    @PersistenceUnit(unitName = "benchmarkPu")
+    @Produces
+    @ExtensionManaged
+    EntityManagerFactory emf;
+}
@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.jboss.seam.persistence.FlushModeType;
+import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.PersistenceContexts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures touching a persistence context and switching the flush mode of
+ * the touched persistence contexts, as happens around every JSF render.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlushModeFanOutBenchmark {
+
+    private BenchmarkContainer container;
+
+    private PersistenceContexts persistenceContexts;
+
+    private ManagedPersistenceContext smpc;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        container = new BenchmarkContainer();
+        container.activateContexts();
+        persistenceContexts = container.getInstance(PersistenceContexts.class);
+        EntityManager em = container.getInstance(EntityManager.class);
+        // touches the SMPC
+        em.getFlushMode();
+        smpc = (ManagedPersistenceContext) em;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        container.shutdown();
+    }
+
+    @Benchmark
+    public void touchAndUntouch() {
+        persistenceContexts.untouch(smpc);
+        persistenceContexts.touch(smpc);
+    }
+
+    @Benchmark
+    public void changeFlushMode() {
+        persistenceContexts.changeFlushMode(FlushModeType.COMMIT);
+        persistenceContexts.changeFlushMode(FlushModeType.AUTO);
+    }
+
+    @Benchmark
+    public void render() {
+        persistenceContexts.beforeRender();
+        persistenceContexts.afterRender();
+    }
+}
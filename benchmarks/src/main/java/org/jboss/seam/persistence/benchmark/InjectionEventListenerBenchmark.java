@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.seam.persistence.InjectionEventListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of {@link InjectionEventListener} over a large query
+ * result, both for entities without injection points, which should be close
+ * to free, and for entities that need injection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectionEventListenerBenchmark {
+
+    @Param({"1000", "50000"})
+    public int resultSize;
+
+    private BenchmarkContainer container;
+
+    private InjectionEventListener listener;
+
+    private List<Hotel> hotels;
+
+    private List<Guest> guests;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        container = new BenchmarkContainer();
+        listener = container.getInstance(InjectionEventListener.class);
+        hotels = new ArrayList<Hotel>(resultSize);
+        guests = new ArrayList<Guest>(resultSize);
+        for (int i = 0; i < resultSize; ++i) {
+            hotels.add(new Hotel("Hotel " + i, "Wollongong"));
+            guests.add(new Guest("Guest " + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        container.shutdown();
+    }
+
+    @Benchmark
+    public void loadWithoutInjection() {
+        for (Hotel hotel : hotels) {
+            listener.load(hotel);
+        }
+    }
+
+    @Benchmark
+    public void loadWithInjection() {
+        for (Guest guest : guests) {
+            listener.load(guest);
+        }
+    }
+}
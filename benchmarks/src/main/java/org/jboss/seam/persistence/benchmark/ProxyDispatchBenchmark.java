@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.Query;
+
+import org.jboss.seam.persistence.ProxyStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of calling through a Seam managed persistence context,
+ * using each {@link ProxyStrategy}, with calling the raw
+ * {@link EntityManager} directly. The operations are chosen so that they do
+ * not hit the database, which makes the proxy overhead visible.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyDispatchBenchmark {
+
+    @Param({"JDK", "DIRECT"})
+    public String proxyStrategy;
+
+    private BenchmarkContainer container;
+
+    private EntityManager smpc;
+
+    private EntityManager raw;
+
+    private Long hotelId;
+
+    private Hotel managedHotel;
+
+    private Hotel rawHotel;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        System.setProperty(ProxyStrategy.PROPERTY_NAME, proxyStrategy);
+        container = new BenchmarkContainer();
+        container.activateContexts();
+        smpc = container.getInstance(EntityManager.class);
+        raw = smpc.getEntityManagerFactory().createEntityManager();
+
+        raw.getTransaction().begin();
+        Hotel hotel = new Hotel("Hilton", "Wollongong");
+        raw.persist(hotel);
+        raw.getTransaction().commit();
+        hotelId = hotel.getId();
+
+        managedHotel = smpc.find(Hotel.class, hotelId);
+        rawHotel = raw.find(Hotel.class, hotelId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        raw.close();
+        container.shutdown();
+        System.clearProperty(ProxyStrategy.PROPERTY_NAME);
+    }
+
+    @Benchmark
+    public Hotel smpcFind() {
+        return smpc.find(Hotel.class, hotelId);
+    }
+
+    @Benchmark
+    public Hotel rawFind() {
+        return raw.find(Hotel.class, hotelId);
+    }
+
+    @Benchmark
+    public boolean smpcContains() {
+        return smpc.contains(managedHotel);
+    }
+
+    @Benchmark
+    public boolean rawContains() {
+        return raw.contains(rawHotel);
+    }
+
+    @Benchmark
+    public FlushModeType smpcGetFlushMode() {
+        return smpc.getFlushMode();
+    }
+
+    @Benchmark
+    public FlushModeType rawGetFlushMode() {
+        return raw.getFlushMode();
+    }
+
+    @Benchmark
+    public Query smpcCreateQuery() {
+        return smpc.createQuery("select h from Hotel h where h.city = 'Wollongong'");
+    }
+
+    @Benchmark
+    public Query rawCreateQuery() {
+        return raw.createQuery("select h from Hotel h where h.city = 'Wollongong'");
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.seam.persistence.QueryParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the single pass {@link QueryParser} scanner with the original
+ * {@link java.util.StringTokenizer} based parser on queries of various sizes.
+ * Only parsing is measured, no EL is evaluated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryParserBenchmark {
+
+    static final String SMALL = "select h from Hotel h where h.name = #{hotelName}";
+
+    static final String MEDIUM = "select h from Hotel h left join fetch h.bookings b "
+            + "where h.city = #{search.city} and h.state = #{search.state} "
+            + "and b.checkinDate >= #{search.from} and h.name like 'The %' "
+            + "order by h.name";
+
+    static final String LARGE = "select distinct h from Hotel h "
+            + "left join fetch h.bookings b left join fetch b.user u "
+            + "where h.city = #{search.city} and h.state = #{search.state} "
+            + "and h.country = #{search.country} and h.zip like #{search.zipPattern} "
+            + "and b.checkinDate >= #{search.from} and b.checkoutDate <= #{search.to} "
+            + "and u.username <> #{identity.username} and u.active = true "
+            + "and h.price between #{search.minPrice} and #{search.maxPrice} "
+            + "and h.name not in ('Closed', 'Under renovation') "
+            + "and exists (select r from Review r where r.hotel = h and r.rating >= #{search.minRating}) "
+            + "order by h.price, h.name";
+
+    static final String NO_EL = "select h from Hotel h left join fetch h.bookings b "
+            + "where h.city = :city and h.state = :state order by h.name";
+
+    @Param({"small", "medium", "large", "noEl"})
+    public String size;
+
+    private String query;
+
+    @Setup
+    public void setup() {
+        if ("small".equals(size)) {
+            query = SMALL;
+        } else if ("medium".equals(size)) {
+            query = MEDIUM;
+        } else if ("large".equals(size)) {
+            query = LARGE;
+        } else {
+            query = NO_EL;
+        }
+    }
+
+    @Benchmark
+    public void scanner(Blackhole blackhole) {
+        QueryParser parser = new QueryParser(query);
+        blackhole.consume(parser.getEjbql());
+        blackhole.consume(parser.getParameterExpressions());
+    }
+
+    @Benchmark
+    public void tokenizer(Blackhole blackhole) {
+        TokenizerQueryParser parser = new TokenizerQueryParser(query);
+        blackhole.consume(parser.getEjbql());
+        blackhole.consume(parser.getParameterExpressions());
+    }
+}
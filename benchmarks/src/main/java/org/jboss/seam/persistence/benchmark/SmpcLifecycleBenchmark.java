@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+
+import org.jboss.seam.persistence.ProxyStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures creating, using and destroying a Seam managed persistence context,
+ * as happens for every request that uses a request scoped SMPC.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmpcLifecycleBenchmark {
+
+    @Param({"JDK", "DIRECT"})
+    public String proxyStrategy;
+
+    private BenchmarkContainer container;
+
+    private BeanManager beanManager;
+
+    private Bean<EntityManager> bean;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        System.setProperty(ProxyStrategy.PROPERTY_NAME, proxyStrategy);
+        container = new BenchmarkContainer();
+        container.activateContexts();
+        beanManager = container.getBeanManager();
+        bean = (Bean<EntityManager>) beanManager.resolve(beanManager.getBeans(EntityManager.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        container.shutdown();
+        System.clearProperty(ProxyStrategy.PROPERTY_NAME);
+    }
+
+    @Benchmark
+    public FlushModeType createAndDestroy() {
+        CreationalContext<EntityManager> ctx = beanManager.createCreationalContext(bean);
+        EntityManager em = (EntityManager) beanManager.getReference(bean, EntityManager.class, ctx);
+        try {
+            return em.getFlushMode();
+        } finally {
+            bean.destroy(em, ctx);
+        }
+    }
+}
@@ -18,12 +18,19 @@ package org.jboss.seam.persistence;
 
 import javax.persistence.EntityManager;
 import javax.persistence.OptimisticLockException;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
 import javax.transaction.Synchronization;
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -38,7 +45,7 @@ import java.util.Set;
  * @author Pete Muir
  * @author Stuart Douglas
  */
-public class DefaultPersistenceProvider implements SeamPersistenceProvider, Serializable {
+public class DefaultPersistenceProvider implements ExtendedPersistenceProvider, Serializable {
     public enum Feature {
         /**
          * Identifies whether this JPA provider supports using a wildcard as the
@@ -100,10 +107,28 @@ public class DefaultPersistenceProvider implements SeamPersistenceProvider, Seri
         }
     }
 
+    /**
+     * JPA cannot undo provider specific settings, so this only clears the
+     * entity manager and restores the default flush mode
+     */
+    public void reset(EntityManager entityManager) {
+        entityManager.clear();
+        entityManager.setFlushMode(javax.persistence.FlushModeType.AUTO);
+    }
+
     public void setFlushModeManual(EntityManager entityManager) {
         throw new UnsupportedOperationException("Use of FlushMode.MANUAL requires Hibernate as the persistence provider. Please use Hibernate, a custom persistenceProvider, or remove the MANUAL flush mode setting.");
     }
 
+    /**
+     * Neither manual flushing nor read only entities are part of the JPA
+     * specification, so the default implementation can only defer flushing
+     * until commit
+     */
+    public void setReadOnly(EntityManager entityManager) {
+        entityManager.setFlushMode(javax.persistence.FlushModeType.COMMIT);
+    }
+
     public FlushModeType getRenderFlushMode() {
         return FlushModeType.COMMIT;
     }
@@ -112,19 +137,54 @@ public class DefaultPersistenceProvider implements SeamPersistenceProvider, Seri
         return true; // best we can do!
     }
 
+    public boolean isDirty(EntityManager entityManager, Object entity) {
+        return isDirty(entityManager);
+    }
+
+    public int getManagedEntityCount(EntityManager entityManager) {
+        return -1;
+    }
+
+    public Collection<Object> getManagedEntities(EntityManager entityManager) {
+        return Collections.emptyList();
+    }
+
     public Object getId(Object bean, EntityManager entityManager) {
-        // return Entity.forBean(bean).getIdentifier(bean);
-        return null;
+        return entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(bean);
     }
 
     public String getName(Object bean, EntityManager entityManager) throws IllegalArgumentException {
-        return null;
-        // return Entity.forBean(bean).getName();
+        return entityManager.getMetamodel().entity(getBeanClass(bean)).getName();
     }
 
     public Object getVersion(Object bean, EntityManager entityManager) {
+        EntityType<?> type = entityManager.getMetamodel().entity(getBeanClass(bean));
+        if (!type.hasVersionAttribute()) {
+            return null;
+        }
+        for (SingularAttribute<?, ?> attribute : type.getSingularAttributes()) {
+            if (attribute.isVersion()) {
+                return getAttributeValue(attribute.getJavaMember(), bean);
+            }
+        }
         return null;
-        // return Entity.forBean(bean).getVersion(bean);
+    }
+
+    private static Object getAttributeValue(Member member, Object bean) {
+        try {
+            if (member instanceof Field) {
+                Field field = (Field) member;
+                field.setAccessible(true);
+                return field.get(bean);
+            } else if (member instanceof Method) {
+                Method method = (Method) member;
+                method.setAccessible(true);
+                return method.invoke(bean);
+            }
+            return null;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public void checkVersion(Object bean, EntityManager entityManager, Object oldVersion, Object version) {
@@ -155,9 +215,46 @@ public class DefaultPersistenceProvider implements SeamPersistenceProvider, Seri
         return Collections.emptySet();
     }
 
+    /**
+     * JDBC batching is not part of the JPA specification, so the default
+     * implementation returns no properties
+     */
+    public Map<String, Object> getBatchProperties(int batchSize) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Cursors are not part of the JPA specification, so the default
+     * implementation runs the query a page at a time
+     */
+    public <T> QueryIterator<T> iterate(EntityManager entityManager, Query query, int fetchSize) {
+        return new PagedQueryIterator<T>(entityManager, query, fetchSize);
+    }
+
+    public <T> QueryIterator<T> iterate(EntityManager entityManager, Class<T> entityClass, int fetchSize) {
+        return new KeysetQueryIterator<T>(entityManager, entityClass, fetchSize);
+    }
+
+    /**
+     * The query cache is not part of the JPA specification, so the default
+     * implementation does nothing
+     */
+    public void setCacheable(Query query, String region) {
+    }
+
+    public void evict(EntityManager entityManager, Class<?> entityClass) {
+        entityManager.getEntityManagerFactory().getCache().evict(entityClass);
+    }
+
+    public void evict(EntityManager entityManager, Class<?> entityClass, Object id) {
+        entityManager.getEntityManagerFactory().getCache().evict(entityClass, id);
+    }
+
+    public void evictQueryRegion(EntityManager entityManager, String region) {
+    }
+
     public Class<?> getBeanClass(Object bean) {
-        return null;
-        // return Entity.forBean(bean).getBeanClass();
+        return bean.getClass();
     }
 
     public Method getPostLoadMethod(Object bean, EntityManager entityManager) {
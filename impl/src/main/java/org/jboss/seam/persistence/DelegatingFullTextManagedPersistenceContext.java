@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.io.Serializable;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.search.MassIndexer;
+import org.hibernate.search.SearchFactory;
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.search.jpa.FullTextQuery;
+
+/**
+ * {@link DelegatingManagedPersistenceContext} that also implements
+ * {@link FullTextEntityManager}, so that the direct proxy strategy can be
+ * used when Hibernate Search is present. The full text methods are passed
+ * through to the full text entity manager that
+ * {@link HibernatePersistenceProvider} wraps the delegate in.
+ * <p/>
+ * Hibernate Search is optional, so this class must only be loaded once
+ * <code>FullTextEntityManager</code> has been found on the class path.
+ */
+public class DelegatingFullTextManagedPersistenceContext extends DelegatingManagedPersistenceContext implements FullTextEntityManager {
+
+    private static final long serialVersionUID = -3384519541946310453L;
+
+    static final String FULL_TEXT_ENTITY_MANAGER = "org.hibernate.search.jpa.FullTextEntityManager";
+
+    public DelegatingFullTextManagedPersistenceContext(ManagedPersistenceContextProxyHandler handler) {
+        super(handler);
+    }
+
+    /**
+     * Creates the persistence context without requiring callers to link
+     * against Hibernate Search
+     */
+    static EntityManager create(ManagedPersistenceContextProxyHandler handler) {
+        return new DelegatingFullTextManagedPersistenceContext(handler);
+    }
+
+    private FullTextEntityManager fullTextDelegate() {
+        EntityManager delegate = delegate();
+        if (!(delegate instanceof FullTextEntityManager)) {
+            throw new UnsupportedOperationException("The entity manager could not be wrapped in a FullTextEntityManager: " + delegate);
+        }
+        return (FullTextEntityManager) delegate;
+    }
+
+    public FullTextQuery createFullTextQuery(org.apache.lucene.search.Query luceneQuery, Class<?>... entities) {
+        beforeInvoke();
+        return fullTextDelegate().createFullTextQuery(luceneQuery, entities);
+    }
+
+    public <T> void index(T entity) {
+        beforeInvoke();
+        fullTextDelegate().index(entity);
+    }
+
+    public SearchFactory getSearchFactory() {
+        beforeInvoke();
+        return fullTextDelegate().getSearchFactory();
+    }
+
+    public <T> void purge(Class<T> entityType, Serializable id) {
+        beforeInvoke();
+        fullTextDelegate().purge(entityType, id);
+    }
+
+    public <T> void purgeAll(Class<T> entityType) {
+        beforeInvoke();
+        fullTextDelegate().purgeAll(entityType);
+    }
+
+    public void flushToIndexes() {
+        beforeInvoke();
+        fullTextDelegate().flushToIndexes();
+    }
+
+    public MassIndexer createIndexer(Class<?>... types) {
+        beforeInvoke();
+        return fullTextDelegate().createIndexer(types);
+    }
+
+    @Override
+    public String toString() {
+        return "DelegatingFullTextManagedPersistenceContext[" + delegate() + "]";
+    }
+}
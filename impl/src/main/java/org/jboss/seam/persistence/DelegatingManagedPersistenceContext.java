@@ -0,0 +1,388 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.metamodel.Metamodel;
+import javax.transaction.SystemException;
+
+import org.jboss.seam.persistence.metrics.PersistenceContextMetrics;
+
+/**
+ * Seam managed persistence context that calls the delegate
+ * {@link EntityManager} directly instead of going through a
+ * {@link java.lang.reflect.Proxy}. This avoids the argument array, boxing and
+ * reflective invocation of the JDK proxy on every call.
+ * <p/>
+ * This can only be used when the SMPC does not need to implement any
+ * additional interfaces from the {@link SeamPersistenceProvider}s. When
+ * Hibernate Search is present {@link DelegatingFullTextManagedPersistenceContext}
+ * is used instead, and for any other additional interfaces the JDK proxy is
+ * used.
+ * <p/>
+ * All persistence context management is done by the
+ * {@link ManagedPersistenceContextProxyHandler}, so both proxy strategies
+ * behave identically.
+ *
+ * @see ProxyStrategy
+ */
+public class DelegatingManagedPersistenceContext implements EntityManager, ManagedPersistenceContext, Serializable {
+
+    private static final long serialVersionUID = 2315412637513285474L;
+
+    private final ManagedPersistenceContextProxyHandler handler;
+
+    public DelegatingManagedPersistenceContext(ManagedPersistenceContextProxyHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * The entity manager is owned by the handler, as it is not serialized in
+     * {@link PassivationMode#SNAPSHOT} mode
+     */
+    protected EntityManager delegate() {
+        return handler.getEntityManager();
+    }
+
+    /**
+     * Joins the transaction and marks the persistence context as touched,
+     * this must be called before any call to the delegate
+     */
+    protected void beforeInvoke() {
+        try {
+            handler.beforeInvoke(this);
+        } catch (SystemException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // ManagedPersistenceContext
+
+    public void changeFlushMode(org.jboss.seam.persistence.FlushModeType flushMode) {
+        handler.changeFushMode(flushMode);
+        handler.getMetrics().flushModeChanged();
+    }
+
+    public Set<Annotation> getQualifiers() {
+        return handler.getQualifiers();
+    }
+
+    public Class<?> getBeanType() {
+        return EntityManager.class;
+    }
+
+    public SeamPersistenceProvider getProvider() {
+        return handler.getProvider();
+    }
+
+    public void setBatchSize(int batchSize) {
+        handler.setBatchSize(batchSize);
+    }
+
+    public int getBatchSize() {
+        return handler.getBatchSize();
+    }
+
+    public <T> QueryIterator<T> iterate(Query query, int fetchSize) {
+        beforeInvoke();
+        return handler.iterate(query, fetchSize);
+    }
+
+    public <T> QueryIterator<T> iterate(Class<T> entityClass, int fetchSize) {
+        beforeInvoke();
+        return handler.iterate(entityClass, fetchSize);
+    }
+
+    public void closeAfterTransaction() {
+        try {
+            handler.closeAfterTransaction();
+        } catch (SystemException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // EntityManager
+
+    public void persist(Object entity) {
+        handler.beforeWrite();
+        beforeInvoke();
+        delegate().persist(entity);
+        handler.entityAccessed(entity);
+        try {
+            handler.afterPersist();
+        } catch (SystemException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> T merge(T entity) {
+        handler.beforeWrite();
+        handler.entityAccessed(entity);
+        beforeInvoke();
+        T merged = handler.entityAccessed(delegate().merge(entity));
+        handler.evictIfRequired();
+        return merged;
+    }
+
+    public void remove(Object entity) {
+        handler.beforeWrite();
+        handler.entityAccessed(entity);
+        beforeInvoke();
+        delegate().remove(entity);
+        handler.evictIfRequired();
+    }
+
+    public <T> T find(Class<T> entityClass, Object primaryKey) {
+        beforeInvoke();
+        T found = handler.entityAccessed(delegate().find(entityClass, primaryKey));
+        handler.evictIfRequired();
+        return found;
+    }
+
+    public <T> T find(Class<T> entityClass, Object primaryKey, Map<String, Object> properties) {
+        beforeInvoke();
+        T found = handler.entityAccessed(delegate().find(entityClass, primaryKey, properties));
+        handler.evictIfRequired();
+        return found;
+    }
+
+    public <T> T find(Class<T> entityClass, Object primaryKey, LockModeType lockMode) {
+        beforeInvoke();
+        T found = handler.entityAccessed(delegate().find(entityClass, primaryKey, lockMode));
+        handler.evictIfRequired();
+        return found;
+    }
+
+    public <T> T find(Class<T> entityClass, Object primaryKey, LockModeType lockMode, Map<String, Object> properties) {
+        beforeInvoke();
+        T found = handler.entityAccessed(delegate().find(entityClass, primaryKey, lockMode, properties));
+        handler.evictIfRequired();
+        return found;
+    }
+
+    public <T> T getReference(Class<T> entityClass, Object primaryKey) {
+        beforeInvoke();
+        T found = handler.entityAccessed(delegate().getReference(entityClass, primaryKey));
+        handler.evictIfRequired();
+        return found;
+    }
+
+    public void flush() {
+        beforeInvoke();
+        PersistenceContextMetrics metrics = handler.getMetrics();
+        if (metrics.isEnabled()) {
+            long start = System.nanoTime();
+            try {
+                delegate().flush();
+            } finally {
+                metrics.flushed(System.nanoTime() - start);
+            }
+        } else {
+            delegate().flush();
+        }
+    }
+
+    public void setFlushMode(FlushModeType flushMode) {
+        // we do not join the transaction for setFlushMode calls, as this may
+        // result in an infinite loop, as this is called during SMPC
+        // initialisation
+        handler.touch(this);
+        delegate().setFlushMode(flushMode);
+    }
+
+    public FlushModeType getFlushMode() {
+        beforeInvoke();
+        return delegate().getFlushMode();
+    }
+
+    public void lock(Object entity, LockModeType lockMode) {
+        handler.entityAccessed(entity);
+        beforeInvoke();
+        delegate().lock(entity, lockMode);
+    }
+
+    public void lock(Object entity, LockModeType lockMode, Map<String, Object> properties) {
+        handler.entityAccessed(entity);
+        beforeInvoke();
+        delegate().lock(entity, lockMode, properties);
+    }
+
+    public void refresh(Object entity) {
+        handler.entityAccessed(entity);
+        beforeInvoke();
+        delegate().refresh(entity);
+    }
+
+    public void refresh(Object entity, Map<String, Object> properties) {
+        handler.entityAccessed(entity);
+        beforeInvoke();
+        delegate().refresh(entity, properties);
+    }
+
+    public void refresh(Object entity, LockModeType lockMode) {
+        handler.entityAccessed(entity);
+        beforeInvoke();
+        delegate().refresh(entity, lockMode);
+    }
+
+    public void refresh(Object entity, LockModeType lockMode, Map<String, Object> properties) {
+        handler.entityAccessed(entity);
+        beforeInvoke();
+        delegate().refresh(entity, lockMode, properties);
+    }
+
+    public void clear() {
+        beforeInvoke();
+        delegate().clear();
+    }
+
+    public void detach(Object entity) {
+        beforeInvoke();
+        delegate().detach(entity);
+    }
+
+    public boolean contains(Object entity) {
+        beforeInvoke();
+        return delegate().contains(entity);
+    }
+
+    public LockModeType getLockMode(Object entity) {
+        beforeInvoke();
+        return delegate().getLockMode(entity);
+    }
+
+    public void setProperty(String propertyName, Object value) {
+        handler.propertiesChanged();
+        beforeInvoke();
+        delegate().setProperty(propertyName, value);
+    }
+
+    public Map<String, Object> getProperties() {
+        beforeInvoke();
+        return delegate().getProperties();
+    }
+
+    public Query createQuery(String qlString) {
+        beforeInvoke();
+        handler.evictIfRequired();
+        return handler.createQuery(qlString, null);
+    }
+
+    public <T> TypedQuery<T> createQuery(CriteriaQuery<T> criteriaQuery) {
+        beforeInvoke();
+        handler.evictIfRequired();
+        return handler.getQueryEntityManager().createQuery(criteriaQuery);
+    }
+
+    public <T> TypedQuery<T> createQuery(String qlString, Class<T> resultClass) {
+        beforeInvoke();
+        handler.evictIfRequired();
+        return (TypedQuery<T>) handler.createQuery(qlString, resultClass);
+    }
+
+    public Query createNamedQuery(String name) {
+        beforeInvoke();
+        handler.evictIfRequired();
+        return handler.getQueryEntityManager().createNamedQuery(name);
+    }
+
+    public <T> TypedQuery<T> createNamedQuery(String name, Class<T> resultClass) {
+        beforeInvoke();
+        handler.evictIfRequired();
+        return handler.getQueryEntityManager().createNamedQuery(name, resultClass);
+    }
+
+    public Query createNativeQuery(String sqlString) {
+        beforeInvoke();
+        handler.evictIfRequired();
+        return handler.getQueryEntityManager().createNativeQuery(sqlString);
+    }
+
+    public Query createNativeQuery(String sqlString, Class resultClass) {
+        beforeInvoke();
+        handler.evictIfRequired();
+        return handler.getQueryEntityManager().createNativeQuery(sqlString, resultClass);
+    }
+
+    public Query createNativeQuery(String sqlString, String resultSetMapping) {
+        beforeInvoke();
+        handler.evictIfRequired();
+        return handler.getQueryEntityManager().createNativeQuery(sqlString, resultSetMapping);
+    }
+
+    public void joinTransaction() {
+        beforeInvoke();
+        delegate().joinTransaction();
+    }
+
+    public <T> T unwrap(Class<T> cls) {
+        beforeInvoke();
+        return delegate().unwrap(cls);
+    }
+
+    public Object getDelegate() {
+        beforeInvoke();
+        return delegate().getDelegate();
+    }
+
+    public void close() {
+        beforeInvoke();
+        delegate().close();
+    }
+
+    public boolean isOpen() {
+        beforeInvoke();
+        return delegate().isOpen();
+    }
+
+    public EntityTransaction getTransaction() {
+        return delegate().getTransaction();
+    }
+
+    public EntityManagerFactory getEntityManagerFactory() {
+        beforeInvoke();
+        return delegate().getEntityManagerFactory();
+    }
+
+    public CriteriaBuilder getCriteriaBuilder() {
+        beforeInvoke();
+        return delegate().getCriteriaBuilder();
+    }
+
+    public Metamodel getMetamodel() {
+        beforeInvoke();
+        return delegate().getMetamodel();
+    }
+
+    @Override
+    public String toString() {
+        return "DelegatingManagedPersistenceContext[" + handler.getEntityManager() + "]";
+    }
+}
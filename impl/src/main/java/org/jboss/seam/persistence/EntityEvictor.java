@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Keeps a persistence context below a maximum number of entities by
+ * detaching the least recently used entities that have no unflushed changes.
+ * <p/>
+ * Entities are ordered by the last time they were passed through the SMPC.
+ * Entities that were loaded some other way, e.g. by a query, are picked up
+ * from the persistence provider the next time the bound is exceeded, and
+ * count as used at that point.
+ * <p/>
+ * This is not thread safe, and like the persistence context it belongs to
+ * must only be used by one thread at a time.
+ *
+ * @see BoundedPersistenceContext
+ */
+class EntityEvictor {
+
+    private final int maxEntities;
+
+    /**
+     * the number of entities to evict down to, so that a full scan is not
+     * needed on every call once the bound has been reached
+     */
+    private final int targetEntities;
+
+    /**
+     * entities in access order, least recently used first
+     */
+    private final LinkedHashMap<IdentityKey, Object> entities = new LinkedHashMap<IdentityKey, Object>(16, 0.75f, true);
+
+    /**
+     * the entity count at which the next scan is done. This is raised if a
+     * scan could not evict enough entities, so that a persistence context full
+     * of dirty entities is not scanned on every call.
+     */
+    private int nextScan;
+
+    EntityEvictor(int maxEntities) {
+        if (maxEntities <= 0) {
+            throw new IllegalArgumentException("Maximum number of entities must be positive: " + maxEntities);
+        }
+        this.maxEntities = maxEntities;
+        this.targetEntities = maxEntities - maxEntities / 10;
+        this.nextScan = maxEntities;
+    }
+
+    int getMaxEntities() {
+        return maxEntities;
+    }
+
+    /**
+     * Marks an entity as the most recently used. Null is ignored.
+     */
+    void accessed(Object entity) {
+        if (entity != null) {
+            entities.put(new IdentityKey(entity), entity);
+        }
+    }
+
+    /**
+     * Detaches clean entities if the persistence context holds more than the
+     * maximum number of entities
+     *
+     * @return the number of entities that were detached
+     */
+    int evictIfRequired(EntityManager entityManager, SeamPersistenceProvider provider) {
+        ExtendedPersistenceProvider extendedProvider = PersistenceProviderCache.getExtendedProvider(provider);
+        int count = extendedProvider.getManagedEntityCount(entityManager);
+        if (count < 0) {
+            count = entities.size();
+        }
+        if (count <= nextScan && entities.size() <= nextScan) {
+            return 0;
+        }
+        for (Object entity : extendedProvider.getManagedEntities(entityManager)) {
+            IdentityKey key = new IdentityKey(entity);
+            // containsKey does not change the access order
+            if (!entities.containsKey(key)) {
+                entities.put(key, entity);
+            }
+        }
+        int evicted = 0;
+        Iterator<Map.Entry<IdentityKey, Object>> it = entities.entrySet().iterator();
+        while (it.hasNext() && (count > targetEntities || entities.size() > maxEntities)) {
+            Object entity = it.next().getValue();
+            if (!isManaged(entityManager, entity)) {
+                // detached by the application, or by an earlier cascade
+                it.remove();
+            } else if (!extendedProvider.isDirty(entityManager, entity)) {
+                entityManager.detach(entity);
+                it.remove();
+                count--;
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            // detaching may have cascaded to other entities
+            count = extendedProvider.getManagedEntityCount(entityManager);
+        }
+        nextScan = Math.max(maxEntities, Math.max(count, entities.size()) + maxEntities / 10);
+        return evicted;
+    }
+
+    private static boolean isManaged(EntityManager entityManager, Object entity) {
+        try {
+            return entityManager.contains(entity);
+        } catch (IllegalArgumentException e) {
+            // not an entity, the call that passed it in will have failed
+            return false;
+        }
+    }
+
+    /**
+     * Forgets all entities, e.g. after the persistence context has been
+     * cleared
+     */
+    void clear() {
+        entities.clear();
+        nextScan = maxEntities;
+    }
+
+    private static final class IdentityKey {
+        private final Object object;
+
+        IdentityKey(Object object) {
+            this.object = object;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(object);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IdentityKey && ((IdentityKey) obj).object == object;
+        }
+    }
+}
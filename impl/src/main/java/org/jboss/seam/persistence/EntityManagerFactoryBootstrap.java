@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.jboss.solder.logging.Logger;
+
+/**
+ * Creates the {@link EntityManagerFactory}s for persistence units that are
+ * bootstrapped by seam persistence in a Java SE environment.
+ * <p/>
+ * By default a factory is created the first time it is needed. If eager
+ * bootstrap is enabled with the
+ * <code>org.jboss.seam.persistence.eagerBootstrap</code> system property then
+ * all persistence units start building in parallel once the deployment has
+ * been validated, and a request for a factory only blocks if the factory has
+ * not finished building yet. The number of threads used can be set with the
+ * <code>org.jboss.seam.persistence.bootstrapThreads</code> system property,
+ * and defaults to the number of available processors. The threads are shared
+ * by every bootstrap, and exit once they have been idle for a minute.
+ */
+public class EntityManagerFactoryBootstrap {
+
+    public static final String EAGER_PROPERTY_NAME = "org.jboss.seam.persistence.eagerBootstrap";
+
+    public static final String THREADS_PROPERTY_NAME = "org.jboss.seam.persistence.bootstrapThreads";
+
+    private static final Logger log = Logger.getLogger(EntityManagerFactoryBootstrap.class);
+
+    private static ThreadPoolExecutor executor;
+
+    private final Set<String> unitNames = new LinkedHashSet<String>();
+
+    /**
+     * additional properties to build each persistence unit with
+     */
+    private final Map<String, Map<String, Object>> unitProperties = new HashMap<String, Map<String, Object>>();
+
+    /**
+     * factories that are being built eagerly and have not been handed out yet.
+     * Each one is only handed out once, as whoever receives it will close it.
+     */
+    private final Map<String, EntityManagerFactoryTask> tasks = new HashMap<String, EntityManagerFactoryTask>();
+
+    private boolean started;
+
+    /**
+     * Returns true if eager bootstrap has been enabled through system
+     * properties
+     */
+    public static boolean isEagerBootstrapEnabled() {
+        return Boolean.parseBoolean(System.getProperty(EAGER_PROPERTY_NAME));
+    }
+
+    /**
+     * Registers a persistence unit that may be bootstrapped eagerly
+     */
+    public synchronized void addPersistenceUnit(String unitName) {
+        unitNames.add(unitName);
+    }
+
+    /**
+     * Registers a persistence unit that may be bootstrapped eagerly, and will
+     * be built with the given properties in addition to those in
+     * persistence.xml
+     */
+    public synchronized void addPersistenceUnit(String unitName, Map<String, Object> properties) {
+        unitNames.add(unitName);
+        if (!properties.isEmpty()) {
+            unitProperties.put(unitName, properties);
+        }
+    }
+
+    /**
+     * Starts building all registered persistence units in parallel. This does
+     * not wait for them to finish.
+     */
+    public synchronized void start() {
+        if (unitNames.isEmpty() || started) {
+            return;
+        }
+        started = true;
+        log.info("Eagerly bootstrapping persistence units " + unitNames);
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        for (final String unitName : unitNames) {
+            EntityManagerFactoryTask task = new EntityManagerFactoryTask(new Callable<EntityManagerFactory>() {
+                public EntityManagerFactory call() throws Exception {
+                    // persistence.xml is located through the TCCL
+                    Thread.currentThread().setContextClassLoader(loader);
+                    try {
+                        return createEntityManagerFactory(unitName, getProperties(unitName));
+                    } finally {
+                        Thread.currentThread().setContextClassLoader(null);
+                    }
+                }
+            });
+            tasks.put(unitName, task);
+            getExecutor().execute(task.getRunnable());
+        }
+    }
+
+    /**
+     * Returns a new factory for the given persistence unit, which the caller
+     * must close. If the unit is being built eagerly and its factory has not
+     * been handed out yet this waits for it to finish, otherwise a factory is
+     * built now.
+     */
+    public EntityManagerFactory getEntityManagerFactory(String unitName) {
+        EntityManagerFactoryTask task;
+        synchronized (this) {
+            task = tasks.remove(unitName);
+        }
+        if (task == null) {
+            return createEntityManagerFactory(unitName, getProperties(unitName));
+        }
+        return task.getResult();
+    }
+
+    /**
+     * Closes any factories that were built eagerly but never used. Builds that
+     * have not started are abandoned, and builds that are running are waited
+     * for so that their factories can be closed.
+     */
+    public void shutdown() {
+        List<EntityManagerFactoryTask> unused;
+        synchronized (this) {
+            unused = new ArrayList<EntityManagerFactoryTask>(tasks.values());
+            tasks.clear();
+        }
+        for (EntityManagerFactoryTask task : unused) {
+            EntityManagerFactory emf = task.abandon();
+            if (emf == null) {
+                continue;
+            }
+            try {
+                emf.close();
+            } catch (RuntimeException e) {
+                log.debug("Could not close unused EntityManagerFactory", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the executor that builds factories in the background, which is
+     * shared by all bootstraps so that the number of threads is bounded
+     */
+    static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = getThreadCount();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new BootstrapThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    private synchronized Map<String, Object> getProperties(String unitName) {
+        return unitProperties.get(unitName);
+    }
+
+    static EntityManagerFactory createEntityManagerFactory(String unitName, Map<String, Object> properties) {
+        long start = System.currentTimeMillis();
+        EntityManagerFactory emf;
+        if (properties == null) {
+            emf = Persistence.createEntityManagerFactory(unitName);
+        } else {
+            emf = Persistence.createEntityManagerFactory(unitName, properties);
+        }
+        log.info("Bootstrapped persistence unit " + unitName + " in " + (System.currentTimeMillis() - start) + "ms");
+        return emf;
+    }
+
+    static int getThreadCount() {
+        String value = System.getProperty(THREADS_PROPERTY_NAME);
+        if (value != null && value.length() > 0) {
+            int threads = Integer.parseInt(value.trim());
+            if (threads > 0) {
+                return threads;
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    static class BootstrapThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "seam-persistence-bootstrap-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            // do not keep the creating application's class loader alive
+            thread.setContextClassLoader(null);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Builds an {@link EntityManagerFactory} on a background thread.
+ * <p/>
+ * A build that has not started yet can be abandoned. A build that has started
+ * is never interrupted, as the factory it returns would be lost, so
+ * abandoning it waits for the factory and hands it back to be closed.
+ */
+class EntityManagerFactoryTask implements Callable<EntityManagerFactory> {
+
+    private static final int PENDING = 0;
+
+    private static final int RUNNING = 1;
+
+    private static final int ABANDONED = 2;
+
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    private final Callable<EntityManagerFactory> build;
+
+    private final FutureTask<EntityManagerFactory> future;
+
+    EntityManagerFactoryTask(Callable<EntityManagerFactory> build) {
+        this.build = build;
+        this.future = new FutureTask<EntityManagerFactory>(this);
+    }
+
+    public EntityManagerFactory call() throws Exception {
+        if (!state.compareAndSet(PENDING, RUNNING)) {
+            return null;
+        }
+        return build.call();
+    }
+
+    /**
+     * Returns the runnable that is given to the executor
+     */
+    Runnable getRunnable() {
+        return future;
+    }
+
+    boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Waits for the factory to be built
+     *
+     * @throws RuntimeException if the build failed
+     */
+    EntityManagerFactory getResult() {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops the build if it has not started, otherwise waits for it to finish
+     *
+     * @return the factory, which the caller must close, or null if it was
+     *         never built or the build failed
+     */
+    EntityManagerFactory abandon() {
+        if (state.compareAndSet(PENDING, ABANDONED)) {
+            future.cancel(false);
+            return null;
+        }
+        try {
+            return getResult();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Pool of idle entity managers for a request scoped SMPC
+ * <p/>
+ * Entity managers are reset by their persistence provider before they are
+ * pooled. Properties set with {@link EntityManager#setProperty(String, Object)}
+ * cannot be removed, so the SMPC closes entity managers that have had them set
+ * instead of releasing them.
+ *
+ * @see ExtendedPersistenceProvider#reset(EntityManager)
+ */
+public class EntityManagerPool extends PersistenceContextPool<EntityManager> {
+
+    private final List<SeamPersistenceProvider> persistenceProviders;
+
+    public EntityManagerPool(String name, int size, List<SeamPersistenceProvider> persistenceProviders) {
+        super(name, size);
+        this.persistenceProviders = persistenceProviders;
+    }
+
+    @Override
+    protected boolean isReusable(EntityManager entityManager) {
+        if (!entityManager.isOpen()) {
+            return false;
+        }
+        try {
+            return !entityManager.getTransaction().isActive();
+        } catch (IllegalStateException e) {
+            // JTA entity managers do not allow access to the
+            // EntityTransaction. The SMPC only pools them when no JTA
+            // transaction is active
+            return true;
+        }
+    }
+
+    @Override
+    protected void reset(EntityManager entityManager) {
+        SeamPersistenceProvider provider = PersistenceProviderCache.getProvider(entityManager, persistenceProviders);
+        PersistenceProviderCache.getExtendedProvider(provider).reset(entityManager);
+    }
+
+    @Override
+    protected void close(EntityManager entityManager) {
+        entityManager.close();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Base class for {@link QueryIterator}s. The rows that have been returned are
+ * remembered, and the entities in them are evicted from the persistence
+ * context once <code>evictInterval</code> rows have been returned. The row that
+ * was returned last is never evicted, so it can still be used until the next
+ * call to {@link #next()}.
+ */
+public abstract class EvictingQueryIterator<T> implements QueryIterator<T> {
+
+    private final int evictInterval;
+
+    private final List<Object> processed;
+
+    private boolean advanced;
+
+    private boolean hasNext;
+
+    private boolean closed;
+
+    protected EvictingQueryIterator(int evictInterval) {
+        if (evictInterval <= 0) {
+            throw new IllegalArgumentException("Fetch size must be positive: " + evictInterval);
+        }
+        this.evictInterval = evictInterval;
+        this.processed = new ArrayList<Object>(evictInterval);
+    }
+
+    /**
+     * Moves to the next row
+     *
+     * @return false if there are no more rows
+     */
+    protected abstract boolean advance();
+
+    /**
+     * Returns the current row
+     */
+    protected abstract T current();
+
+    /**
+     * Evicts a single entity from the persistence context. This may be passed
+     * values that are not entities, which must be ignored.
+     */
+    protected abstract void evict(Object entity);
+
+    /**
+     * Releases any database resources
+     */
+    protected abstract void release();
+
+    public boolean hasNext() {
+        if (!advanced) {
+            if (closed) {
+                return false;
+            }
+            hasNext = advance();
+            advanced = true;
+            if (!hasNext) {
+                close();
+            }
+        }
+        return hasNext;
+    }
+
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        advanced = false;
+        T row = current();
+        if (processed.size() >= evictInterval) {
+            evictProcessed();
+        }
+        processed.add(row);
+        return row;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        advanced = true;
+        hasNext = false;
+        try {
+            evictProcessed();
+        } finally {
+            release();
+        }
+    }
+
+    private void evictProcessed() {
+        for (Object row : processed) {
+            if (row instanceof Object[]) {
+                for (Object value : (Object[]) row) {
+                    if (value != null) {
+                        evict(value);
+                    }
+                }
+            } else if (row != null) {
+                evict(row);
+            }
+        }
+        processed.clear();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.hibernate.search.Search;
+
+/**
+ * Creates Hibernate Search full text sessions and entity managers with direct
+ * calls rather than reflection.
+ * <p/>
+ * Hibernate Search is optional, so this class must only be loaded once
+ * {@link HibernatePersistenceProvider} has found
+ * <code>getFullTextSession</code> and <code>getFullTextEntityManager</code>
+ * on the class path.
+ */
+final class FullTextWrapper {
+
+    private FullTextWrapper() {
+    }
+
+    static Session wrap(Session session) {
+        return Search.getFullTextSession(session);
+    }
+
+    static EntityManager wrap(EntityManager entityManager) {
+        return org.hibernate.search.jpa.Search.getFullTextEntityManager(entityManager);
+    }
+}
@@ -16,18 +16,42 @@
  */
 package org.jboss.seam.persistence;
 
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
 import javax.transaction.Synchronization;
 
+import org.hibernate.Cache;
+import org.hibernate.CacheMode;
 import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
 import org.hibernate.Session;
-import org.hibernate.TransientObjectException;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.CascadeStyle;
+import org.hibernate.engine.spi.CascadingAction;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.HibernateProxyHelper;
+import org.hibernate.proxy.LazyInitializer;
 import org.jboss.solder.logging.Logger;
 import org.jboss.solder.core.Veto;
 import org.jboss.solder.reflection.Reflections;
@@ -45,9 +69,26 @@ public class HibernatePersistenceProvider extends DefaultPersistenceProvider {
 
     private static Logger log = Logger.getLogger(HibernatePersistenceProvider.class);
     private static Class<?> FULL_TEXT_SESSION;
+    private static Class<?> FULL_TEXT_ENTITYMANAGER;
+    /**
+     * true if Hibernate Search is available
+     */
+    private static boolean FULL_TEXT_AVAILABLE;
+    /**
+     * true if Hibernate Search has the current getFullTextSession and
+     * getFullTextEntityManager methods, which are called directly through
+     * {@link FullTextWrapper}. Otherwise the deprecated methods below are
+     * called reflectively.
+     */
+    private static boolean FULL_TEXT_DIRECT;
     private static Method FULL_TEXT_SESSION_CONSTRUCTOR;
     private static Method FULL_TEXT_ENTITYMANAGER_CONSTRUCTOR;
-    private static Class<?> FULL_TEXT_ENTITYMANAGER;
+    private static final AtomicLong FULL_TEXT_WRAPPING_FAILURES = new AtomicLong();
+    /**
+     * whether the entity managers of each factory are backed by a Hibernate
+     * session, keyed by the identity of the factory
+     */
+    private static final ConcurrentMap<PersistenceProviderCache.FactoryKey, Boolean> HIBERNATE_FACTORIES = new ConcurrentHashMap<PersistenceProviderCache.FactoryKey, Boolean>();
 
     static {
         try {
@@ -60,21 +101,19 @@ public class HibernatePersistenceProvider extends DefaultPersistenceProvider {
             }
             if (hibernateSearchPresent) {
                 Class<?> searchClass = Reflections.classForName("org.hibernate.search.Search");
-                try {
-                    FULL_TEXT_SESSION_CONSTRUCTOR = searchClass.getDeclaredMethod("getFullTextSession", Session.class);
-                } catch (NoSuchMethodException noSuchMethod) {
-                    log.debug("org.hibernate.search.Search.getFullTextSession(Session) not found, trying deprecated method name createFullTextSession");
-                    FULL_TEXT_SESSION_CONSTRUCTOR = searchClass.getDeclaredMethod("createFullTextSession", Session.class);
-                }
-                FULL_TEXT_SESSION = Reflections.classForName("org.hibernate.search.FullTextSession");
                 Class<?> jpaSearchClass = Reflections.classForName("org.hibernate.search.jpa.Search");
+                FULL_TEXT_SESSION = Reflections.classForName("org.hibernate.search.FullTextSession");
+                FULL_TEXT_ENTITYMANAGER = Reflections.classForName("org.hibernate.search.jpa.FullTextEntityManager");
                 try {
-                    FULL_TEXT_ENTITYMANAGER_CONSTRUCTOR = jpaSearchClass.getDeclaredMethod("getFullTextEntityManager", EntityManager.class);
+                    searchClass.getDeclaredMethod("getFullTextSession", Session.class);
+                    jpaSearchClass.getDeclaredMethod("getFullTextEntityManager", EntityManager.class);
+                    FULL_TEXT_DIRECT = true;
                 } catch (NoSuchMethodException noSuchMethod) {
-                    log.debug("org.hibernate.search.jpa.getFullTextSession(EntityManager) not found, trying deprecated method name createFullTextEntityManager");
+                    log.debug("org.hibernate.search.Search.getFullTextSession(Session) not found, using deprecated method names createFullTextSession and createFullTextEntityManager");
+                    FULL_TEXT_SESSION_CONSTRUCTOR = searchClass.getDeclaredMethod("createFullTextSession", Session.class);
                     FULL_TEXT_ENTITYMANAGER_CONSTRUCTOR = jpaSearchClass.getDeclaredMethod("createFullTextEntityManager", EntityManager.class);
                 }
-                FULL_TEXT_ENTITYMANAGER = Reflections.classForName("org.hibernate.search.jpa.FullTextEntityManager");
+                FULL_TEXT_AVAILABLE = true;
                 log.info("Hibernate Search is available");
             }
         } catch (Exception e) {
@@ -89,18 +128,70 @@ public class HibernatePersistenceProvider extends DefaultPersistenceProvider {
 
     @Override
     public boolean isCorrectProvider(EntityManager em) {
-        return em.getDelegate() instanceof Session;
+        return isHibernateFactory(em);
     }
 
     @Override
     public void setFlushModeManual(EntityManager entityManager) {
-        try {
-            getSession(entityManager).setFlushMode(FlushMode.MANUAL);
-        } catch (NotHibernateException nhe) {
+        Session session = getSession(entityManager);
+        if (session == null) {
             super.setFlushModeManual(entityManager);
+        } else {
+            session.setFlushMode(FlushMode.MANUAL);
         }
     }
 
+    @Override
+    public void setReadOnly(EntityManager entityManager) {
+        Session session = getSession(entityManager);
+        if (session == null) {
+            super.setReadOnly(entityManager);
+        } else {
+            setReadOnly(session);
+        }
+    }
+
+    /**
+     * Loads entities read only, so Hibernate does not keep a snapshot of their
+     * state for dirty checking, and never flushes the session
+     */
+    public static void setReadOnly(Session session) {
+        session.setDefaultReadOnly(true);
+        session.setFlushMode(FlushMode.MANUAL);
+    }
+
+    @Override
+    public void reset(EntityManager entityManager) {
+        super.reset(entityManager);
+        Session session = getSession(entityManager);
+        if (session != null) {
+            reset(session);
+        }
+    }
+
+    /**
+     * Resets a session before it is pooled: clears it, disables all filters
+     * and fetch profiles, and restores the default read only setting, cache
+     * mode and flush mode
+     */
+    public static void reset(Session session) {
+        session.clear();
+        for (Object name : session.getSessionFactory().getDefinedFilterNames()) {
+            if (session.getEnabledFilter((String) name) != null) {
+                session.disableFilter((String) name);
+            }
+        }
+        if (session instanceof SessionImplementor) {
+            Set<?> profiles = ((SessionImplementor) session).getLoadQueryInfluencers().getEnabledFetchProfileNames();
+            for (Object name : new ArrayList<Object>(profiles)) {
+                session.disableFetchProfile((String) name);
+            }
+        }
+        session.setDefaultReadOnly(false);
+        session.setCacheMode(CacheMode.NORMAL);
+        session.setFlushMode(FlushMode.AUTO);
+    }
+
     @Override
     public FlushModeType getRenderFlushMode() {
         return FlushModeType.MANUAL;
@@ -108,60 +199,221 @@ public class HibernatePersistenceProvider extends DefaultPersistenceProvider {
 
     @Override
     public boolean isDirty(EntityManager entityManager) {
-        try {
-            return getSession(entityManager).isDirty();
-        } catch (NotHibernateException nhe) {
+        Session session = getSession(entityManager);
+        if (session == null) {
             return super.isDirty(entityManager);
         }
+        return session.isDirty();
+    }
+
+    @Override
+    public boolean isDirty(EntityManager entityManager, Object entity) {
+        PersistenceContext persistenceContext = getPersistenceContext(entityManager);
+        if (persistenceContext == null) {
+            return super.isDirty(entityManager, entity);
+        }
+        return isDirty(persistenceContext, entity, new IdentityHashMap<Object, Object>());
+    }
+
+    /**
+     * Checks the entity, and every entity that evicting it would cascade to,
+     * for unflushed changes
+     */
+    private static boolean isDirty(PersistenceContext persistenceContext, Object entity, Map<Object, Object> visited) {
+        if (entity instanceof HibernateProxy) {
+            // evicting an initialized proxy also evicts its implementation
+            LazyInitializer initializer = ((HibernateProxy) entity).getHibernateLazyInitializer();
+            if (initializer.isUninitialized()) {
+                return false;
+            }
+            entity = initializer.getImplementation();
+        }
+        if (entity == null || visited.put(entity, entity) != null) {
+            return false;
+        }
+        EntityEntry entry = persistenceContext.getEntry(entity);
+        if (entry == null) {
+            // not managed, so there is nothing to lose
+            return false;
+        }
+        if (entry.getStatus() != Status.MANAGED || !entry.isExistsInDatabase()) {
+            // pending insert or delete
+            return true;
+        }
+        EntityPersister persister = entry.getPersister();
+        Object[] currentState = persister.getPropertyValues(entity);
+        if (!entry.isReadOnly()) {
+            Object[] loadedState = entry.getLoadedState();
+            if (loadedState == null || persister.findDirty(currentState, loadedState, entity, persistenceContext.getSession()) != null) {
+                return true;
+            }
+            if (persister.hasCollections()) {
+                for (Object value : currentState) {
+                    if (value instanceof PersistentCollection && ((PersistentCollection) value).isDirty()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        if (persister.hasCascades()) {
+            CascadeStyle[] cascadeStyles = persister.getPropertyCascadeStyles();
+            for (int i = 0; i < currentState.length; ++i) {
+                if (cascadeStyles[i].doCascade(CascadingAction.EVICT) && isDirtyAssociation(persistenceContext, currentState[i], visited)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDirtyAssociation(PersistenceContext persistenceContext, Object value, Map<Object, Object> visited) {
+        if (value instanceof PersistentCollection && !((PersistentCollection) value).wasInitialized()) {
+            // eviction only cascades to loaded elements
+            return false;
+        }
+        Collection<?> elements;
+        if (value instanceof Collection<?>) {
+            elements = (Collection<?>) value;
+        } else if (value instanceof Map<?, ?>) {
+            elements = ((Map<?, ?>) value).values();
+        } else {
+            return isDirty(persistenceContext, value, visited);
+        }
+        for (Object element : elements) {
+            if (isDirty(persistenceContext, element, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getManagedEntityCount(EntityManager entityManager) {
+        PersistenceContext persistenceContext = getPersistenceContext(entityManager);
+        if (persistenceContext == null) {
+            return super.getManagedEntityCount(entityManager);
+        }
+        return persistenceContext.getEntitiesByKey().size();
+    }
+
+    @Override
+    public Collection<Object> getManagedEntities(EntityManager entityManager) {
+        PersistenceContext persistenceContext = getPersistenceContext(entityManager);
+        if (persistenceContext == null) {
+            return super.getManagedEntities(entityManager);
+        }
+        return new ArrayList<Object>(persistenceContext.getEntitiesByKey().values());
+    }
+
+    private PersistenceContext getPersistenceContext(EntityManager entityManager) {
+        Session session = getSession(entityManager);
+        if (!(session instanceof SessionImplementor)) {
+            return null;
+        }
+        return ((SessionImplementor) session).getPersistenceContext();
     }
 
     @Override
     public Object getId(Object bean, EntityManager entityManager) {
-        try {
-            return getSession(entityManager).getIdentifier(bean);
-        } catch (NotHibernateException nhe) {
+        Session session = getSession(entityManager);
+        if (session == null) {
             return super.getId(bean, entityManager);
-        } catch (TransientObjectException e) {
-            if (bean instanceof HibernateProxy) {
-                return super.getId(((HibernateProxy) bean).getHibernateLazyInitializer().getImplementation(), entityManager);
-            } else {
-                return super.getId(bean, entityManager);
-            }
         }
+        if (bean instanceof HibernateProxy) {
+            // the proxy knows its id, whether or not it belongs to this session
+            return ((HibernateProxy) bean).getHibernateLazyInitializer().getIdentifier();
+        }
+        if (session.contains(bean)) {
+            return session.getIdentifier(bean);
+        }
+        // getIdentifier() would throw a TransientObjectException
+        return super.getId(bean, entityManager);
     }
 
     @Override
     public boolean registerSynchronization(Synchronization sync, EntityManager entityManager) {
-        try {
-            // TODO: just make sure that a Hibernate JPA EntityTransaction
-            // delegates to the Hibernate Session transaction
-            getSession(entityManager).getTransaction().registerSynchronization(sync);
-            return true;
-        } catch (NotHibernateException nhe) {
+        Session session = getSession(entityManager);
+        if (session == null) {
             return super.registerSynchronization(sync, entityManager);
         }
-
+        // TODO: just make sure that a Hibernate JPA EntityTransaction
+        // delegates to the Hibernate Session transaction
+        session.getTransaction().registerSynchronization(sync);
+        return true;
     }
 
     @Override
     public String getName(Object bean, EntityManager entityManager) throws IllegalArgumentException {
-        try {
-            return getSession(entityManager).getEntityName(bean);
-        } catch (NotHibernateException nhe) {
-            return super.getName(bean, entityManager);
-        } catch (Exception e) // TODO: what should we actually do here
-        {
+        Session session = getSession(entityManager);
+        if (session == null) {
             return super.getName(bean, entityManager);
         }
+        if (bean instanceof HibernateProxy) {
+            return ((HibernateProxy) bean).getHibernateLazyInitializer().getEntityName();
+        }
+        if (session.contains(bean)) {
+            return session.getEntityName(bean);
+        }
+        // getEntityName() would throw a TransientObjectException
+        return super.getName(bean, entityManager);
+    }
+
+    @Override
+    public Object getVersion(Object bean, EntityManager entityManager) {
+        PersistenceContext persistenceContext = getPersistenceContext(entityManager);
+        if (persistenceContext != null) {
+            Object entity = bean;
+            if (entity instanceof HibernateProxy) {
+                LazyInitializer initializer = ((HibernateProxy) entity).getHibernateLazyInitializer();
+                entity = initializer.isUninitialized() ? null : initializer.getImplementation();
+            }
+            EntityEntry entry = entity == null ? null : persistenceContext.getEntry(entity);
+            if (entry != null) {
+                // the version that was loaded, without reading the entity
+                return entry.getVersion();
+            }
+        }
+        return super.getVersion(bean, entityManager);
+    }
+
+    @Override
+    public Class<?> getBeanClass(Object bean) {
+        return HibernateProxyHelper.getClassWithoutInitializingProxy(bean);
     }
 
+    /**
+     * Returns the Hibernate session behind the entity manager, or null if it
+     * is not from Hibernate. The session is obtained with
+     * <code>unwrap(Session.class)</code>, which throws an exception for other
+     * providers, so whether a factory is backed by Hibernate is checked once
+     * on the delegate of its first entity manager and then cached.
+     * <p/>
+     * Seam managed persistence contexts only use this provider once
+     * {@link #isCorrectProvider(EntityManager)} has returned true for their
+     * entity manager factory, so the other provider branches are only taken
+     * when the provider is called directly.
+     */
     private Session getSession(EntityManager entityManager) {
-        Object delegate = entityManager.getDelegate();
-        if (delegate instanceof Session) {
-            return (Session) delegate;
-        } else {
-            throw new NotHibernateException();
+        if (!isHibernateFactory(entityManager)) {
+            return null;
+        }
+        return entityManager.unwrap(Session.class);
+    }
+
+    private static boolean isHibernateFactory(EntityManager entityManager) {
+        PersistenceProviderCache.FactoryKey key = new PersistenceProviderCache.FactoryKey(entityManager.getEntityManagerFactory());
+        Boolean hibernate = HIBERNATE_FACTORIES.get(key);
+        if (hibernate == null) {
+            hibernate = entityManager.getDelegate() instanceof Session;
+            Iterator<PersistenceProviderCache.FactoryKey> it = HIBERNATE_FACTORIES.keySet().iterator();
+            while (it.hasNext()) {
+                if (!it.next().isOpen()) {
+                    it.remove();
+                }
+            }
+            HIBERNATE_FACTORIES.put(key, hibernate);
         }
+        return hibernate;
     }
 
     /**
@@ -169,18 +421,17 @@ public class HibernatePersistenceProvider extends DefaultPersistenceProvider {
      * Hibernate Search is available in the classpath.
      */
     static Session proxySession(Session session) {
-        if (FULL_TEXT_SESSION_CONSTRUCTOR == null || FULL_TEXT_SESSION == null) {
+        if (!FULL_TEXT_AVAILABLE || FULL_TEXT_SESSION.isInstance(session)) {
             return session;
-        } else {
-            if (FULL_TEXT_SESSION.isAssignableFrom(session.getClass())) {
-                return session;
-            }
-            try {
-                return (Session) FULL_TEXT_SESSION_CONSTRUCTOR.invoke(null, session);
-            } catch (Exception e) {
-                log.warn("Unable to wrap into a FullTextSessionProxy, regular SessionProxy returned", e);
-                return session;
+        }
+        try {
+            if (FULL_TEXT_DIRECT) {
+                return FullTextWrapper.wrap(session);
             }
+            return (Session) FULL_TEXT_SESSION_CONSTRUCTOR.invoke(null, session);
+        } catch (Exception e) {
+            fullTextWrappingFailed("Unable to wrap into a FullTextSessionProxy, regular SessionProxy returned", e);
+            return session;
         }
     }
 
@@ -190,27 +441,46 @@ public class HibernatePersistenceProvider extends DefaultPersistenceProvider {
      */
     @Override
     public Object proxyDelegate(Object delegate) {
-        try {
-            return proxySession((Session) delegate);
-        } catch (NotHibernateException nhe) {
+        if (!(delegate instanceof Session)) {
             return super.proxyDelegate(delegate);
-        } catch (Exception e) {
-            throw new RuntimeException("could not proxy delegate", e);
         }
+        return proxySession((Session) delegate);
     }
 
     @Override
     public EntityManager proxyEntityManager(EntityManager entityManager) {
-        if (FULL_TEXT_ENTITYMANAGER_CONSTRUCTOR == null) {
-            return super.proxyEntityManager(entityManager);
-        } else {
-            try {
-                return (EntityManager) FULL_TEXT_ENTITYMANAGER_CONSTRUCTOR.invoke(null, super.proxyEntityManager(entityManager));
-            } catch (Exception e) {
-                // throw new
-                // RuntimeException("could not proxy FullTextEntityManager", e);
-                return super.proxyEntityManager(entityManager);
+        EntityManager proxied = super.proxyEntityManager(entityManager);
+        if (!FULL_TEXT_AVAILABLE) {
+            return proxied;
+        }
+        try {
+            if (FULL_TEXT_DIRECT) {
+                return FullTextWrapper.wrap(proxied);
             }
+            return (EntityManager) FULL_TEXT_ENTITYMANAGER_CONSTRUCTOR.invoke(null, proxied);
+        } catch (Exception e) {
+            fullTextWrappingFailed("Unable to wrap into a FullTextEntityManager, regular EntityManager returned", e);
+            return proxied;
+        }
+    }
+
+    /**
+     * Returns the number of times that a session or entity manager could not
+     * be wrapped in its Hibernate Search equivalent. Persistence contexts that
+     * could not be wrapped do not implement the full text interfaces, even
+     * though their beans claim to.
+     */
+    public static long getFullTextWrappingFailures() {
+        return FULL_TEXT_WRAPPING_FAILURES.get();
+    }
+
+    private static void fullTextWrappingFailed(String message, Exception e) {
+        Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+        long failures = FULL_TEXT_WRAPPING_FAILURES.incrementAndGet();
+        if (failures == 1) {
+            log.warn(message, cause);
+        } else {
+            log.warn(message + " (" + failures + " failures so far): " + cause);
         }
     }
 
@@ -221,20 +491,107 @@ public class HibernatePersistenceProvider extends DefaultPersistenceProvider {
         return (Set) Collections.singleton(FULL_TEXT_ENTITYMANAGER);
     }
 
-    public Set<Class<?>> getAdditionalSessionInterfaces() {
-        if (FULL_TEXT_SESSION == null) {
-            return Collections.emptySet();
+    /**
+     * Sets the JDBC batch size, and orders inserts and updates by entity so
+     * that consecutive statements can be batched
+     */
+    @Override
+    public Map<String, Object> getBatchProperties(int batchSize) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("hibernate.jdbc.batch_size", Integer.toString(batchSize));
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+        return properties;
+    }
+
+    /**
+     * Scrolls forward through the results of the query using a database
+     * cursor
+     */
+    @Override
+    public <T> QueryIterator<T> iterate(EntityManager entityManager, Query query, int fetchSize) {
+        Session session = getSession(entityManager);
+        if (session == null) {
+            return super.iterate(entityManager, query, fetchSize);
         }
-        return (Set) Collections.singleton(FULL_TEXT_SESSION);
+        // queries created by a Hibernate entity manager always unwrap
+        return iterate(session, query.unwrap(org.hibernate.Query.class), fetchSize);
+    }
+
+    /**
+     * Scrolls forward through the results of a Hibernate query using a
+     * database cursor
+     */
+    public static <T> QueryIterator<T> iterate(Session session, org.hibernate.Query query, int fetchSize) {
+        query.setFetchSize(fetchSize);
+        return new ScrollableResultsIterator<T>(session, query.scroll(ScrollMode.FORWARD_ONLY), fetchSize);
+    }
+
+    @Override
+    public <T> QueryIterator<T> iterate(EntityManager entityManager, Class<T> entityClass, int fetchSize) {
+        Session session = getSession(entityManager);
+        if (session == null) {
+            return super.iterate(entityManager, entityClass, fetchSize);
+        }
+        return iterate(session, entityClass, fetchSize);
     }
 
     /**
-     * Occurs when Hibernate is in the classpath, but this particular
-     * EntityManager is not from Hibernate
-     *
-     * @author Gavin King
+     * Scrolls forward through all entities of the given type using a database
+     * cursor
      */
-    static class NotHibernateException extends IllegalArgumentException {
+    public static <T> QueryIterator<T> iterate(Session session, Class<T> entityClass, int fetchSize) {
+        return new ScrollableResultsIterator<T>(session, session.createCriteria(entityClass).setFetchSize(fetchSize).scroll(ScrollMode.FORWARD_ONLY), fetchSize);
+    }
+
+    @Override
+    public void setCacheable(Query query, String region) {
+        query.setHint("org.hibernate.cacheable", Boolean.TRUE);
+        if (region != null) {
+            query.setHint("org.hibernate.cacheRegion", region);
+        }
+    }
+
+    @Override
+    public void evict(EntityManager entityManager, Class<?> entityClass) {
+        Session session = getSession(entityManager);
+        if (session == null) {
+            super.evict(entityManager, entityClass);
+        } else {
+            session.getSessionFactory().getCache().evictEntityRegion(entityClass);
+        }
+    }
+
+    @Override
+    public void evict(EntityManager entityManager, Class<?> entityClass, Object id) {
+        Session session = getSession(entityManager);
+        if (session == null) {
+            super.evict(entityManager, entityClass, id);
+        } else {
+            session.getSessionFactory().getCache().evictEntity(entityClass, (Serializable) id);
+        }
+    }
+
+    @Override
+    public void evictQueryRegion(EntityManager entityManager, String region) {
+        Session session = getSession(entityManager);
+        if (session == null) {
+            super.evictQueryRegion(entityManager, region);
+            return;
+        }
+        Cache cache = session.getSessionFactory().getCache();
+        if (region == null) {
+            cache.evictDefaultQueryRegion();
+        } else {
+            cache.evictQueryRegion(region);
+        }
+    }
+
+    public Set<Class<?>> getAdditionalSessionInterfaces() {
+        if (FULL_TEXT_SESSION == null) {
+            return Collections.emptySet();
+        }
+        return (Set) Collections.singleton(FULL_TEXT_SESSION);
     }
 
 }
@@ -19,9 +19,9 @@ package org.jboss.seam.persistence;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.inject.spi.InjectionTarget;
@@ -49,28 +49,53 @@ public class InjectionEventListener extends BeanManagerAware {
 
     private final static Logger log = Logger.getLogger(InjectionEventListener.class);
 
-    private final Map<Class<?>, InjectionTarget<?>> injectionTargets = new ConcurrentHashMap<Class<?>, InjectionTarget<?>>();
+    private final ConcurrentMap<Class<?>, InjectionTarget<?>> injectionTargets = new ConcurrentHashMap<Class<?>, InjectionTarget<?>>();
+
+    /**
+     * the class of the last entity that was loaded and its injection target.
+     * Query results usually contain many entities of the same class, so this
+     * saves the map lookup for all but the first of them.
+     */
+    private volatile LastTarget last = new LastTarget(null, NULL_INJECTION_TARGET);
 
     public void load(Object entity) {
-        if (!injectionTargets.containsKey(entity.getClass())) {
-            if (!injectionRequired(entity.getClass())) {
-                injectionTargets.put(entity.getClass(), NULL_INJECTION_TARGET);
-                log.debugv("Entity {} has no injection points so injection will not be enabled", entity.getClass());
-            } else {
-                // it is ok for this code to run twice, so we don't really need to
-                // lock
-                AnnotatedTypeBuilder<?> builder = new AnnotatedTypeBuilder().readFromType(entity.getClass());
-                InjectionTarget<?> injectionTarget = getBeanManager().createInjectionTarget(builder.create());
-                injectionTargets.put(entity.getClass(), injectionTarget);
-                log.infov("Enabling injection into entity {}", entity.getClass());
-            }
+        Class<?> entityClass = entity.getClass();
+        LastTarget last = this.last;
+        InjectionTarget it;
+        if (last.entityClass == entityClass) {
+            it = last.injectionTarget;
+        } else {
+            it = getInjectionTarget(entityClass);
+            this.last = new LastTarget(entityClass, it);
         }
-        InjectionTarget it = injectionTargets.get(entity.getClass());
         if (it != NULL_INJECTION_TARGET) {
-            log.debugv("Running CDI injection for {}", entity.getClass());
-            it.inject(entity, new CreationalContextImpl());
+            log.debugv("Running CDI injection for {}", entityClass);
+            it.inject(entity, CREATIONAL_CONTEXT);
         }
+    }
 
+    /**
+     * Returns the injection target for the entity class, or
+     * {@link #NULL_INJECTION_TARGET} if the class does not require injection.
+     * After the first call for a class this is a single map lookup.
+     */
+    private InjectionTarget<?> getInjectionTarget(Class<?> entityClass) {
+        InjectionTarget<?> injectionTarget = injectionTargets.get(entityClass);
+        if (injectionTarget != null) {
+            return injectionTarget;
+        }
+        // it is ok for this code to run twice, so we don't really need to
+        // lock
+        if (!injectionRequired(entityClass)) {
+            injectionTarget = NULL_INJECTION_TARGET;
+            log.debugv("Entity {} has no injection points so injection will not be enabled", entityClass);
+        } else {
+            AnnotatedTypeBuilder<?> builder = new AnnotatedTypeBuilder().readFromType(entityClass);
+            injectionTarget = getBeanManager().createInjectionTarget(builder.create());
+            log.infov("Enabling injection into entity {}", entityClass);
+        }
+        InjectionTarget<?> existing = injectionTargets.putIfAbsent(entityClass, injectionTarget);
+        return existing == null ? injectionTarget : existing;
     }
 
     /**
@@ -124,6 +149,23 @@ public class InjectionEventListener extends BeanManagerAware {
         }
     };
 
+    private static class LastTarget {
+        private final Class<?> entityClass;
+
+        private final InjectionTarget<?> injectionTarget;
+
+        LastTarget(Class<?> entityClass, InjectionTarget<?> injectionTarget) {
+            this.entityClass = entityClass;
+            this.injectionTarget = injectionTarget;
+        }
+    }
+
+    /**
+     * entities are not contextual, so the no-op creational context can be
+     * shared
+     */
+    private static final CreationalContext CREATIONAL_CONTEXT = new CreationalContextImpl();
+
     // no-op creational context
     private static class CreationalContextImpl implements CreationalContext {
 
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.EntityType;
+
+/**
+ * {@link QueryIterator} over all entities of a type that uses keyset
+ * pagination. Entities are read in identifier order, and each page starts
+ * after the identifier of the last entity of the previous page, so the
+ * database never has to skip over rows that have already been read.
+ * <p/>
+ * The entity must have a single, comparable identifier attribute.
+ */
+public class KeysetQueryIterator<T> extends PagedQueryIterator<T> {
+
+    private final Class<T> entityClass;
+
+    private final String idAttribute;
+
+    private final PersistenceUnitUtil persistenceUnitUtil;
+
+    private CriteriaQuery<T> firstPageQuery;
+
+    private CriteriaQuery<T> nextPageQuery;
+
+    private ParameterExpression<Comparable> lastId;
+
+    public KeysetQueryIterator(EntityManager entityManager, Class<T> entityClass, int pageSize) {
+        super(entityManager, null, pageSize);
+        this.entityClass = entityClass;
+        this.idAttribute = getIdAttribute(entityManager, entityClass);
+        this.persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+    }
+
+    /**
+     * Returns the name of the identifier attribute of the given entity
+     *
+     * @throws IllegalArgumentException if the entity does not have a single
+     *                                  identifier attribute
+     */
+    public static String getIdAttribute(EntityManager entityManager, Class<?> entityClass) {
+        EntityType<?> type = entityManager.getMetamodel().entity(entityClass);
+        if (!type.hasSingleIdAttribute()) {
+            throw new IllegalArgumentException("Entity " + entityClass.getName() + " does not have a single id attribute");
+        }
+        return type.getId(type.getIdType().getJavaType()).getName();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<T> fetchPage(T previous) {
+        TypedQuery<T> query;
+        if (previous == null) {
+            query = entityManager.createQuery(getFirstPageQuery());
+        } else {
+            query = entityManager.createQuery(getNextPageQuery());
+            query.setParameter(lastId, (Comparable) persistenceUnitUtil.getIdentifier(previous));
+        }
+        query.setMaxResults(pageSize);
+        return query.getResultList();
+    }
+
+    private CriteriaQuery<T> getFirstPageQuery() {
+        if (firstPageQuery == null) {
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            firstPageQuery = builder.createQuery(entityClass);
+            Root<T> root = firstPageQuery.from(entityClass);
+            firstPageQuery.select(root).orderBy(builder.asc(root.get(idAttribute)));
+        }
+        return firstPageQuery;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CriteriaQuery<T> getNextPageQuery() {
+        if (nextPageQuery == null) {
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            nextPageQuery = builder.createQuery(entityClass);
+            Root<T> root = nextPageQuery.from(entityClass);
+            Path<Comparable> id = root.get(idAttribute);
+            lastId = builder.parameter(Comparable.class);
+            nextPageQuery.select(root).where(builder.greaterThan(id, lastId)).orderBy(builder.asc(id));
+        }
+        return nextPageQuery;
+    }
+}
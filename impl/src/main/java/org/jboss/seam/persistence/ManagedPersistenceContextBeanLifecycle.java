@@ -33,6 +33,7 @@ import javax.enterprise.inject.spi.BeanManager;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 
+import org.jboss.seam.persistence.metrics.PersistenceContextMetrics;
 import org.jboss.solder.logging.Logger;
 import org.jboss.solder.bean.ContextualLifecycle;
 import org.jboss.solder.literal.DefaultLiteral;
@@ -49,7 +50,15 @@ public class ManagedPersistenceContextBeanLifecycle implements ContextualLifecyc
 
     private final Constructor<?> proxyConstructor;
 
-    private volatile SeamPersistenceProvider persistenceProvider;
+    private final PersistenceContextMethodTable methodTable;
+
+    private final boolean directProxy;
+
+    /**
+     * true if the direct proxy must also implement the Hibernate Search
+     * <code>FullTextEntityManager</code>
+     */
+    private final boolean fullTextProxy;
 
     private volatile PersistenceContexts persistenceContexts;
 
@@ -57,57 +66,259 @@ public class ManagedPersistenceContextBeanLifecycle implements ContextualLifecyc
 
     protected final BeanManager manager;
 
-    private EntityManagerFactory emf;
+    private volatile Bean<EntityManagerFactory> emfBean;
 
     private final List<SeamPersistenceProvider> persistenceProviders;
 
+    private final EntityManagerPool pool;
+
+    private int batchSize;
+
+    private int maxEntities;
+
+    private PassivationMode passivationMode = PassivationMode.SERIALIZE;
+
+    private boolean trackTransactions;
+
+    private boolean readOnly;
+
+    private ReplicaRouter replicaRouter;
+
+    private TenantEntityManagerFactoryCache tenantFactories;
+
+    private boolean cacheQueries;
+
+    private String queryCacheRegion;
+
+    /**
+     * the id of this SMPC's definition in the
+     * {@link PersistenceContextDefinitionRegistry}, or -1 if it is unknown
+     */
+    private int definitionId = -1;
+
+    private PersistenceContextMetrics metrics;
+
     public ManagedPersistenceContextBeanLifecycle(Set<Annotation> qualifiers, ClassLoader loader, BeanManager manager, Set<Class<?>> additionalinterfaces, List<SeamPersistenceProvider> persistenceProviders) {
+        this(qualifiers, loader, manager, additionalinterfaces, persistenceProviders, ProxyStrategy.JDK);
+    }
+
+    public ManagedPersistenceContextBeanLifecycle(Set<Annotation> qualifiers, ClassLoader loader, BeanManager manager, Set<Class<?>> additionalinterfaces, List<SeamPersistenceProvider> persistenceProviders, ProxyStrategy proxyStrategy) {
+        this(qualifiers, loader, manager, additionalinterfaces, persistenceProviders, proxyStrategy, null);
+    }
+
+    /**
+     * @param pool the pool to recycle entity managers through, or null if they
+     *             should not be pooled
+     */
+    public ManagedPersistenceContextBeanLifecycle(Set<Annotation> qualifiers, ClassLoader loader, BeanManager manager, Set<Class<?>> additionalinterfaces, List<SeamPersistenceProvider> persistenceProviders, ProxyStrategy proxyStrategy, EntityManagerPool pool) {
         this.manager = manager;
+        this.pool = pool;
         this.persistenceProviders = new ArrayList<SeamPersistenceProvider>(persistenceProviders);
+        this.qualifiers = new Annotation[qualifiers.size()];
+        int i = 0;
+        for (Annotation a : qualifiers) {
+            this.qualifiers[i++] = a;
+        }
+        if (proxyStrategy == ProxyStrategy.DIRECT) {
+            if (additionalinterfaces.isEmpty() || isFullTextOnly(additionalinterfaces)) {
+                directProxy = true;
+                fullTextProxy = !additionalinterfaces.isEmpty();
+                proxyClass = null;
+                proxyConstructor = null;
+                methodTable = null;
+                return;
+            }
+            log.info("Persistence provider requires additional interfaces " + additionalinterfaces + ", falling back to JDK proxies for SMPC with qualifiers " + qualifiers);
+        }
+        directProxy = false;
+        fullTextProxy = false;
         Class<?>[] interfaces = new Class[additionalinterfaces.size() + 3];
         int count = 0;
-        for (Class<?> i : additionalinterfaces) {
-            interfaces[count++] = i;
+        for (Class<?> c : additionalinterfaces) {
+            interfaces[count++] = c;
         }
 
         interfaces[count++] = EntityManager.class;
         interfaces[count++] = Serializable.class;
         interfaces[count++] = ManagedPersistenceContext.class;
         proxyClass = Proxy.getProxyClass(loader, interfaces);
+        methodTable = new PersistenceContextMethodTable(interfaces);
         try {
             proxyConstructor = proxyClass.getConstructor(InvocationHandler.class);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-        this.qualifiers = new Annotation[qualifiers.size()];
-        int i = 0;
-        for (Annotation a : qualifiers) {
-            this.qualifiers[i++] = a;
-        }
+    }
+
+    /**
+     * Returns true if the only additional interface is the Hibernate Search
+     * <code>FullTextEntityManager</code>, which the direct proxy supports. This
+     * compares names so that Hibernate Search is not loaded here.
+     */
+    private static boolean isFullTextOnly(Set<Class<?>> additionalinterfaces) {
+        return additionalinterfaces.size() == 1 && DelegatingFullTextManagedPersistenceContext.FULL_TEXT_ENTITY_MANAGER.equals(additionalinterfaces.iterator().next().getName());
+    }
+
+    /**
+     * Enables batch mode for all persistence contexts created by this
+     * lifecycle
+     *
+     * @see ManagedPersistenceContext#setBatchSize(int)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Bounds the number of entities held by all persistence contexts created
+     * by this lifecycle
+     *
+     * @see BoundedPersistenceContext
+     */
+    public void setMaxEntities(int maxEntities) {
+        this.maxEntities = maxEntities;
+    }
+
+    /**
+     * Makes all persistence contexts created by this lifecycle read only
+     *
+     * @see ReadOnly
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Routes reads from all persistence contexts created by this lifecycle
+     * to the given replicas
+     *
+     * @see ReadReplicas
+     */
+    void setReplicaRouter(ReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
+    }
+
+    /**
+     * Gives each tenant its own entity manager factory from the given cache
+     *
+     * @see MultiTenant
+     */
+    void setTenantFactories(TenantEntityManagerFactoryCache tenantFactories) {
+        this.tenantFactories = tenantFactories;
+    }
+
+    /**
+     * @see PassivationMode
+     */
+    public void setPassivationMode(PassivationMode passivationMode) {
+        this.passivationMode = passivationMode;
+    }
+
+    /**
+     * @see TransactionTracker
+     */
+    public void setTrackTransactions(boolean trackTransactions) {
+        this.trackTransactions = trackTransactions;
+    }
+
+    /**
+     * Marks queries containing EL as cacheable for all persistence contexts
+     * created by this lifecycle
+     *
+     * @param region the query cache region, or null for the default region
+     * @see CacheableQueries
+     */
+    public void setQueryCache(boolean cacheQueries, String region) {
+        this.cacheQueries = cacheQueries;
+        this.queryCacheRegion = region;
+    }
+
+    /**
+     * Gives all persistence contexts created by this lifecycle the id of
+     * their definition, so they can be touched without looking it up
+     *
+     * @see ManagedPersistenceContextExtension#getDefinitionRegistry()
+     */
+    void setDefinitionId(int definitionId) {
+        this.definitionId = definitionId;
+    }
+
+    /**
+     * Sets the metrics that all persistence contexts created by this
+     * lifecycle record to
+     */
+    void setMetrics(PersistenceContextMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
      * creates the proxy
      */
     public EntityManager create(Bean<EntityManager> bean, CreationalContext<EntityManager> arg0) {
+        TenantEntityManagerFactoryCache.TenantFactory tenantFactory = null;
         try {
-            EntityManagerFactory emf = getEntityManagerFactory();
-            EntityManager entityManager = emf.createEntityManager();
-            entityManager = getPersistenceProvider(entityManager).proxyEntityManager(entityManager);
+            EntityManagerFactory emf;
+            if (tenantFactories == null) {
+                emf = getEntityManagerFactory(arg0);
+            } else {
+                // from now on the lease must be given back if we fail
+                tenantFactory = tenantFactories.acquire(tenantFactories.getCurrentTenant());
+                emf = tenantFactory.getEntityManagerFactory();
+            }
+            EntityManager entityManager = pool == null ? null : pool.borrow();
+            SeamPersistenceProvider persistenceProvider;
+            if (entityManager == null) {
+                entityManager = emf.createEntityManager();
+                persistenceProvider = PersistenceProviderCache.getProvider(entityManager, persistenceProviders);
+                entityManager = persistenceProvider.proxyEntityManager(entityManager);
+            } else {
+                // pooled entity managers have already been proxied
+                persistenceProvider = PersistenceProviderCache.getProvider(entityManager, persistenceProviders);
+            }
             PersistenceContexts persistenceContexts = null;
             try {
                 persistenceContexts = getPersistenceContexts();
             } catch (ContextNotActiveException e) {
                 // it's null already
             }
-            ManagedPersistenceContextProxyHandler handler = new ManagedPersistenceContextProxyHandler(entityManager, manager, bean.getQualifiers(), persistenceContexts, getPersistenceProvider(entityManager));
-            EntityManager proxy = (EntityManager) proxyConstructor.newInstance(handler);
+            ManagedPersistenceContextProxyHandler handler = new ManagedPersistenceContextProxyHandler(entityManager, manager, bean.getQualifiers(), persistenceContexts, persistenceProvider, methodTable);
+            // the handler gives back the lease when it is closed
+            handler.setTenant(tenantFactory, tenantFactories);
+            tenantFactory = null;
+            handler.setPool(pool);
+            handler.setBatchSize(batchSize);
+            handler.setMaxEntities(maxEntities);
+            handler.setPassivationMode(passivationMode);
+            handler.setTrackTransactions(trackTransactions);
+            handler.setReadOnly(readOnly);
+            handler.setReplicaRouter(replicaRouter);
+            handler.setQueryCache(cacheQueries, queryCacheRegion);
+            handler.setDefinitionId(definitionId);
+            handler.setMetrics(metrics);
+            EntityManager proxy;
+            if (fullTextProxy) {
+                proxy = DelegatingFullTextManagedPersistenceContext.create(handler);
+            } else if (directProxy) {
+                proxy = new DelegatingManagedPersistenceContext(handler);
+            } else {
+                proxy = (EntityManager) proxyConstructor.newInstance(handler);
+            }
             arg0.push(proxy);
-            getPersistenceProvider(entityManager).setFlushMode(proxy, getFlushMode());
+            handler.getMetrics().persistenceContextCreated();
+            if (readOnly) {
+                // this is applied to the delegate, as going through the proxy
+                // would join the transaction during SMPC initialisation
+                PersistenceProviderCache.getExtendedProvider(persistenceProvider).setReadOnly(entityManager);
+            } else {
+                persistenceProvider.setFlushMode(proxy, getFlushMode());
+            }
             manager.fireEvent(new SeamManagedPersistenceContextCreated(entityManager), qualifiers);
 
             return proxy;
         } catch (Exception e) {
+            if (tenantFactory != null) {
+                tenantFactories.release(tenantFactory);
+            }
             throw new RuntimeException(e);
         }
     }
@@ -125,7 +336,12 @@ public class ManagedPersistenceContextBeanLifecycle implements ContextualLifecyc
         ((ManagedPersistenceContext) em).closeAfterTransaction();
         arg1.release();
         try {
-            getPersistenceContexts().untouch((ManagedPersistenceContext) em);
+            PersistenceContexts persistenceContexts = getPersistenceContexts();
+            if (definitionId >= 0 && persistenceContexts instanceof PersistenceContextsImpl) {
+                ((PersistenceContextsImpl) persistenceContexts).untouch(definitionId, (ManagedPersistenceContext) em);
+            } else {
+                persistenceContexts.untouch((ManagedPersistenceContext) em);
+            }
         } catch (ContextNotActiveException e) {
             log.debug("Could not untouch PersistenceContext as conversation scope not active");
         }
@@ -147,35 +363,22 @@ public class ManagedPersistenceContextBeanLifecycle implements ContextualLifecyc
         return persistenceContexts;
     }
 
-    private SeamPersistenceProvider getPersistenceProvider(EntityManager em) {
-        if (persistenceProvider == null) {
-            synchronized (this) {
-                if (persistenceProvider == null) {
-                    for (SeamPersistenceProvider i : persistenceProviders) {
-                        if (i.isCorrectProvider(em)) {
-                            persistenceProvider = i;
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-        return persistenceProvider;
-    }
-
     /**
-     * lazily resolve the relevant EMF
+     * Returns the EMF that backs this SMPC. The bean is resolved once, but a
+     * reference is obtained for every SMPC so the qualifier may be backed by a
+     * different factory over time. Dependent factory instances are destroyed
+     * with the SMPC.
      */
-    protected EntityManagerFactory getEntityManagerFactory() {
-        if (emf == null) {
-            Bean<EntityManagerFactory> bean = (Bean) manager.resolve(manager.getBeans(EntityManagerFactory.class, qualifiers));
+    protected EntityManagerFactory getEntityManagerFactory(CreationalContext<?> ctx) {
+        Bean<EntityManagerFactory> bean = emfBean;
+        if (bean == null) {
+            bean = (Bean) manager.resolve(manager.getBeans(EntityManagerFactory.class, qualifiers));
             if (bean == null) {
                 throw new RuntimeException("Could not find EntityManagerFactory bean with qualifiers" + Arrays.toString(qualifiers));
             }
-            CreationalContext<EntityManagerFactory> ctx = manager.createCreationalContext(bean);
-            emf = (EntityManagerFactory) manager.getReference(bean, EntityManagerFactory.class, ctx);
+            emfBean = bean;
         }
-        return emf;
+        return (EntityManagerFactory) manager.getReference(bean, EntityManagerFactory.class, ctx);
     }
 
 }
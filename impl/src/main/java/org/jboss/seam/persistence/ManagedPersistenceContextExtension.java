@@ -17,6 +17,10 @@
 package org.jboss.seam.persistence;
 
 import org.jboss.solder.logging.Logger;
+import org.jboss.seam.persistence.metrics.NoOpPersistenceMetrics;
+import org.jboss.seam.persistence.metrics.PersistenceMetrics;
+import org.jboss.seam.persistence.metrics.PersistenceMetricsFactory;
+import org.jboss.seam.persistence.search.SearchIndexerBeanLifecycle;
 import org.jboss.seam.persistence.util.EnvironmentUtils;
 import org.jboss.solder.bean.BeanBuilder;
 import org.jboss.solder.bean.Beans;
@@ -25,18 +29,23 @@ import org.jboss.solder.core.ExtensionManaged;
 import org.jboss.solder.literal.AnyLiteral;
 import org.jboss.solder.literal.ApplicationScopedLiteral;
 import org.jboss.solder.literal.DefaultLiteral;
+import org.jboss.solder.reflection.AnnotationInstanceProvider;
 import org.jboss.solder.reflection.Reflections;
 import org.jboss.solder.reflection.annotated.AnnotatedTypeBuilder;
 import org.jboss.solder.reflection.annotated.Annotateds;
 import org.jboss.solder.util.service.ServiceLoader;
 
 import javax.annotation.Resource;
+import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.Dependent;
+import javax.enterprise.context.RequestScoped;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Alternative;
+import javax.enterprise.inject.Default;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.AfterBeanDiscovery;
+import javax.enterprise.inject.spi.AfterDeploymentValidation;
 import javax.enterprise.inject.spi.AnnotatedCallable;
 import javax.enterprise.inject.spi.AnnotatedField;
 import javax.enterprise.inject.spi.AnnotatedMember;
@@ -45,18 +54,22 @@ import javax.enterprise.inject.spi.AnnotatedType;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.enterprise.inject.spi.BeforeBeanDiscovery;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.Extension;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
-import javax.persistence.Persistence;
 import javax.persistence.PersistenceUnit;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Extension the wraps producer methods/fields that produce an entity manager
@@ -70,6 +83,35 @@ public class ManagedPersistenceContextExtension implements Extension {
 
     private final List<SeamPersistenceProvider> persistenceProviders = new ArrayList<SeamPersistenceProvider>();
 
+    private ProxyStrategy proxyStrategy;
+
+    private PassivationMode passivationMode;
+
+    private boolean trackTransactions;
+
+    private final EntityManagerFactoryBootstrap bootstrap = new EntityManagerFactoryBootstrap();
+
+    private final Map<Set<Annotation>, EntityManagerPool> pools = new ConcurrentHashMap<Set<Annotation>, EntityManagerPool>();
+
+    /**
+     * the tenant factory caches of the multi tenant persistence contexts of
+     * this deployment, so that deserialized persistence contexts can find
+     * theirs
+     */
+    private final Map<Set<Annotation>, TenantEntityManagerFactoryCache> tenantFactories = new ConcurrentHashMap<Set<Annotation>, TenantEntityManagerFactoryCache>();
+
+    /**
+     * the definitions of this application's persistence contexts
+     */
+    private final PersistenceContextDefinitionRegistry definitions = new PersistenceContextDefinitionRegistry();
+
+    /**
+     * the metrics of this application's persistence contexts
+     */
+    private PersistenceMetrics metrics = NoOpPersistenceMetrics.INSTANCE;
+
+    private final AnnotationInstanceProvider annotationInstanceProvider = new AnnotationInstanceProvider();
+
     private static final Logger log = Logger.getLogger(ManagedPersistenceContextExtension.class);
 
     public void beforeBeanDiscovery(@Observes BeforeBeanDiscovery event) {
@@ -95,6 +137,16 @@ public class ManagedPersistenceContextExtension implements Extension {
         }
         // this is always the last one considered
         persistenceProviders.add(new DefaultPersistenceProvider());
+        proxyStrategy = ProxyStrategy.getConfiguredStrategy();
+        if (proxyStrategy != ProxyStrategy.JDK) {
+            log.info("Using " + proxyStrategy + " proxy strategy for Seam Managed Persistence Contexts");
+        }
+        passivationMode = PassivationMode.getConfiguredMode();
+        if (passivationMode != PassivationMode.SERIALIZE) {
+            log.info("Using " + passivationMode + " passivation mode for Seam Managed Persistence Contexts");
+        }
+        trackTransactions = TransactionTracker.isEnabled();
+        metrics = PersistenceMetricsFactory.createMetrics();
     }
 
     /**
@@ -119,6 +171,7 @@ public class ManagedPersistenceContextExtension implements Extension {
                 }
                 qualifiers.add(AnyLiteral.INSTANCE);
                 beans.add(createEMFBean(unitName, qualifiers, event.getAnnotatedType(), manager));
+                bootstrap.addPersistenceUnit(unitName, getBatchProperties(field.getAnnotation(BatchMode.class)));
             }
             // look for a seam managed persistence unit declaration on EE resource
             // producer fields
@@ -192,28 +245,60 @@ public class ManagedPersistenceContextExtension implements Extension {
     }
 
     /**
-     * Creates an EntityManagerFactory bean in a SE environment
+     * Creates an EntityManagerFactory bean in a SE environment. The bean is
+     * application scoped, so the factory is shared by everything that injects
+     * it and is only closed when the application shuts down.
      */
     private Bean<?> createEMFBean(final String unitName, final Set<Annotation> qualifiers, final AnnotatedType<?> type, final BeanManager beanManager) {
         BeanBuilder<EntityManagerFactory> builder = new BeanBuilder<EntityManagerFactory>(beanManager);
         Set<Type> types = new HashSet<Type>();
         types.add(EntityManagerFactory.class);
         types.add(Object.class);
-        builder.beanClass(type.getJavaClass()).qualifiers(qualifiers).types(types);
+        builder.beanClass(type.getJavaClass()).qualifiers(qualifiers).types(types).scope(ApplicationScoped.class);
         builder.beanLifecycle(new ContextualLifecycle<EntityManagerFactory>() {
 
             public void destroy(Bean<EntityManagerFactory> bean, EntityManagerFactory instance, CreationalContext<EntityManagerFactory> creationalContext) {
+                PersistenceProviderCache.remove(instance);
                 instance.close();
                 creationalContext.release();
             }
 
             public EntityManagerFactory create(Bean<EntityManagerFactory> bean, CreationalContext<EntityManagerFactory> creationalContext) {
-                return Persistence.createEntityManagerFactory(unitName);
+                return bootstrap.getEntityManagerFactory(unitName);
             }
         });
         return builder.create();
     }
 
+    /**
+     * Returns the properties that enable JDBC batching for a bootstrapped
+     * persistence unit. As we do not know which provider will be used, the
+     * properties of all providers are merged.
+     */
+    private Map<String, Object> getBatchProperties(BatchMode batchMode) {
+        if (batchMode == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> properties = new HashMap<String, Object>();
+        for (SeamPersistenceProvider i : persistenceProviders) {
+            properties.putAll(PersistenceProviderCache.getExtendedProvider(i).getBatchProperties(batchMode.value()));
+        }
+        return properties;
+    }
+
+    private ReplicaRouter createReplicaRouter(ReadReplicas readReplicas, BeanManager manager) {
+        Annotation[][] qualifiers = new Annotation[readReplicas.value().length][];
+        for (int i = 0; i < qualifiers.length; ++i) {
+            Class<? extends Annotation> qualifier = readReplicas.value()[i];
+            if (qualifier == Default.class) {
+                qualifiers[i] = new Annotation[]{DefaultLiteral.INSTANCE};
+            } else {
+                qualifiers[i] = new Annotation[]{annotationInstanceProvider.get(qualifier, Collections.<String, Object>emptyMap())};
+            }
+        }
+        return new ReplicaRouter(qualifiers, readReplicas.selection(), manager);
+    }
+
     private void registerManagedPersistenceContext(Set<Annotation> qualifiers, Class<? extends Annotation> scope, boolean alternative, BeanManager manager, ClassLoader loader, AnnotatedMember<?> member, Class<?> declaringClass) {
         // we need to add all additional interfaces from our
         // SeamPersistenceProvider to the bean as at this stage we have no way of
@@ -225,8 +310,51 @@ public class ManagedPersistenceContextExtension implements Extension {
         for (SeamPersistenceProvider i : persistenceProviders) {
             additionalInterfaces.addAll(i.getAdditionalEntityManagerInterfaces());
         }
+        // intern the definition now, so touching the SMPC at runtime does not
+        // need to create or look one up
+        int definitionId = definitions.register(qualifiers, EntityManager.class).getId();
         // create the new bean to be registered later
-        ManagedPersistenceContextBeanLifecycle lifecycle = new ManagedPersistenceContextBeanLifecycle(qualifiers, loader, manager, additionalInterfaces, persistenceProviders);
+        MultiTenant multiTenant = member.getAnnotation(MultiTenant.class);
+        // request scoped SMPCs can recycle their entity managers, unless they
+        // may belong to different tenants
+        EntityManagerPool pool = null;
+        int poolSize = PersistenceContextPool.getConfiguredSize();
+        if (poolSize > 0 && scope == RequestScoped.class && multiTenant == null) {
+            pool = new EntityManagerPool(qualifiers.toString(), poolSize, persistenceProviders);
+            pools.put(qualifiers, pool);
+        }
+        ManagedPersistenceContextBeanLifecycle lifecycle = new ManagedPersistenceContextBeanLifecycle(qualifiers, loader, manager, additionalInterfaces, persistenceProviders, proxyStrategy, pool);
+        lifecycle.setDefinitionId(definitionId);
+        lifecycle.setMetrics(metrics.getPersistenceContextMetrics(qualifiers, EntityManager.class));
+        BatchMode batchMode = member.getAnnotation(BatchMode.class);
+        if (batchMode != null) {
+            lifecycle.setBatchSize(batchMode.value());
+        }
+        if (multiTenant != null) {
+            PersistenceUnit persistenceUnit = member.getAnnotation(PersistenceUnit.class);
+            if (persistenceUnit == null || persistenceUnit.unitName().length() == 0) {
+                throw new RuntimeException("@MultiTenant persistence context " + member + " must be produced by a @PersistenceUnit field with a unitName");
+            }
+            TenantEntityManagerFactoryCache cache = new TenantEntityManagerFactoryCache(qualifiers, persistenceUnit.unitName(), getBatchProperties(batchMode), multiTenant.maxTenants(), multiTenant.maxIdleMinutes() * 60000L, manager);
+            tenantFactories.put(cache.getQualifiers(), cache);
+            lifecycle.setTenantFactories(cache);
+        }
+        lifecycle.setPassivationMode(passivationMode);
+        lifecycle.setTrackTransactions(trackTransactions);
+        lifecycle.setReadOnly(member.isAnnotationPresent(ReadOnly.class));
+        ReadReplicas readReplicas = member.getAnnotation(ReadReplicas.class);
+        if (readReplicas != null) {
+            lifecycle.setReplicaRouter(createReplicaRouter(readReplicas, manager));
+        }
+        BoundedPersistenceContext bounded = member.getAnnotation(BoundedPersistenceContext.class);
+        if (bounded != null) {
+            lifecycle.setMaxEntities(bounded.value());
+        }
+        CacheableQueries cacheableQueries = member.getAnnotation(CacheableQueries.class);
+        if (cacheableQueries != null) {
+            String region = cacheableQueries.region();
+            lifecycle.setQueryCache(true, region.length() == 0 ? null : region);
+        }
         AnnotatedTypeBuilder<EntityManager> typeBuilder = new AnnotatedTypeBuilder().setJavaClass(EntityManager.class);
         BeanBuilder<EntityManager> builder = new BeanBuilder<EntityManager>(manager).readFromType(typeBuilder.create());
         builder.qualifiers(qualifiers);
@@ -249,6 +377,22 @@ public class ManagedPersistenceContextExtension implements Extension {
         builder.passivationCapable(true);
         builder.toString("Seam Managed Persistence Context with qualifiers [" + qualifiers + "] with configured by [" + member + "] on class [" + declaringClass + "]");
         beans.add(builder.create());
+        if (isHibernateSearchPresent(additionalInterfaces)) {
+            beans.add(SearchIndexerBeanLifecycle.createBean(qualifiers, member.getDeclaringType().getJavaClass(), manager));
+        }
+    }
+
+    /**
+     * Hibernate Search is optional, so we only refer to the search classes
+     * once a provider has added the FullTextEntityManager interface
+     */
+    private static boolean isHibernateSearchPresent(Set<Class<?>> additionalInterfaces) {
+        for (Class<?> i : additionalInterfaces) {
+            if ("org.hibernate.search.jpa.FullTextEntityManager".equals(i.getName())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void afterBeanDiscovery(@Observes AfterBeanDiscovery event) {
@@ -257,4 +401,59 @@ public class ManagedPersistenceContextExtension implements Extension {
         }
 
     }
+
+    /**
+     * Returns the pool of the request scoped SMPC with the given qualifiers,
+     * or null if its entity managers are not pooled
+     */
+    public EntityManagerPool getPool(Set<Annotation> qualifiers) {
+        return pools.get(qualifiers);
+    }
+
+    /**
+     * Returns the registry that assigns ids to this application's persistence
+     * context definitions
+     */
+    public PersistenceContextDefinitionRegistry getDefinitionRegistry() {
+        return definitions;
+    }
+
+    /**
+     * Returns the metrics of this application's persistence contexts
+     */
+    public PersistenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the tenant factory cache of the multi tenant persistence context
+     * with the given qualifiers
+     */
+    TenantEntityManagerFactoryCache getTenantFactories(Set<Annotation> qualifiers) {
+        TenantEntityManagerFactoryCache cache = tenantFactories.get(qualifiers);
+        if (cache == null) {
+            throw new IllegalStateException("No multi tenant persistence context with qualifiers " + qualifiers);
+        }
+        return cache;
+    }
+
+    /**
+     * starts building the SE persistence units if eager bootstrap is enabled
+     */
+    public void afterDeploymentValidation(@Observes AfterDeploymentValidation event) {
+        if (EntityManagerFactoryBootstrap.isEagerBootstrapEnabled()) {
+            bootstrap.start();
+        }
+    }
+
+    public void beforeShutdown(@Observes BeforeShutdown event) {
+        for (EntityManagerPool pool : pools.values()) {
+            pool.close();
+        }
+        for (TenantEntityManagerFactoryCache cache : tenantFactories.values()) {
+            cache.close();
+        }
+        bootstrap.shutdown();
+        metrics.close();
+    }
 }
@@ -16,16 +16,25 @@
  */
 package org.jboss.seam.persistence;
 
+import org.jboss.seam.persistence.metrics.PersistenceContextMetrics;
+import org.jboss.seam.persistence.metrics.PersistenceMetricsFactory;
 import org.jboss.solder.logging.Logger;
 import org.jboss.seam.persistence.util.BeanManagerUtils;
 import org.jboss.seam.transaction.SeamTransaction;
 import org.jboss.seam.transaction.literal.DefaultTransactionLiteral;
 
 import javax.enterprise.context.ContextNotActiveException;
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
 import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationHandler;
@@ -44,8 +53,6 @@ public class ManagedPersistenceContextProxyHandler extends PersistenceContextPro
 
     private static final long serialVersionUID = -6539267789786229774L;
 
-    private final EntityManager delegate;
-
     private final PersistenceContexts persistenceContexts;
 
     private final Set<Annotation> qualifiers;
@@ -54,65 +61,496 @@ public class ManagedPersistenceContextProxyHandler extends PersistenceContextPro
 
     private final BeanManager beanManager;
 
-    private boolean persistenceContextsTouched = false;
+    /**
+     * this is not serialized, so a deserialized persistence context touches
+     * the {@link PersistenceContexts} again when it is next used
+     */
+    private transient boolean persistenceContextsTouched = false;
+
+    /**
+     * the id of this SMPC's definition, or -1 if it has to be looked up when
+     * the SMPC is touched
+     */
+    private int definitionId = -1;
 
     private boolean closeOnTransactionCommit = false;
 
+    /**
+     * true once the entity manager has been given back to the pool, after
+     * which it may belong to another persistence context
+     */
+    private boolean released;
+
+    /**
+     * true if setProperty() has been called, in which case the entity manager
+     * is closed rather than pooled
+     */
+    private transient boolean propertiesChanged;
+
+    /**
+     * the number of entities to persist between flushes, or 0 if batch mode
+     * is disabled
+     */
+    private int batchSize;
+
+    /**
+     * entities persisted since the last batch flush
+     */
+    private transient int unflushedEntities;
+
+    /**
+     * the maximum number of entities to keep in the persistence context, or 0
+     * if it is unbounded
+     */
+    private int maxEntities;
+
+    /**
+     * tracks entity usage if the persistence context is bounded. This is
+     * recreated after deserialization, so the access order is lost.
+     */
+    private transient EntityEvictor evictor;
+
+    private PassivationMode passivationMode = PassivationMode.SERIALIZE;
+
+    /**
+     * true if writes are rejected
+     */
+    private boolean readOnly;
+
+    /**
+     * chooses the replica that reads are routed to, or null if all calls go to
+     * the primary database
+     */
+    private ReplicaRouter replicaRouter;
+
+    /**
+     * true once the persistence context has written to the primary database,
+     * after which reads are no longer routed to a replica
+     */
+    private boolean pinnedToPrimary;
+
+    /**
+     * the entity manager for the replica that reads are currently routed to
+     */
+    private transient EntityManager replica;
+
+    private transient int replicaIndex;
+
+    /**
+     * the tenant whose entity manager factory this persistence context uses,
+     * or null if it is not {@link MultiTenant}
+     */
+    private String tenant;
+
+    /**
+     * the tenant's entity manager factory while this persistence context
+     * holds a lease on it. This is not serialized, so the lease is taken again
+     * when a deserialized persistence context is next used.
+     */
+    private transient TenantEntityManagerFactoryCache.TenantFactory tenantFactory;
+
+    /**
+     * the cache that the tenant's entity manager factory is leased from. It is
+     * owned by the extension, and looked up again after deserialization.
+     */
+    private transient TenantEntityManagerFactoryCache tenantFactories;
+
+    /**
+     * the entities to reload when the persistence context is next used, if it
+     * was deserialized from a snapshot
+     */
+    private transient PersistenceContextSnapshot snapshot;
+
+    /**
+     * the snapshot taken by {@link #getSerializedEntityManager()}, which is
+     * written by {@link #writeObject(ObjectOutputStream)}
+     */
+    private transient PersistenceContextSnapshot serializedSnapshot;
+
+    /**
+     * true if queries containing EL are marked cacheable
+     */
+    private boolean cacheQueries;
+
+    /**
+     * the query cache region, or null for the default region
+     */
+    private String queryCacheRegion;
+
     private transient SeamTransaction seamTransaction;
 
     private transient boolean synchronizationRegistered;
 
+    /**
+     * the id of the transaction that was current the last time we found no
+     * active transaction, only used if the {@link TransactionTracker} is
+     * enabled
+     */
+    private transient long checkedTransactionId = TransactionTracker.UNCHECKED;
+
+    /**
+     * true if transactions are only looked for once a new one has begun on
+     * the current thread
+     */
+    private boolean trackTransactions;
+
+    private transient PersistenceContextMethodTable methodTable;
+
+    private transient PersistenceContextMetrics metrics;
+
+    private transient EntityManagerPool pool;
+
+    /**
+     * creation time for metrics, this is 0 after deserialization
+     */
+    private transient long createdAt;
+
     static final Logger log = Logger.getLogger(ManagedPersistenceContextProxyHandler.class);
 
     public ManagedPersistenceContextProxyHandler(EntityManager delegate, BeanManager beanManager, Set<Annotation> qualifiers, PersistenceContexts persistenceContexts, SeamPersistenceProvider provider) {
+        this(delegate, beanManager, qualifiers, persistenceContexts, provider, null);
+    }
+
+    public ManagedPersistenceContextProxyHandler(EntityManager delegate, BeanManager beanManager, Set<Annotation> qualifiers, PersistenceContexts persistenceContexts, SeamPersistenceProvider provider, PersistenceContextMethodTable methodTable) {
         super(delegate, beanManager);
-        this.qualifiers = qualifiers;
+        this.methodTable = methodTable;
+        this.qualifiers = Collections.unmodifiableSet(qualifiers);
         this.provider = provider;
-        this.delegate = delegate;
         this.persistenceContexts = persistenceContexts;
         this.beanManager = beanManager;
+        this.createdAt = System.nanoTime();
     }
 
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        if ("changeFlushMode".equals(method.getName()) && method.getParameterTypes().length == 1 && method.getParameterTypes()[0].equals(FlushModeType.class)) {
-            changeFushMode((FlushModeType) args[0]);
-            return null;
+        switch (getMethodTable(proxy).getMethodType(method)) {
+            case CHANGE_FLUSH_MODE:
+                changeFushMode((FlushModeType) args[0]);
+                getMetrics().flushModeChanged();
+                return null;
+            case GET_BEAN_TYPE:
+                return EntityManager.class;
+            case GET_QUALIFIERS:
+                return getQualifiers();
+            case GET_PROVIDER:
+                return provider;
+            case CLOSE_AFTER_TRANSACTION:
+                closeAfterTransaction();
+                return null;
+            case SET_BATCH_SIZE:
+                setBatchSize((Integer) args[0]);
+                return null;
+            case GET_BATCH_SIZE:
+                return batchSize;
+            case ITERATE:
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                if (args[0] instanceof Class<?>) {
+                    return iterate((Class<?>) args[0], (Integer) args[1]);
+                }
+                return iterate((Query) args[0], (Integer) args[1]);
+            case QUERY:
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                evictIfRequired();
+                return method.invoke(getQueryEntityManager(), args);
+            case GET_TRANSACTION:
+                return method.invoke(getEntityManager(), args);
+            case SET_FLUSH_MODE:
+                // we do not join the transaction for setFlushMode calls, as this
+                // may result in an infinite loop, as this is called during SMPC
+                // initialisation
+                touch((ManagedPersistenceContext) proxy);
+                return method.invoke(getEntityManager(), args);
+            case CREATE_QUERY:
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                evictIfRequired();
+                return handleCreateQueryWithString(method, args);
+            case SET_PROPERTY:
+                propertiesChanged();
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                return method.invoke(getEntityManager(), args);
+            case FLUSH:
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                if (getMetrics().isEnabled()) {
+                    long start = System.nanoTime();
+                    try {
+                        return method.invoke(getEntityManager(), args);
+                    } finally {
+                        getMetrics().flushed(System.nanoTime() - start);
+                    }
+                }
+                return method.invoke(getEntityManager(), args);
+            case PERSIST:
+                beforeWrite();
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                Object result = method.invoke(getEntityManager(), args);
+                entityAccessed(args[0]);
+                afterPersist();
+                return result;
+            case FIND:
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                Object found = entityAccessed(method.invoke(getEntityManager(), args));
+                evictIfRequired();
+                return found;
+            case WRITE:
+                beforeWrite();
+                entityAccessed(args[0]);
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                Object written = entityAccessed(method.invoke(getEntityManager(), args));
+                evictIfRequired();
+                return written;
+            case ENTITY_ARGUMENT:
+                // mark the entity as used first, so it is not evicted before
+                // the call
+                entityAccessed(args[0]);
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                return entityAccessed(method.invoke(getEntityManager(), args));
+            default:
+                beforeInvoke((ManagedPersistenceContext) proxy);
+                return method.invoke(getEntityManager(), args);
         }
-        if ("getBeanType".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            return EntityManager.class;
+    }
+
+    /**
+     * Joins the current transaction if required and marks the persistence
+     * context as touched. This must be called before any call that is passed
+     * through to the delegate, apart from setFlushMode and getTransaction.
+     */
+    void beforeInvoke(ManagedPersistenceContext proxy) throws SystemException {
+        if (!synchronizationRegistered) {
+            joinTransactionIfRequired();
         }
-        if ("getQualifiers".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            return Collections.unmodifiableSet(qualifiers);
+        touch(proxy);
+        getMetrics().invoked();
+    }
+
+    /**
+     * Detaches least recently used clean entities if the persistence context
+     * is bounded and holds too many. This is called after the calls that add
+     * entities to the persistence context, and before queries are created so
+     * that the results of earlier queries are counted, rather than on every
+     * call.
+     */
+    void evictIfRequired() {
+        if (maxEntities > 0 && getEntityManager().isOpen()) {
+            int evicted = getEvictor().evictIfRequired(getEntityManager(), provider);
+            if (evicted > 0) {
+                getMetrics().entitiesEvicted(evicted);
+            }
         }
-        if ("getProvider".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            return provider;
+    }
+
+    /**
+     * Pins the persistence context to the primary database, so it reads its
+     * own writes
+     *
+     * @throws IllegalStateException if the persistence context is read only
+     */
+    void beforeWrite() {
+        if (readOnly) {
+            throw new IllegalStateException("Persistence context with qualifiers " + qualifiers + " is read only");
         }
-        if ("closeAfterTransaction".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            closeAfterTransaction();
-            return null;
+        if (!pinnedToPrimary && replicaRouter != null) {
+            pinnedToPrimary = true;
+            closeReplica();
         }
-        if ("getTransaction".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            return super.invoke(proxy, method, args);
+    }
+
+    /**
+     * Returns the entity manager that queries are routed to. This is a replica
+     * if {@link ReadReplicas} are configured, unless the persistence context
+     * has written to the primary database or has joined a transaction that
+     * may write to it.
+     */
+    @Override
+    protected EntityManager getQueryEntityManager() {
+        if (replicaRouter == null || pinnedToPrimary || (synchronizationRegistered && !readOnly)) {
+            return getEntityManager();
         }
-        // we do not join the transaction for setFlushMode calls, as this may
-        // result in an infinite loop, as this is called during SMPC
-        // initialisation
-        if (!"setFlushMode".equals(method.getName())) {
-            if (!synchronizationRegistered) {
-                joinTransaction();
+        if (replica == null || !replica.isOpen()) {
+            replicaIndex = replicaRouter.select();
+            replica = replicaRouter.open(replicaIndex, provider);
+        }
+        return replica;
+    }
+
+    private void closeReplica() {
+        if (replica != null) {
+            EntityManager replica = this.replica;
+            this.replica = null;
+            replicaRouter.close(replicaIndex, replica);
+        }
+    }
+
+    /**
+     * Marks an entity as recently used if the persistence context is bounded
+     *
+     * @return the entity
+     */
+    <T> T entityAccessed(T entity) {
+        if (maxEntities > 0) {
+            getEvictor().accessed(entity);
+        }
+        return entity;
+    }
+
+    private EntityEvictor getEvictor() {
+        if (evictor == null) {
+            evictor = new EntityEvictor(maxEntities);
+        }
+        return evictor;
+    }
+
+    /**
+     * Returns the entity manager, restoring it from the snapshot if the
+     * persistence context was deserialized in {@link PassivationMode#SNAPSHOT}
+     * mode
+     *
+     * @throws javax.persistence.OptimisticLockException
+     *          if an entity was modified or deleted while the persistence
+     *          context was passivated. This is only thrown once, the
+     *          persistence context can be used afterwards.
+     */
+    @Override
+    protected EntityManager getEntityManager() {
+        EntityManager entityManager = super.getEntityManager();
+        if (entityManager == null) {
+            if (released) {
+                throw new IllegalStateException("Persistence context with qualifiers " + qualifiers + " has been closed");
+            }
+            entityManager = restore();
+        } else if (tenant != null && tenantFactory == null) {
+            // the entity manager was deserialized with the persistence context
+            tenantFactory = getTenantFactories().acquire(tenant);
+        }
+        return entityManager;
+    }
+
+    private EntityManager restore() {
+        EntityManagerFactory emf;
+        if (tenant != null) {
+            tenantFactory = getTenantFactories().acquire(tenant);
+            emf = tenantFactory.getEntityManagerFactory();
+        } else {
+            Bean<EntityManagerFactory> bean = (Bean) beanManager.resolve(beanManager.getBeans(EntityManagerFactory.class, qualifiers.toArray(new Annotation[qualifiers.size()])));
+            if (bean == null) {
+                throw new RuntimeException("Could not find EntityManagerFactory bean with qualifiers" + qualifiers);
+            }
+            CreationalContext<EntityManagerFactory> ctx = beanManager.createCreationalContext(bean);
+            emf = (EntityManagerFactory) beanManager.getReference(bean, EntityManagerFactory.class, ctx);
+        }
+        EntityManager entityManager = provider.proxyEntityManager(emf.createEntityManager());
+        setEntityManager(entityManager);
+        if (readOnly) {
+            getExtendedProvider().setReadOnly(entityManager);
+        } else {
+            provider.setFlushMode(entityManager, getFlushMode());
+        }
+        PersistenceContextSnapshot snapshot = this.snapshot;
+        this.snapshot = null;
+        if (snapshot != null) {
+            log.debug("Restoring " + snapshot.getEntityCount() + " entities into persistence context with qualifiers " + qualifiers);
+            snapshot.restore(entityManager, provider);
+        }
+        return entityManager;
+    }
+
+    private FlushModeType getFlushMode() {
+        try {
+            if (persistenceContexts != null) {
+                return persistenceContexts.getFlushMode();
+            }
+        } catch (ContextNotActiveException e) {
+            // use the default
+        }
+        return FlushModeType.AUTO;
+    }
+
+    @Override
+    protected EntityManager getSerializedEntityManager() {
+        EntityManager entityManager = super.getEntityManager();
+        if (entityManager == null) {
+            // not used since it was deserialized, so the snapshot is current
+            serializedSnapshot = snapshot;
+            return null;
+        }
+        serializedSnapshot = null;
+        if (passivationMode == PassivationMode.SNAPSHOT && !synchronizationRegistered && entityManager.isOpen()) {
+            serializedSnapshot = PersistenceContextSnapshot.create(entityManager, provider);
+            if (serializedSnapshot != null) {
+                return null;
             }
+            log.debug("Serializing persistence context with qualifiers " + qualifiers + " in full, as it has unflushed changes or its entities cannot be identified");
         }
+        return entityManager;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(serializedSnapshot);
+        serializedSnapshot = null;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        snapshot = (PersistenceContextSnapshot) in.readObject();
+    }
 
-        touch((ManagedPersistenceContext) proxy);
+    PersistenceContextMetrics getMetrics() {
+        if (metrics == null) {
+            // the metrics are not serialized
+            metrics = PersistenceMetricsFactory.getMetrics(beanManager).getPersistenceContextMetrics(qualifiers, EntityManager.class);
+        }
+        return metrics;
+    }
+
+    @Override
+    protected void queryRewritten(Query query) {
+        getMetrics().queryRewritten();
+        if (cacheQueries) {
+            getExtendedProvider().setCacheable(query, queryCacheRegion);
+        }
+    }
 
-        return super.invoke(proxy, method, args);
+    Set<Annotation> getQualifiers() {
+        return qualifiers;
+    }
+
+    SeamPersistenceProvider getProvider() {
+        return provider;
+    }
+
+    private ExtendedPersistenceProvider getExtendedProvider() {
+        return PersistenceProviderCache.getExtendedProvider(provider);
+    }
+
+    private PersistenceContextMethodTable getMethodTable(Object proxy) {
+        if (methodTable == null) {
+            // the table is not serialized, so rebuild it after deserialization
+            methodTable = new PersistenceContextMethodTable(proxy.getClass().getInterfaces());
+        }
+        return methodTable;
+    }
+
+    private void joinTransactionIfRequired() throws SystemException {
+        if (trackTransactions) {
+            long currentTransactionId = TransactionTracker.getCurrentTransactionId();
+            if (currentTransactionId == checkedTransactionId) {
+                // no transaction has begun on this thread since the last check
+                return;
+            }
+            joinTransaction();
+            if (!synchronizationRegistered) {
+                checkedTransactionId = currentTransactionId;
+            }
+        } else {
+            joinTransaction();
+        }
     }
 
     private void joinTransaction() throws SystemException {
         SeamTransaction transaction = getTransaction();
         if (transaction.isActive()) {
             synchronizationRegistered = true;
-            transaction.enlist(delegate);
+            transaction.enlist(getEntityManager());
             try {
                 transaction.registerSynchronization(this);
             } catch (Exception e) {
@@ -125,19 +563,212 @@ public class ManagedPersistenceContextProxyHandler extends PersistenceContextPro
         }
     }
 
-    private void closeAfterTransaction() throws SystemException {
+    void closeAfterTransaction() throws SystemException {
+        if (createdAt != 0) {
+            getMetrics().persistenceContextDestroyed(System.nanoTime() - createdAt);
+        }
+        closeReplica();
         SeamTransaction transaction = getTransaction();
         if (transaction.isActive()) {
             closeOnTransactionCommit = true;
         } else {
-            if (delegate.isOpen()) {
-                delegate.close();
+            // there is nothing to close if the persistence context has not
+            // been restored since it was deserialized
+            EntityManager entityManager = super.getEntityManager();
+            snapshot = null;
+            if (entityManager != null && entityManager.isOpen()) {
+                if (pool != null && propertiesChanged) {
+                    // JPA has no way to remove a property
+                    pool.reject();
+                    entityManager.close();
+                } else if (pool != null && pool.release(entityManager)) {
+                    // drop the reference so the pooled entity manager cannot
+                    // be reached through this persistence context
+                    released = true;
+                    setEntityManager(null);
+                } else {
+                    entityManager.close();
+                }
+            }
+            releaseTenant();
+        }
+    }
+
+    /**
+     * Gives back the lease on the tenant's entity manager factory once the
+     * entity manager has been closed
+     */
+    private void releaseTenant() {
+        if (tenantFactory != null) {
+            TenantEntityManagerFactoryCache.TenantFactory leased = tenantFactory;
+            tenantFactory = null;
+            getTenantFactories().release(leased);
+        }
+    }
+
+    /**
+     * Sets the tenant of a {@link MultiTenant} persistence context
+     *
+     * @param tenantFactory   the tenant's entity manager factory, which the
+     *                        persistence context already holds a lease on, or
+     *                        null if it is not multi tenant
+     * @param tenantFactories the cache the factory was leased from
+     */
+    void setTenant(TenantEntityManagerFactoryCache.TenantFactory tenantFactory, TenantEntityManagerFactoryCache tenantFactories) {
+        this.tenant = tenantFactory == null ? null : tenantFactory.getTenant();
+        this.tenantFactory = tenantFactory;
+        this.tenantFactories = tenantFactories;
+    }
+
+    private TenantEntityManagerFactoryCache getTenantFactories() {
+        if (tenantFactories == null) {
+            ManagedPersistenceContextExtension extension = BeanManagerUtils.getContextualInstance(beanManager, ManagedPersistenceContextExtension.class);
+            if (extension == null) {
+                throw new RuntimeException("Could not find ManagedPersistenceContextExtension bean");
             }
+            tenantFactories = extension.getTenantFactories(qualifiers);
         }
+        return tenantFactories;
     }
 
-    private void changeFushMode(FlushModeType flushModeType) {
-        provider.setFlushMode(delegate, flushModeType);
+    /**
+     * Counts a persisted entity, and flushes and clears the persistence
+     * context if a full batch has been persisted in the current transaction
+     */
+    void afterPersist() throws SystemException {
+        if (batchSize > 0 && ++unflushedEntities >= batchSize && getTransaction().isActive()) {
+            PersistenceContextMetrics metrics = getMetrics();
+            long start = System.nanoTime();
+            getEntityManager().flush();
+            metrics.flushed(System.nanoTime() - start);
+            getEntityManager().clear();
+            metrics.batchFlushed(unflushedEntities);
+            unflushedEntities = 0;
+            if (evictor != null) {
+                evictor.clear();
+            }
+        }
+    }
+
+    void setBatchSize(int batchSize) {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("Batch size must not be negative: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        unflushedEntities = 0;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param maxEntities the maximum number of entities to keep in the
+     *                    persistence context, or 0 to leave it unbounded
+     * @see BoundedPersistenceContext
+     */
+    void setMaxEntities(int maxEntities) {
+        if (maxEntities < 0) {
+            throw new IllegalArgumentException("Maximum number of entities must not be negative: " + maxEntities);
+        }
+        this.maxEntities = maxEntities;
+        evictor = null;
+    }
+
+    /**
+     * @see ReadOnly
+     */
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @see ReadReplicas
+     */
+    void setReplicaRouter(ReplicaRouter replicaRouter) {
+        closeReplica();
+        this.replicaRouter = replicaRouter;
+        pinnedToPrimary = false;
+    }
+
+    /**
+     * @see PassivationMode
+     */
+    void setPassivationMode(PassivationMode passivationMode) {
+        this.passivationMode = passivationMode;
+    }
+
+    /**
+     * @see TransactionTracker
+     */
+    void setTrackTransactions(boolean trackTransactions) {
+        this.trackTransactions = trackTransactions;
+    }
+
+    /**
+     * @see CacheableQueries
+     */
+    void setQueryCache(boolean cacheQueries, String queryCacheRegion) {
+        this.cacheQueries = cacheQueries;
+        this.queryCacheRegion = queryCacheRegion;
+    }
+
+    void propertiesChanged() {
+        propertiesChanged = true;
+    }
+
+    /**
+     * @param metrics the metrics to record to, or null to look them up when
+     *                they are first needed
+     */
+    void setMetrics(PersistenceContextMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @see PersistenceContextDefinitionRegistry
+     */
+    void setDefinitionId(int definitionId) {
+        this.definitionId = definitionId;
+    }
+
+    <T> QueryIterator<T> iterate(Query query, int fetchSize) {
+        return getExtendedProvider().iterate(getQueryEntityManager(), query, fetchSize);
+    }
+
+    <T> QueryIterator<T> iterate(Class<T> entityClass, int fetchSize) {
+        return getExtendedProvider().iterate(getQueryEntityManager(), entityClass, fetchSize);
+    }
+
+    /**
+     * Sets the pool that the entity manager is returned to when the SMPC is
+     * destroyed outside of a transaction
+     */
+    void setPool(EntityManagerPool pool) {
+        this.pool = pool;
+    }
+
+    void changeFushMode(FlushModeType flushModeType) {
+        if (released) {
+            // the entity manager now belongs to another persistence context
+            return;
+        }
+        EntityManager entityManager = super.getEntityManager();
+        if (entityManager == null) {
+            // the flush mode is applied when the persistence context is
+            // restored
+            return;
+        }
+        if (!entityManager.isOpen()) {
+            // the persistence context has already been destroyed, but may
+            // still be referenced as touched by a long running conversation
+            return;
+        }
+        if (readOnly) {
+            // read only persistence contexts never flush
+            return;
+        }
+        provider.setFlushMode(entityManager, flushModeType);
     }
 
     void touch(ManagedPersistenceContext delegate) {
@@ -145,7 +776,9 @@ public class ManagedPersistenceContextProxyHandler extends PersistenceContextPro
             try {
                 // we need to do this first to prevent an infinite loop
                 persistenceContextsTouched = true;
-                if (persistenceContexts != null) {
+                if (definitionId >= 0 && persistenceContexts instanceof PersistenceContextsImpl) {
+                    ((PersistenceContextsImpl) persistenceContexts).touch(definitionId, delegate);
+                } else if (persistenceContexts != null) {
                     persistenceContexts.touch(delegate);
                 }
             } catch (ContextNotActiveException e) {
@@ -157,8 +790,10 @@ public class ManagedPersistenceContextProxyHandler extends PersistenceContextPro
 
     public void afterCompletion(int status) {
         synchronizationRegistered = false;
-        if (closeOnTransactionCommit && delegate.isOpen()) {
-            delegate.close();
+        checkedTransactionId = TransactionTracker.UNCHECKED;
+        if (closeOnTransactionCommit && getEntityManager().isOpen()) {
+            getEntityManager().close();
+            releaseTenant();
         }
     }
 
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * {@link QueryIterator} that runs a JPA query one page at a time using
+ * <code>setFirstResult</code> and <code>setMaxResults</code>. This is used
+ * when the persistence provider does not support database cursors. The query
+ * must have a stable order, otherwise rows may be skipped or returned twice.
+ */
+public class PagedQueryIterator<T> extends EvictingQueryIterator<T> {
+
+    protected final EntityManager entityManager;
+
+    protected final int pageSize;
+
+    private final Query query;
+
+    private final int firstResult;
+
+    private final int maxResults;
+
+    private int offset;
+
+    private List<T> page = Collections.emptyList();
+
+    private int index;
+
+    private boolean lastPage;
+
+    /**
+     * types that have been found not to be entities, so we do not keep asking
+     * the entity manager about them
+     */
+    private final Set<Class<?>> nonEntityTypes = new HashSet<Class<?>>();
+
+    public PagedQueryIterator(EntityManager entityManager, Query query, int pageSize) {
+        super(pageSize);
+        this.entityManager = entityManager;
+        this.query = query;
+        this.pageSize = pageSize;
+        if (query != null) {
+            // respect any limits that have already been set on the query
+            this.firstResult = query.getFirstResult();
+            this.maxResults = query.getMaxResults();
+        } else {
+            this.firstResult = 0;
+            this.maxResults = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Fetches the next page of at most <code>pageSize</code> results
+     *
+     * @param previous the last row of the previous page, or null if this is
+     *                 the first page
+     */
+    @SuppressWarnings("unchecked")
+    protected List<T> fetchPage(T previous) {
+        int remaining = maxResults - offset;
+        query.setFirstResult(firstResult + offset);
+        query.setMaxResults(Math.min(pageSize, remaining));
+        return query.getResultList();
+    }
+
+    @Override
+    protected boolean advance() {
+        index++;
+        if (index < page.size()) {
+            return true;
+        }
+        if (lastPage || offset >= maxResults) {
+            return false;
+        }
+        T previous = page.isEmpty() ? null : page.get(page.size() - 1);
+        page = fetchPage(previous);
+        offset += page.size();
+        lastPage = page.size() < pageSize;
+        index = 0;
+        return !page.isEmpty();
+    }
+
+    @Override
+    protected T current() {
+        return page.get(index);
+    }
+
+    @Override
+    protected void evict(Object entity) {
+        Class<?> type = entity.getClass();
+        if (nonEntityTypes.contains(type)) {
+            return;
+        }
+        try {
+            if (entityManager.contains(entity)) {
+                entityManager.detach(entity);
+            }
+        } catch (IllegalArgumentException e) {
+            // not an entity
+            nonEntityTypes.add(type);
+        }
+    }
+
+    @Override
+    protected void release() {
+        page = Collections.emptyList();
+    }
+}
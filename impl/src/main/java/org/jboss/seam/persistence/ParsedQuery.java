@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.el.ELContext;
+import javax.el.ExpressionFactory;
+import javax.el.ValueExpression;
+
+/**
+ * The result of parsing an EL enabled query with {@link QueryParser}: the
+ * rewritten query, and the EL expressions that must be bound to its named
+ * parameters each time the query is created.
+ * <p/>
+ * The expressions are compiled into {@link ValueExpression}s when the query is
+ * parsed, so creating the query only has to evaluate them.
+ * <p/>
+ * Instances are immutable, and are shared between threads by the
+ * {@link ParsedQueryCache}.
+ */
+public class ParsedQuery {
+
+    private final String ejbql;
+
+    private final List<String> expressions;
+
+    private final String[] parameterNames;
+
+    private final ValueExpression[] valueExpressions;
+
+    public ParsedQuery(QueryParser parser, ExpressionFactory expressionFactory, ELContext context) {
+        this.ejbql = parser.getEjbql();
+        this.expressions = Collections.unmodifiableList(parser.getParameterExpressions());
+        this.parameterNames = new String[expressions.size()];
+        this.valueExpressions = new ValueExpression[expressions.size()];
+        for (int i = 0; i < parameterNames.length; i++) {
+            parameterNames[i] = QueryParser.getParameterName(i);
+            valueExpressions[i] = expressionFactory.createValueExpression(context, expressions.get(i), Object.class);
+        }
+    }
+
+    /**
+     * @return the query with all EL expressions replaced by named parameters
+     */
+    public String getEjbql() {
+        return ejbql;
+    }
+
+    /**
+     * @return the EL expressions, in parameter order
+     */
+    public List<String> getExpressions() {
+        return expressions;
+    }
+
+    public int getParameterCount() {
+        return parameterNames.length;
+    }
+
+    public String getParameterName(int index) {
+        return parameterNames[index];
+    }
+
+    /**
+     * Evaluates the expression for the given parameter against the context
+     */
+    public Object getParameterValue(int index, ELContext context) {
+        return valueExpressions[index].getValue(context);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.solder.el.Expressions;
+
+/**
+ * Application wide cache of parsed EL enabled queries, keyed by the raw query
+ * string. Query strings are usually constants, so this means each query is
+ * only parsed, and its EL expressions compiled, once. Only the EL values have
+ * to be evaluated each time the query is created.
+ * <p/>
+ * The cache is bounded. Once it is full an arbitrary entry is evicted for
+ * each new query, which keeps the cache cheap to maintain while still
+ * protecting against applications that build query strings dynamically.
+ */
+@ApplicationScoped
+public class ParsedQueryCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final ConcurrentMap<String, ParsedQuery> cache = new ConcurrentHashMap<String, ParsedQuery>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Returns the parsed form of the query, parsing it and compiling its
+     * expressions with the given {@link Expressions} if it is not already
+     * cached
+     */
+    public ParsedQuery getParsedQuery(String ejbql, Expressions expressions) {
+        ParsedQuery parsed = cache.get(ejbql);
+        if (parsed != null) {
+            hits.incrementAndGet();
+            return parsed;
+        }
+        misses.incrementAndGet();
+        parsed = new ParsedQuery(new QueryParser(ejbql), expressions.getExpressionFactory(), expressions.getELContext());
+        if (maxSize <= 0) {
+            return parsed;
+        }
+        if (cache.size() >= maxSize) {
+            evict();
+        }
+        ParsedQuery existing = cache.putIfAbsent(ejbql, parsed);
+        return existing == null ? parsed : existing;
+    }
+
+    private void evict() {
+        Iterator<String> it = cache.keySet().iterator();
+        while (cache.size() >= maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of queries that are cached. A size of zero
+     * disables caching.
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+}
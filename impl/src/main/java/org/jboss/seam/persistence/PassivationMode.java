@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+/**
+ * Determines how seam managed persistence contexts are written when their
+ * conversation is passivated or replicated. The mode is chosen with the
+ * <code>org.jboss.seam.persistence.passivationMode</code> system property.
+ */
+public enum PassivationMode {
+    /**
+     * The entity manager is serialized along with the persistence context.
+     * This is the default, and only works if the persistence provider's entity
+     * managers are serializable.
+     */
+    SERIALIZE,
+    /**
+     * Only the type, identifier and version of each managed entity is
+     * written. The entities are reloaded into a new entity manager the first
+     * time the persistence context is used after it has been deserialized,
+     * and their versions are checked against the database.
+     * <p/>
+     * This falls back to {@link #SERIALIZE} if the persistence context has
+     * unflushed changes, is enlisted in a transaction, or the
+     * {@link SeamPersistenceProvider} cannot list its managed entities.
+     */
+    SNAPSHOT;
+
+    public static final String PROPERTY_NAME = "org.jboss.seam.persistence.passivationMode";
+
+    /**
+     * Returns the mode configured through system properties, or
+     * {@link #SERIALIZE} if none has been configured
+     *
+     * @throws IllegalArgumentException if the configured mode is unknown
+     */
+    public static PassivationMode getConfiguredMode() {
+        String value = System.getProperty(PROPERTY_NAME);
+        if (value == null || value.length() == 0) {
+            return SERIALIZE;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.seam.persistence.PersistenceContextsImpl.PersistenceContextDefintition;
+
+/**
+ * Interns {@link PersistenceContextDefintition}s, so that there is exactly one
+ * definition for every combination of qualifiers and bean type. Each
+ * definition is given a small integer id, which allows the set of touched
+ * persistence contexts to be stored as a {@link java.util.BitSet}.
+ * <p/>
+ * There is one registry per application, owned by
+ * {@link ManagedPersistenceContextExtension}, so ids are only meaningful
+ * within the application that assigned them. Definitions are normally
+ * registered when the SMPC bean is created, and each SMPC is given the id of
+ * its definition, so touching it at runtime never has to take a lock or look
+ * up its definition. Lookups for definitions that have not been registered
+ * will register them on the fly.
+ */
+public class PersistenceContextDefinitionRegistry {
+
+    /**
+     * copy on write, definitions are only added during deployment
+     */
+    private volatile Map<Class<?>, Map<Set<Annotation>, PersistenceContextDefintition>> definitions = Collections.emptyMap();
+
+    private volatile PersistenceContextDefintition[] byId = new PersistenceContextDefintition[0];
+
+    /**
+     * Returns the definition with the given qualifiers and bean type,
+     * registering it if it does not exist yet.
+     */
+    public PersistenceContextDefintition getDefinition(Set<Annotation> qualifiers, Class<?> type) {
+        Map<Set<Annotation>, PersistenceContextDefintition> forType = definitions.get(type);
+        if (forType != null) {
+            PersistenceContextDefintition definition = forType.get(qualifiers);
+            if (definition != null) {
+                return definition;
+            }
+        }
+        return register(qualifiers, type);
+    }
+
+    /**
+     * Returns the definition with the given id, or null if there is none
+     */
+    public PersistenceContextDefintition getDefinition(int id) {
+        PersistenceContextDefintition[] byId = this.byId;
+        if (id < 0 || id >= byId.length) {
+            return null;
+        }
+        return byId[id];
+    }
+
+    /**
+     * Registers a definition. If the definition is already registered the
+     * existing definition is returned.
+     */
+    public synchronized PersistenceContextDefintition register(Set<Annotation> qualifiers, Class<?> type) {
+        Map<Set<Annotation>, PersistenceContextDefintition> forType = definitions.get(type);
+        if (forType != null && forType.containsKey(qualifiers)) {
+            return forType.get(qualifiers);
+        }
+        PersistenceContextDefintition definition = new PersistenceContextDefintition(qualifiers, type, byId.length);
+
+        Map<Set<Annotation>, PersistenceContextDefintition> newForType;
+        if (forType == null) {
+            newForType = new HashMap<Set<Annotation>, PersistenceContextDefintition>();
+        } else {
+            newForType = new HashMap<Set<Annotation>, PersistenceContextDefintition>(forType);
+        }
+        newForType.put(definition.getQualifiers(), definition);
+        Map<Class<?>, Map<Set<Annotation>, PersistenceContextDefintition>> newDefinitions = new HashMap<Class<?>, Map<Set<Annotation>, PersistenceContextDefintition>>(definitions);
+        newDefinitions.put(type, newForType);
+
+        PersistenceContextDefintition[] newById = new PersistenceContextDefintition[byId.length + 1];
+        System.arraycopy(byId, 0, newById, 0, byId.length);
+        newById[definition.getId()] = definition;
+
+        byId = newById;
+        definitions = newDefinitions;
+        return definition;
+    }
+
+    /**
+     * Returns the number of registered definitions
+     */
+    public int size() {
+        return byId.length;
+    }
+}
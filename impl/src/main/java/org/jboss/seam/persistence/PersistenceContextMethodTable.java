@@ -0,0 +1,226 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.jboss.seam.persistence.hibernate.ManagedHibernateSession;
+
+/**
+ * Dispatch table for seam managed persistence context proxies. Every method
+ * of the proxy interfaces is classified once when the proxy class is built,
+ * so the proxy handlers can dispatch a call with a single map lookup instead
+ * of comparing method names and parameter types on every invocation.
+ * <p/>
+ * The table is immutable once constructed and may be shared between all
+ * handlers for the same proxy class.
+ */
+public class PersistenceContextMethodTable {
+
+    public enum MethodType {
+        /**
+         * {@link ManagedPersistenceContext#changeFlushMode(FlushModeType)}
+         */
+        CHANGE_FLUSH_MODE,
+        /**
+         * {@link ManagedPersistenceContext#getBeanType()}
+         */
+        GET_BEAN_TYPE,
+        /**
+         * {@link ManagedPersistenceContext#getQualifiers()}
+         */
+        GET_QUALIFIERS,
+        /**
+         * {@link ManagedPersistenceContext#getProvider()}
+         */
+        GET_PROVIDER,
+        /**
+         * {@link ManagedPersistenceContext#closeAfterTransaction()}
+         */
+        CLOSE_AFTER_TRANSACTION,
+        /**
+         * {@link ManagedPersistenceContext#setBatchSize(int)}
+         */
+        SET_BATCH_SIZE,
+        /**
+         * {@link ManagedPersistenceContext#getBatchSize()}
+         */
+        GET_BATCH_SIZE,
+        /**
+         * {@link ManagedPersistenceContext#iterate(javax.persistence.Query, int)},
+         * {@link ManagedPersistenceContext#iterate(Class, int)} and
+         * {@link org.jboss.seam.persistence.hibernate.ManagedHibernateSession#iterate(org.hibernate.Query, int)}
+         */
+        ITERATE,
+        /**
+         * getTransaction(), which must not join the current transaction
+         */
+        GET_TRANSACTION,
+        /**
+         * setFlushMode(), which must not join the current transaction as it is
+         * called during SMPC initialisation, and joining the transaction may
+         * result in an infinite loop
+         */
+        SET_FLUSH_MODE,
+        /**
+         * flush(), which is timed if metrics are enabled
+         */
+        FLUSH,
+        /**
+         * persist() and save() calls, which are counted in batch mode and
+         * rejected by read only persistence contexts
+         */
+        PERSIST,
+        /**
+         * find() and getReference(), whose result is tracked by bounded
+         * persistence contexts. These always go to the primary database, so
+         * the entities they return are managed by the persistence context.
+         */
+        FIND,
+        /**
+         * merge() and remove(), which are rejected by read only persistence
+         * contexts. Their entity argument is tracked by bounded persistence
+         * contexts. This also includes the Hibernate session methods
+         * update(), saveOrUpdate(), delete() and replicate().
+         */
+        WRITE,
+        /**
+         * refresh() and lock(), whose entity argument is tracked by bounded
+         * persistence contexts
+         */
+        ENTITY_ARGUMENT,
+        /**
+         * setProperty(), which may change state that cannot be reset before
+         * the entity manager is pooled
+         */
+        SET_PROPERTY,
+        /**
+         * createQuery calls that take the query string as their first
+         * argument, and may therefore contain EL
+         */
+        CREATE_QUERY,
+        /**
+         * createNamedQuery(), createNativeQuery() and createQuery() with a
+         * criteria query, which may be routed to a read replica
+         */
+        QUERY,
+        /**
+         * everything else, which is passed straight through to the delegate
+         */
+        PASSTHROUGH
+    }
+
+    private final Map<Method, MethodType> methods = new HashMap<Method, MethodType>();
+
+    public PersistenceContextMethodTable(Class<?>... interfaces) {
+        for (Method method : Object.class.getMethods()) {
+            methods.put(method, MethodType.PASSTHROUGH);
+        }
+        for (Class<?> i : interfaces) {
+            for (Method method : i.getMethods()) {
+                methods.put(method, classify(method));
+            }
+        }
+    }
+
+    /**
+     * Returns the type of the given method. Methods that were not known when
+     * the table was built are classified on the fly.
+     */
+    public MethodType getMethodType(Method method) {
+        MethodType type = methods.get(method);
+        if (type == null) {
+            return classify(method);
+        }
+        return type;
+    }
+
+    static MethodType classify(Method method) {
+        String name = method.getName();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (method.getDeclaringClass() == ManagedPersistenceContext.class) {
+            if ("changeFlushMode".equals(name) && parameterTypes.length == 1 && parameterTypes[0].equals(FlushModeType.class)) {
+                return MethodType.CHANGE_FLUSH_MODE;
+            }
+            if ("setBatchSize".equals(name) && parameterTypes.length == 1 && parameterTypes[0].equals(int.class)) {
+                return MethodType.SET_BATCH_SIZE;
+            }
+            if ("iterate".equals(name)) {
+                return MethodType.ITERATE;
+            }
+            if (parameterTypes.length == 0) {
+                if ("getBatchSize".equals(name)) {
+                    return MethodType.GET_BATCH_SIZE;
+                }
+                if ("getBeanType".equals(name)) {
+                    return MethodType.GET_BEAN_TYPE;
+                }
+                if ("getQualifiers".equals(name)) {
+                    return MethodType.GET_QUALIFIERS;
+                }
+                if ("getProvider".equals(name)) {
+                    return MethodType.GET_PROVIDER;
+                }
+                if ("closeAfterTransaction".equals(name)) {
+                    return MethodType.CLOSE_AFTER_TRANSACTION;
+                }
+            }
+        }
+        if (method.getDeclaringClass() == ManagedHibernateSession.class && "iterate".equals(name)) {
+            return MethodType.ITERATE;
+        }
+        if ("getTransaction".equals(name) && parameterTypes.length == 0) {
+            return MethodType.GET_TRANSACTION;
+        }
+        if ("setFlushMode".equals(name)) {
+            return MethodType.SET_FLUSH_MODE;
+        }
+        if ("flush".equals(name) && parameterTypes.length == 0) {
+            return MethodType.FLUSH;
+        }
+        if ("persist".equals(name) || "save".equals(name)) {
+            return MethodType.PERSIST;
+        }
+        if (method.getDeclaringClass() == EntityManager.class) {
+            if ("find".equals(name) || "getReference".equals(name)) {
+                return MethodType.FIND;
+            }
+            if ("merge".equals(name) || "remove".equals(name)) {
+                return MethodType.WRITE;
+            }
+            if ("refresh".equals(name) || "lock".equals(name)) {
+                return MethodType.ENTITY_ARGUMENT;
+            }
+            if ("setProperty".equals(name)) {
+                return MethodType.SET_PROPERTY;
+            }
+        } else if ("merge".equals(name) || "update".equals(name) || "saveOrUpdate".equals(name) || "delete".equals(name) || "replicate".equals(name)) {
+            return MethodType.WRITE;
+        }
+        if ("createQuery".equals(name) && parameterTypes.length > 0 && parameterTypes[0].equals(String.class)) {
+            return MethodType.CREATE_QUERY;
+        }
+        if (method.getDeclaringClass() == EntityManager.class && ("createQuery".equals(name) || "createNamedQuery".equals(name) || "createNativeQuery".equals(name))) {
+            return MethodType.QUERY;
+        }
+        return MethodType.PASSTHROUGH;
+    }
+}
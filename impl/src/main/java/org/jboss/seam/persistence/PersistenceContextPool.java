@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.solder.logging.Logger;
+
+/**
+ * A bounded pool of idle entity managers or sessions for the request scoped
+ * persistence contexts with a given set of qualifiers.
+ * <p/>
+ * The pool is split into stripes, chosen by the current thread, so
+ * concurrent requests rarely contend on the same queue. Borrowing and
+ * releasing never block: if the stripe is empty a new persistence context is
+ * created, if it is full the released one is closed.
+ * <p/>
+ * Pooling is enabled by setting the
+ * <code>org.jboss.seam.persistence.poolSize</code> system property to the
+ * maximum number of idle persistence contexts per set of qualifiers.
+ */
+public abstract class PersistenceContextPool<T> {
+
+    public static final String PROPERTY_NAME = "org.jboss.seam.persistence.poolSize";
+
+    private static final Logger log = Logger.getLogger(PersistenceContextPool.class);
+
+    private final String name;
+
+    private final ArrayBlockingQueue<T>[] stripes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public PersistenceContextPool(String name, int size) {
+        this.name = name;
+        int stripeCount = Math.max(1, Math.min(size, Runtime.getRuntime().availableProcessors()));
+        int stripeSize = (size + stripeCount - 1) / stripeCount;
+        stripes = new ArrayBlockingQueue[stripeCount];
+        for (int i = 0; i < stripeCount; ++i) {
+            stripes[i] = new ArrayBlockingQueue<T>(stripeSize);
+        }
+    }
+
+    /**
+     * Returns the configured pool size, or 0 if pooling is disabled
+     */
+    public static int getConfiguredSize() {
+        String value = System.getProperty(PROPERTY_NAME);
+        if (value == null || value.length() == 0) {
+            return 0;
+        }
+        return Math.max(0, Integer.parseInt(value.trim()));
+    }
+
+    /**
+     * Returns an idle persistence context, or null if there are none
+     */
+    public T borrow() {
+        T result = getStripe().poll();
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Returns a persistence context to the pool. If it cannot be reused, or
+     * the pool is full, this returns false and the caller must close it.
+     */
+    public boolean release(T persistenceContext) {
+        try {
+            if (!isReusable(persistenceContext)) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            reset(persistenceContext);
+        } catch (RuntimeException e) {
+            log.debug("Not returning persistence context to pool " + name, e);
+            rejected.incrementAndGet();
+            return false;
+        }
+        return getStripe().offer(persistenceContext);
+    }
+
+    /**
+     * Counts a persistence context that its owner closed rather than released,
+     * because it had state that {@link #reset(Object)} cannot undo
+     */
+    public void reject() {
+        rejected.incrementAndGet();
+    }
+
+    /**
+     * Closes all idle persistence contexts, and logs the pool statistics
+     */
+    public void close() {
+        for (ArrayBlockingQueue<T> stripe : stripes) {
+            T persistenceContext;
+            while ((persistenceContext = stripe.poll()) != null) {
+                try {
+                    close(persistenceContext);
+                } catch (RuntimeException e) {
+                    log.debug("Could not close pooled persistence context", e);
+                }
+            }
+        }
+        log.info("Persistence context pool " + name + ": " + hits.get() + " hits, " + misses.get() + " misses, " + rejected.get() + " rejected, hit rate " + Math.round(getHitRate() * 100) + "%");
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of persistence contexts that were not pooled because
+     * they were not clean
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long total = hits + misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns true if the persistence context is open and has no active
+     * transaction
+     */
+    protected abstract boolean isReusable(T persistenceContext);
+
+    /**
+     * Resets a persistence context before it is pooled, so the next borrower
+     * sees the same state as in a new persistence context. If the state cannot
+     * be reset this should throw an exception, and the persistence context is
+     * closed instead.
+     */
+    protected abstract void reset(T persistenceContext);
+
+    protected abstract void close(T persistenceContext);
+
+    private ArrayBlockingQueue<T> getStripe() {
+        long id = Thread.currentThread().getId();
+        return stripes[(int) (id % stripes.length)];
+    }
+}
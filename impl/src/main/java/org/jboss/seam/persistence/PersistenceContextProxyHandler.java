@@ -17,12 +17,17 @@
 package org.jboss.seam.persistence;
 
 import org.jboss.solder.logging.Logger;
+import org.jboss.seam.persistence.util.BeanManagerUtils;
 import org.jboss.seam.persistence.util.InstanceResolver;
 import org.jboss.solder.el.Expressions;
 
+import javax.el.ELContext;
 import javax.enterprise.inject.spi.BeanManager;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 
@@ -34,10 +39,16 @@ import java.lang.reflect.Method;
 public class PersistenceContextProxyHandler implements Serializable {
     private static final long serialVersionUID = -6539267789786229774L;
 
-    private final EntityManager delegate;
+    /**
+     * this is written by {@link #writeObject(ObjectOutputStream)}, as
+     * subclasses may restore it some other way
+     */
+    private transient EntityManager delegate;
 
     private transient Expressions expressions;
 
+    private transient ParsedQueryCache parsedQueryCache;
+
     private final BeanManager beanManager;
 
     private static final Logger log = Logger.getLogger(PersistenceContextProxyHandler.class);
@@ -53,27 +64,88 @@ public class PersistenceContextProxyHandler implements Serializable {
             return handleCreateQueryWithString(method, args);
         }
 
-        return method.invoke(delegate, args);
+        return method.invoke(getEntityManager(), args);
     }
 
     protected Object handleCreateQueryWithString(Method method, Object[] args) throws Throwable {
-        if (args[0] == null) {
-            return method.invoke(delegate, args);
+        return createQuery((String) args[0], args.length > 1 ? (Class<?>) args[1] : null);
+    }
+
+    /**
+     * Creates a query on the query entity manager, replacing any EL in it with
+     * parameters. This backs both {@link EntityManager#createQuery(String)}
+     * and {@link EntityManager#createQuery(String, Class)}, whether they are
+     * called through a JDK proxy or directly.
+     *
+     * @param resultClass the result type of a typed query, or null
+     */
+    Query createQuery(String ejbql, Class<?> resultClass) {
+        EntityManager entityManager = getQueryEntityManager();
+        if (ejbql == null || ejbql.indexOf("#{") == -1) {
+            return resultClass == null ? entityManager.createQuery(ejbql) : entityManager.createQuery(ejbql, resultClass);
         }
-        String ejbql = (String) args[0];
-        if (ejbql.indexOf('#') > 0) {
-            Expressions expressions = getExpressions();
-            QueryParser qp = new QueryParser(expressions, ejbql);
-            Object[] newArgs = args.clone();
-            newArgs[0] = qp.getEjbql();
-            Query query = (Query) method.invoke(delegate, newArgs);
-            for (int i = 0; i < qp.getParameterValues().size(); i++) {
-                query.setParameter(QueryParser.getParameterName(i), qp.getParameterValues().get(i));
-            }
-            return query;
-        } else {
-            return method.invoke(delegate, args);
+        ParsedQuery parsed = getParsedQueryCache().getParsedQuery(ejbql, getExpressions());
+        Query query = resultClass == null ? entityManager.createQuery(parsed.getEjbql()) : entityManager.createQuery(parsed.getEjbql(), resultClass);
+        setParameters(query, parsed);
+        queryRewritten(query);
+        return query;
+    }
+
+    /**
+     * Returns the entity manager that calls are passed through to
+     */
+    protected EntityManager getEntityManager() {
+        return delegate;
+    }
+
+    /**
+     * Returns the entity manager that queries are created on
+     */
+    protected EntityManager getQueryEntityManager() {
+        return getEntityManager();
+    }
+
+    protected void setEntityManager(EntityManager delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns the entity manager to serialize with this handler, or null if
+     * the subclass restores it some other way
+     */
+    protected EntityManager getSerializedEntityManager() {
+        return delegate;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(getSerializedEntityManager());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        delegate = (EntityManager) in.readObject();
+    }
+
+    /**
+     * Called whenever a query containing EL has been rewritten, after its
+     * parameters have been set
+     */
+    protected void queryRewritten(Query query) {
+    }
+
+    private void setParameters(Query query, ParsedQuery parsed) {
+        ELContext context = getExpressions().getELContext();
+        for (int i = 0; i < parsed.getParameterCount(); i++) {
+            query.setParameter(parsed.getParameterName(i), parsed.getParameterValue(i, context));
+        }
+    }
+
+    private ParsedQueryCache getParsedQueryCache() {
+        if (parsedQueryCache == null) {
+            parsedQueryCache = BeanManagerUtils.getContextualInstance(beanManager, ParsedQueryCache.class);
         }
+        return parsedQueryCache;
     }
 
     private Expressions getExpressions() {
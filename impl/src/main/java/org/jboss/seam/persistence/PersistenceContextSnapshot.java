@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import org.jboss.solder.logging.Logger;
+
+/**
+ * The serialized form of a persistence context in
+ * {@link PassivationMode#SNAPSHOT} mode. This holds the identifier and
+ * version of every managed entity, grouped by entity type, instead of the
+ * entities themselves.
+ */
+class PersistenceContextSnapshot implements Serializable {
+
+    private static final long serialVersionUID = -2978214395621870374L;
+
+    /**
+     * the maximum number of entities reloaded by a single query
+     */
+    private static final int LOAD_BATCH_SIZE = 100;
+
+    private static final Logger log = Logger.getLogger(PersistenceContextSnapshot.class);
+
+    private final Map<Class<?>, List<EntitySnapshot>> entities;
+
+    private PersistenceContextSnapshot(Map<Class<?>, List<EntitySnapshot>> entities) {
+        this.entities = entities;
+    }
+
+    /**
+     * Takes a snapshot of the persistence context
+     *
+     * @return the snapshot, or null if the persistence context has unflushed
+     *         changes or its entities cannot be identified, in which case it
+     *         must be serialized in full
+     */
+    static PersistenceContextSnapshot create(EntityManager entityManager, SeamPersistenceProvider provider) {
+        ExtendedPersistenceProvider extendedProvider = PersistenceProviderCache.getExtendedProvider(provider);
+        if (extendedProvider.getManagedEntityCount(entityManager) < 0 || provider.isDirty(entityManager)) {
+            return null;
+        }
+        Map<Class<?>, List<EntitySnapshot>> entities = new LinkedHashMap<Class<?>, List<EntitySnapshot>>();
+        for (Object entity : extendedProvider.getManagedEntities(entityManager)) {
+            Object id = provider.getId(entity, entityManager);
+            Object version = provider.getVersion(entity, entityManager);
+            if (!(id instanceof Serializable) || (version != null && !(version instanceof Serializable))) {
+                return null;
+            }
+            Class<?> type = provider.getBeanClass(entity);
+            List<EntitySnapshot> snapshots = entities.get(type);
+            if (snapshots == null) {
+                snapshots = new ArrayList<EntitySnapshot>();
+                entities.put(type, snapshots);
+            }
+            snapshots.add(new EntitySnapshot(id, version));
+        }
+        return new PersistenceContextSnapshot(entities);
+    }
+
+    /**
+     * Reloads the entities into the entity manager and checks that their
+     * versions have not changed. All entities that still exist are reloaded
+     * even if a check fails.
+     *
+     * @throws OptimisticLockException if an entity has been modified or
+     *                                 deleted since the snapshot was taken
+     */
+    void restore(EntityManager entityManager, SeamPersistenceProvider provider) {
+        OptimisticLockException failure = null;
+        for (Map.Entry<Class<?>, List<EntitySnapshot>> entry : entities.entrySet()) {
+            Class<?> type = entry.getKey();
+            List<EntitySnapshot> snapshots = entry.getValue();
+            load(entityManager, type, snapshots);
+            for (EntitySnapshot snapshot : snapshots) {
+                // this is served from the persistence context if it was loaded above
+                Object entity = entityManager.find(type, snapshot.id);
+                try {
+                    if (entity == null) {
+                        throw new OptimisticLockException("Entity " + type.getName() + " with id " + snapshot.id + " was deleted while the persistence context was passivated");
+                    }
+                    if (snapshot.version != null) {
+                        provider.checkVersion(entity, entityManager, snapshot.version, provider.getVersion(entity, entityManager));
+                    }
+                } catch (OptimisticLockException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Loads entities with an id query, so that restoring a large persistence
+     * context does not need a round trip per entity
+     */
+    private static <T> void load(EntityManager entityManager, Class<T> type, List<EntitySnapshot> snapshots) {
+        String idAttribute;
+        try {
+            idAttribute = KeysetQueryIterator.getIdAttribute(entityManager, type);
+        } catch (IllegalArgumentException e) {
+            log.debug("Not batch loading " + type.getName() + " as it does not have a single id attribute");
+            return;
+        }
+        for (int start = 0; start < snapshots.size(); start += LOAD_BATCH_SIZE) {
+            List<EntitySnapshot> batch = snapshots.subList(start, Math.min(start + LOAD_BATCH_SIZE, snapshots.size()));
+            List<Object> ids = new ArrayList<Object>(batch.size());
+            for (EntitySnapshot snapshot : batch) {
+                ids.add(snapshot.id);
+            }
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<T> query = builder.createQuery(type);
+            Root<T> root = query.from(type);
+            query.where(root.get(idAttribute).in(ids));
+            entityManager.createQuery(query).getResultList();
+        }
+    }
+
+    int getEntityCount() {
+        int count = 0;
+        for (List<EntitySnapshot> snapshots : entities.values()) {
+            count += snapshots.size();
+        }
+        return count;
+    }
+
+    private static final class EntitySnapshot implements Serializable {
+
+        private static final long serialVersionUID = 4417830925473560213L;
+
+        private final Object id;
+
+        private final Object version;
+
+        EntitySnapshot(Object id, Object version) {
+            this.id = id;
+            this.version = version;
+        }
+    }
+}
@@ -16,17 +16,24 @@
  */
 package org.jboss.seam.persistence;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.enterprise.context.ConversationScoped;
-import javax.enterprise.inject.Any;
-import javax.enterprise.inject.Instance;
+import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 
+import org.jboss.seam.persistence.util.BeanManagerUtils;
 import org.jboss.solder.logging.Logger;
 
 /**
@@ -44,9 +51,29 @@ public class PersistenceContextsImpl implements Serializable, PersistenceContext
     private static final Logger log = Logger.getLogger(PersistenceContextsImpl.class);
 
     /**
-     * persistences contexts are referenced by their qualifiers
+     * persistences contexts are referenced by the id of their interned
+     * {@link PersistenceContextDefintition}. The ids are only valid within
+     * this application, so this is serialized as a list of definitions
+     * instead.
      */
-    private final Set<PersistenceContextDefintition> set = new HashSet<PersistenceContextDefintition>();
+    private transient BitSet touched = new BitSet();
+
+    /**
+     * the touched definitions read by {@link #readObject(ObjectInputStream)},
+     * which are interned when the touched set is next used
+     */
+    private transient List<PersistenceContextDefintition> deserializedTouched;
+
+    private transient PersistenceContextDefinitionRegistry registry;
+
+    /**
+     * the touched persistence contexts, indexed by definition id. These are
+     * weakly referenced, so persistence contexts whose scope has ended are not
+     * kept alive if they could not be untouched. They are not serialized,
+     * deserialized persistence contexts touch this again when they are next
+     * used.
+     */
+    private transient WeakReference<ManagedPersistenceContext>[] contexts = newContexts(0);
 
     private FlushModeType currentFlushMode;
 
@@ -55,8 +82,7 @@ public class PersistenceContextsImpl implements Serializable, PersistenceContext
     private FlushModeType defaultFlushMode;
 
     @Inject
-    @Any
-    private Instance<ManagedPersistenceContext> persistenceContexts;
+    private BeanManager beanManager;
 
     @Inject
     public void create(FlushModeManager manager) {
@@ -75,15 +101,134 @@ public class PersistenceContextsImpl implements Serializable, PersistenceContext
     }
 
     public Set<PersistenceContextDefintition> getTouchedContexts() {
-        return Collections.unmodifiableSet(set);
+        Set<PersistenceContextDefintition> result = new HashSet<PersistenceContextDefintition>();
+        BitSet touched = getTouched();
+        PersistenceContextDefinitionRegistry registry = getRegistry();
+        for (int i = touched.nextSetBit(0); i >= 0; i = touched.nextSetBit(i + 1)) {
+            PersistenceContextDefintition definition = registry.getDefinition(i);
+            if (definition != null) {
+                result.add(definition);
+            }
+        }
+        return Collections.unmodifiableSet(result);
     }
 
     public void touch(ManagedPersistenceContext context) {
-        set.add(new PersistenceContextDefintition(context.getQualifiers(), context.getBeanType()));
+        touch(getDefinition(context).getId(), context);
+    }
+
+    /**
+     * Marks a persistence context as touched without looking up its
+     * definition
+     *
+     * @param definitionId the id that the
+     *                     {@link ManagedPersistenceContextExtension#getDefinitionRegistry()}
+     *                     assigned to the persistence context's definition
+     */
+    public void touch(int definitionId, ManagedPersistenceContext context) {
+        BitSet touched = getTouched();
+        if (definitionId >= contexts.length) {
+            WeakReference<ManagedPersistenceContext>[] newContexts = newContexts(Math.max(definitionId + 1, contexts.length * 2));
+            System.arraycopy(contexts, 0, newContexts, 0, contexts.length);
+            contexts = newContexts;
+        }
+        boolean restored = touched.get(definitionId) && getContext(definitionId) == null;
+        contexts[definitionId] = new WeakReference<ManagedPersistenceContext>(context);
+        touched.set(definitionId);
+        if (restored && currentFlushMode != null) {
+            // the persistence context was touched before this conversation
+            // was passivated, so it may have missed flush mode changes
+            try {
+                context.changeFlushMode(currentFlushMode);
+            } catch (UnsupportedOperationException uoe) {
+                log.warn(uoe.getMessage());
+            }
+        }
     }
 
     public void untouch(ManagedPersistenceContext context) {
-        set.remove(new PersistenceContextDefintition(context.getQualifiers(), context.getBeanType()));
+        untouch(getDefinition(context).getId(), context);
+    }
+
+    /**
+     * Removes a persistence context from the touched set without looking up
+     * its definition
+     *
+     * @see #touch(int, ManagedPersistenceContext)
+     */
+    public void untouch(int definitionId, ManagedPersistenceContext context) {
+        if (definitionId < contexts.length) {
+            contexts[definitionId] = null;
+        }
+        getTouched().clear(definitionId);
+    }
+
+    private ManagedPersistenceContext getContext(int definitionId) {
+        if (definitionId >= contexts.length || contexts[definitionId] == null) {
+            return null;
+        }
+        return contexts[definitionId].get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WeakReference<ManagedPersistenceContext>[] newContexts(int size) {
+        return new WeakReference[size];
+    }
+
+    /**
+     * Returns the touched set, interning the definitions that were read when
+     * this was deserialized
+     */
+    private BitSet getTouched() {
+        if (deserializedTouched != null) {
+            PersistenceContextDefinitionRegistry registry = getRegistry();
+            for (PersistenceContextDefintition definition : deserializedTouched) {
+                touched.set(registry.getDefinition(definition.getQualifiers(), definition.getType()).getId());
+            }
+            deserializedTouched = null;
+        }
+        return touched;
+    }
+
+    private PersistenceContextDefinitionRegistry getRegistry() {
+        if (registry == null) {
+            ManagedPersistenceContextExtension extension = BeanManagerUtils.getContextualInstance(beanManager, ManagedPersistenceContextExtension.class);
+            if (extension == null) {
+                throw new IllegalStateException("Could not find ManagedPersistenceContextExtension");
+            }
+            registry = extension.getDefinitionRegistry();
+        }
+        return registry;
+    }
+
+    /**
+     * Returns the touched persistence contexts that are still live. Contexts
+     * that have been garbage collected are removed from the touched set.
+     * Contexts that were touched before this was deserialized are skipped
+     * rather than created, they pick up the current flush mode when they
+     * touch this again.
+     */
+    private List<ManagedPersistenceContext> getTouchedPersistenceContexts() {
+        BitSet touched = getTouched();
+        List<ManagedPersistenceContext> result = new ArrayList<ManagedPersistenceContext>(touched.cardinality());
+        for (int i = touched.nextSetBit(0); i >= 0; i = touched.nextSetBit(i + 1)) {
+            if (i >= contexts.length || contexts[i] == null) {
+                // not yet touched since deserialization
+                continue;
+            }
+            ManagedPersistenceContext context = contexts[i].get();
+            if (context == null) {
+                contexts[i] = null;
+                touched.clear(i);
+            } else {
+                result.add(context);
+            }
+        }
+        return result;
+    }
+
+    private PersistenceContextDefintition getDefinition(ManagedPersistenceContext context) {
+        return getRegistry().getDefinition(context.getQualifiers(), context.getBeanType());
     }
 
     public void changeFlushMode(FlushModeType flushMode) {
@@ -100,30 +245,26 @@ public class PersistenceContextsImpl implements Serializable, PersistenceContext
     }
 
     private void changeFlushModes() {
-        for (ManagedPersistenceContext context : persistenceContexts) {
-            if (set.contains(new PersistenceContextDefintition(context.getQualifiers(), context.getBeanType()))) {
-                try {
-                    context.changeFlushMode(currentFlushMode);
-                } catch (UnsupportedOperationException uoe) {
-                    // we won't be nasty and throw and exception, but we'll log a
-                    // warning to the developer
-                    log.warn(uoe.getMessage());
-                }
+        for (ManagedPersistenceContext context : getTouchedPersistenceContexts()) {
+            try {
+                context.changeFlushMode(currentFlushMode);
+            } catch (UnsupportedOperationException uoe) {
+                // we won't be nasty and throw and exception, but we'll log a
+                // warning to the developer
+                log.warn(uoe.getMessage());
             }
         }
     }
 
     public void beforeRender() {
-        for (ManagedPersistenceContext context : persistenceContexts) {
-            if (set.contains(new PersistenceContextDefintition(context.getQualifiers(), context.getBeanType()))) {
-                try {
-                    currentFlushMode = context.getProvider().getRenderFlushMode();
-                    context.changeFlushMode(currentFlushMode);
-                } catch (UnsupportedOperationException uoe) {
-                    // we won't be nasty and throw and exception, but we'll log a
-                    // warning to the developer
-                    log.warn(uoe.getMessage());
-                }
+        for (ManagedPersistenceContext context : getTouchedPersistenceContexts()) {
+            try {
+                currentFlushMode = context.getProvider().getRenderFlushMode();
+                context.changeFlushMode(currentFlushMode);
+            } catch (UnsupportedOperationException uoe) {
+                // we won't be nasty and throw and exception, but we'll log a
+                // warning to the developer
+                log.warn(uoe.getMessage());
             }
         }
     }
@@ -132,13 +273,52 @@ public class PersistenceContextsImpl implements Serializable, PersistenceContext
         restoreFlushMode();
     }
 
-    public static class PersistenceContextDefintition {
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(new ArrayList<PersistenceContextDefintition>(getTouchedContexts()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        touched = new BitSet();
+        contexts = newContexts(0);
+        // the registry is looked up through the bean manager, which may not
+        // be usable yet, so the definitions are interned later
+        deserializedTouched = (List<PersistenceContextDefintition>) in.readObject();
+    }
+
+    /**
+     * Identifies a persistence context by its qualifiers and bean type.
+     * Definitions obtained from the {@link PersistenceContextDefinitionRegistry}
+     * are interned and have a unique id, definitions created through the public
+     * constructor or by deserialization have an id of -1.
+     */
+    public static class PersistenceContextDefintition implements Serializable {
+        private static final long serialVersionUID = 4125467251334218327L;
+
         private final Set<Annotation> qualifiers;
         private final Class<?> type;
+        private final transient int id;
+        private final transient int hash;
 
         public PersistenceContextDefintition(Set<Annotation> qualifiers, Class<?> type) {
-            this.qualifiers = new HashSet<Annotation>(qualifiers);
+            this(qualifiers, type, -1);
+        }
+
+        PersistenceContextDefintition(Set<Annotation> qualifiers, Class<?> type, int id) {
+            this.qualifiers = Collections.unmodifiableSet(new HashSet<Annotation>(qualifiers));
             this.type = type;
+            this.id = id;
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + this.qualifiers.hashCode();
+            result = prime * result + ((type == null) ? 0 : type.hashCode());
+            this.hash = result;
+        }
+
+        public int getId() {
+            return id;
         }
 
         public Set<Annotation> getQualifiers() {
@@ -151,11 +331,7 @@ public class PersistenceContextsImpl implements Serializable, PersistenceContext
 
         @Override
         public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + ((qualifiers == null) ? 0 : qualifiers.hashCode());
-            result = prime * result + ((type == null) ? 0 : type.hashCode());
-            return result;
+            return hash;
         }
 
         @Override
@@ -167,6 +343,8 @@ public class PersistenceContextsImpl implements Serializable, PersistenceContext
             if (getClass() != obj.getClass())
                 return false;
             PersistenceContextDefintition other = (PersistenceContextDefintition) obj;
+            if (hash != other.hash)
+                return false;
             if (qualifiers == null) {
                 if (other.qualifiers != null)
                     return false;
@@ -180,6 +358,15 @@ public class PersistenceContextsImpl implements Serializable, PersistenceContext
             return true;
         }
 
+        /**
+         * The id and hash are transient, so they are recalculated. The
+         * definition is not interned, as the registry belongs to the
+         * application rather than the JVM.
+         */
+        private Object readResolve() {
+            return new PersistenceContextDefintition(qualifiers, type);
+        }
+
     }
 
 }
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Caches the {@link SeamPersistenceProvider} that is used for each
+ * {@link EntityManagerFactory}. The cache is shared by all SMPC lifecycles and
+ * is keyed by the identity of the factory that actually created the entity
+ * manager, rather than by any client proxy it was obtained through, so a
+ * qualifier that is later backed by a different factory will have its
+ * provider resolved again.
+ * <p/>
+ * Factories must be removed with {@link #remove(EntityManagerFactory)} when
+ * they are closed. Factories that are closed by the container without being
+ * removed are dropped when the next factory is added.
+ * <p/>
+ * JPA 2.0 does not allow a factory to be unwrapped, so the provider is
+ * resolved from the first entity manager that is created by a factory.
+ */
+public class PersistenceProviderCache {
+
+    private static final ConcurrentMap<FactoryKey, SeamPersistenceProvider> providers = new ConcurrentHashMap<FactoryKey, SeamPersistenceProvider>();
+
+    private static final ExtendedPersistenceProvider DEFAULT_PROVIDER = new DefaultPersistenceProvider();
+
+    private PersistenceProviderCache() {
+    }
+
+    /**
+     * Returns the provider for the factory that created the given entity
+     * manager, resolving it from the candidate providers if it has not been
+     * resolved yet
+     *
+     * @param em         the entity manager
+     * @param candidates the providers to consider, in order of precedence
+     */
+    public static SeamPersistenceProvider getProvider(EntityManager em, List<SeamPersistenceProvider> candidates) {
+        EntityManagerFactory emf = em.getEntityManagerFactory();
+        FactoryKey key = new FactoryKey(emf);
+        SeamPersistenceProvider provider = providers.get(key);
+        if (provider != null) {
+            return provider;
+        }
+        for (SeamPersistenceProvider i : candidates) {
+            if (i.isCorrectProvider(em)) {
+                provider = i;
+                break;
+            }
+        }
+        if (provider == null) {
+            throw new RuntimeException("No SeamPersistenceProvider found for EntityManagerFactory " + emf);
+        }
+        removeClosedFactories();
+        SeamPersistenceProvider existing = providers.putIfAbsent(key, provider);
+        return existing == null ? provider : existing;
+    }
+
+    /**
+     * Returns the optional capabilities of a provider. Providers that do not
+     * implement {@link ExtendedPersistenceProvider} get the portable JPA
+     * implementation of the {@link DefaultPersistenceProvider}.
+     */
+    public static ExtendedPersistenceProvider getExtendedProvider(SeamPersistenceProvider provider) {
+        if (provider instanceof ExtendedPersistenceProvider) {
+            return (ExtendedPersistenceProvider) provider;
+        }
+        return DEFAULT_PROVIDER;
+    }
+
+    /**
+     * Removes the cached provider for a factory, this should be called when
+     * the factory is closed
+     */
+    public static void remove(EntityManagerFactory emf) {
+        providers.remove(new FactoryKey(emf));
+    }
+
+    private static void removeClosedFactories() {
+        Iterator<FactoryKey> it = providers.keySet().iterator();
+        while (it.hasNext()) {
+            if (!it.next().isOpen()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Compares factories by identity, as a factory's equals method may be
+     * slow or may not be usable once it has been closed
+     */
+    static class FactoryKey {
+        private final EntityManagerFactory factory;
+
+        FactoryKey(EntityManagerFactory factory) {
+            this.factory = factory;
+        }
+
+        boolean isOpen() {
+            return factory.isOpen();
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(factory);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof FactoryKey && ((FactoryKey) obj).factory == factory;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+/**
+ * Determines how seam managed persistence contexts are proxied. The strategy
+ * is chosen at deployment time with the
+ * <code>org.jboss.seam.persistence.proxyStrategy</code> system property.
+ */
+public enum ProxyStrategy {
+    /**
+     * A {@link java.lang.reflect.Proxy} that dispatches every call
+     * reflectively. This is the default, and the fallback if the
+     * {@link #DIRECT} strategy cannot be used.
+     */
+    JDK,
+    /**
+     * A {@link DelegatingManagedPersistenceContext} that calls the delegate
+     * directly. If Hibernate Search is present this is a
+     * {@link DelegatingFullTextManagedPersistenceContext}. This is not possible
+     * if a {@link SeamPersistenceProvider} requires any other additional
+     * interfaces on the persistence context.
+     */
+    DIRECT;
+
+    public static final String PROPERTY_NAME = "org.jboss.seam.persistence.proxyStrategy";
+
+    /**
+     * Returns the strategy configured through system properties, or
+     * {@link #JDK} if none has been configured
+     *
+     * @throws IllegalArgumentException if the configured strategy is unknown
+     */
+    public static ProxyStrategy getConfiguredStrategy() {
+        String value = System.getProperty(PROPERTY_NAME);
+        if (value == null || value.length() == 0) {
+            return JDK;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
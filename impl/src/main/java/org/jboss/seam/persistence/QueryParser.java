@@ -18,14 +18,18 @@ package org.jboss.seam.persistence;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
 
 import org.jboss.solder.el.Expressions;
 
 /**
  * Parses hql queries and replaces el with named parameters
+ * <p/>
+ * The query is scanned in a single pass. <code>#{</code> inside a query
+ * string literal is not treated as EL, and braces and string literals inside
+ * an expression are matched, so an expression ends at its own closing brace.
  */
 public class QueryParser {
+    private final List<String> parameterExpressions = new ArrayList<String>();
     private final List<Object> parameterValues = new ArrayList<Object>();
     private final StringBuilder ejbqlBuilder;
 
@@ -37,6 +41,18 @@ public class QueryParser {
         return ejbqlBuilder.toString();
     }
 
+    /**
+     * @return the EL expressions that were replaced by named parameters, in
+     *         parameter order
+     */
+    public List<String> getParameterExpressions() {
+        return parameterExpressions;
+    }
+
+    /**
+     * @return the values of the parameter expressions. This is empty if the
+     *         parser was not given an {@link Expressions} instance
+     */
     public List<Object> getParameterValues() {
         return parameterValues;
     }
@@ -46,24 +62,76 @@ public class QueryParser {
     }
 
     public QueryParser(Expressions expressions, String ejbql, int startingParameterNumber) {
-        StringTokenizer tokens = new StringTokenizer(ejbql, "#}", true);
-        ejbqlBuilder = new StringBuilder(ejbql.length());
-        while (tokens.hasMoreTokens()) {
-            String token = tokens.nextToken();
-            if ("#".equals(token) && tokens.hasMoreTokens()) {
-                String expressionToken = tokens.nextToken();
+        this(ejbql, startingParameterNumber);
+        for (String expression : parameterExpressions) {
+            parameterValues.add(expressions.evaluateValueExpression(expression));
+        }
+    }
+
+    /**
+     * Parses the query without evaluating the EL expressions it contains
+     */
+    public QueryParser(String ejbql) {
+        this(ejbql, 0);
+    }
 
-                if (!expressionToken.startsWith("{") || !tokens.hasMoreTokens()) {
-                    ejbqlBuilder.append(token).append(expressionToken);
-                } else {
-                    String expression = token + expressionToken + tokens.nextToken();
-                    ejbqlBuilder.append(':').append(getParameterName(startingParameterNumber + parameterValues.size()));
-                    parameterValues.add(expressions.evaluateValueExpression(expression));
+    /**
+     * Parses the query without evaluating the EL expressions it contains
+     */
+    public QueryParser(String ejbql, int startingParameterNumber) {
+        int length = ejbql.length();
+        ejbqlBuilder = new StringBuilder(length);
+        // the start of the query text that has not been copied yet
+        int copyFrom = 0;
+        boolean inStringLiteral = false;
+        for (int i = 0; i < length; i++) {
+            char c = ejbql.charAt(i);
+            if (c == '\'') {
+                // an escaped quote ('') simply ends and restarts the literal
+                inStringLiteral = !inStringLiteral;
+            } else if (c == '#' && !inStringLiteral && i + 1 < length && ejbql.charAt(i + 1) == '{') {
+                int end = findExpressionEnd(ejbql, i + 2);
+                if (end == -1) {
+                    // unterminated expression, leave the rest of the query alone
+                    break;
+                }
+                ejbqlBuilder.append(ejbql, copyFrom, i);
+                ejbqlBuilder.append(":el").append(startingParameterNumber + parameterExpressions.size() + 1);
+                parameterExpressions.add(ejbql.substring(i, end + 1));
+                copyFrom = end + 1;
+                i = end;
+            }
+        }
+        ejbqlBuilder.append(ejbql, copyFrom, length);
+    }
+
+    /**
+     * Returns the index of the brace that closes the expression starting at
+     * <code>start</code>, taking nested braces and EL string literals into
+     * account, or -1 if the expression is not terminated
+     */
+    private static int findExpressionEnd(String ejbql, int start) {
+        int depth = 1;
+        char quote = 0;
+        for (int i = start; i < ejbql.length(); i++) {
+            char c = ejbql.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                if (--depth == 0) {
+                    return i;
                 }
-            } else {
-                ejbqlBuilder.append(token);
             }
         }
+        return -1;
     }
 
 }
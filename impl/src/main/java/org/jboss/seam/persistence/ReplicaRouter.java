@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Chooses the replica that a seam managed persistence context reads from,
+ * and opens and closes the replica entity managers. One router is shared by
+ * all persistence contexts with the same qualifiers.
+ *
+ * @see ReadReplicas
+ */
+class ReplicaRouter implements Serializable {
+
+    private static final long serialVersionUID = 6120993426585374121L;
+
+    private final Annotation[][] qualifiers;
+
+    private final ReplicaSelection selection;
+
+    private final BeanManager manager;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * the number of open entity managers for each replica
+     */
+    private final AtomicInteger[] outstanding;
+
+    private transient volatile EntityManagerFactory[] factories;
+
+    /**
+     * @param qualifiers the qualifiers of each replica's entity manager
+     *                   factory
+     */
+    ReplicaRouter(Annotation[][] qualifiers, ReplicaSelection selection, BeanManager manager) {
+        if (qualifiers.length == 0) {
+            throw new IllegalArgumentException("At least one replica is required");
+        }
+        this.qualifiers = qualifiers;
+        this.selection = selection;
+        this.manager = manager;
+        this.outstanding = new AtomicInteger[qualifiers.length];
+        for (int i = 0; i < outstanding.length; ++i) {
+            outstanding[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Chooses a replica
+     *
+     * @return the index of the replica
+     */
+    int select() {
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % qualifiers.length;
+        if (selection == ReplicaSelection.ROUND_ROBIN) {
+            return start;
+        }
+        // start at the round robin position so that ties are spread evenly
+        int selected = start;
+        int fewest = outstanding[start].get();
+        for (int i = 1; i < qualifiers.length; ++i) {
+            int index = (start + i) % qualifiers.length;
+            int count = outstanding[index].get();
+            if (count < fewest) {
+                selected = index;
+                fewest = count;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Opens a read only entity manager for the replica
+     */
+    EntityManager open(int replica, SeamPersistenceProvider provider) {
+        EntityManager entityManager = getFactories()[replica].createEntityManager();
+        outstanding[replica].incrementAndGet();
+        PersistenceProviderCache.getExtendedProvider(provider).setReadOnly(entityManager);
+        return entityManager;
+    }
+
+    void close(int replica, EntityManager entityManager) {
+        outstanding[replica].decrementAndGet();
+        if (entityManager.isOpen()) {
+            entityManager.close();
+        }
+    }
+
+    private EntityManagerFactory[] getFactories() {
+        EntityManagerFactory[] factories = this.factories;
+        if (factories == null) {
+            factories = new EntityManagerFactory[qualifiers.length];
+            for (int i = 0; i < qualifiers.length; ++i) {
+                Bean<EntityManagerFactory> bean = (Bean) manager.resolve(manager.getBeans(EntityManagerFactory.class, qualifiers[i]));
+                if (bean == null) {
+                    throw new RuntimeException("Could not find replica EntityManagerFactory bean with qualifiers " + Arrays.toString(qualifiers[i]));
+                }
+                CreationalContext<EntityManagerFactory> ctx = manager.createCreationalContext(bean);
+                factories[i] = (EntityManagerFactory) manager.getReference(bean, EntityManagerFactory.class, ctx);
+            }
+            // racing threads resolve the same contextual references
+            this.factories = factories;
+        }
+        return factories;
+    }
+}
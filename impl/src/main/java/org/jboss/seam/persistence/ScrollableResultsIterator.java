@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+/**
+ * {@link QueryIterator} that scrolls forward through Hibernate
+ * {@link ScrollableResults}, so rows are streamed from an open database cursor
+ * instead of being loaded all at once
+ */
+public class ScrollableResultsIterator<T> extends EvictingQueryIterator<T> {
+
+    private final Session session;
+
+    private final ScrollableResults results;
+
+    public ScrollableResultsIterator(Session session, ScrollableResults results, int evictInterval) {
+        super(evictInterval);
+        this.session = session;
+        this.results = results;
+    }
+
+    @Override
+    protected boolean advance() {
+        return results.next();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected T current() {
+        Object[] row = results.get();
+        if (row.length == 1) {
+            return (T) row[0];
+        }
+        return (T) row;
+    }
+
+    @Override
+    protected void evict(Object entity) {
+        if (session.contains(entity)) {
+            session.evict(entity);
+        }
+    }
+
+    @Override
+    protected void release() {
+        results.close();
+    }
+}
@@ -29,9 +29,11 @@ import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Alternative;
 import javax.enterprise.inject.spi.AfterBeanDiscovery;
+import javax.enterprise.inject.spi.AfterDeploymentValidation;
 import javax.enterprise.inject.spi.AnnotatedField;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.Extension;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.enterprise.inject.spi.ProcessProducer;
@@ -39,7 +41,6 @@ import javax.enterprise.inject.spi.Producer;
 import javax.inject.Qualifier;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
-import javax.persistence.Persistence;
 import javax.persistence.PersistenceContext;
 
 import org.jboss.solder.logging.Logger;
@@ -75,6 +76,8 @@ public class SePersistenceContextExtension implements Extension {
 
     private Boolean bootstrapRequired;
 
+    private final EntityManagerFactoryBootstrap bootstrap = new EntityManagerFactoryBootstrap();
+
     /**
      * For @PersistenceContext producer fields, make a bean for the EMF, then
      * wrap the producer CDI creates, to get the EM from the EMF bean we made
@@ -133,10 +136,11 @@ public class SePersistenceContextExtension implements Extension {
                     }
 
                     public EntityManagerFactory create(CreationalContext<EntityManagerFactory> ctx) {
-                        return Persistence.createEntityManagerFactory(unitName);
+                        return bootstrap.getEntityManagerFactory(unitName);
                     }
 
                     public void destroy(EntityManagerFactory emf, CreationalContext<EntityManagerFactory> ctx) {
+                        PersistenceProviderCache.remove(emf);
                         emf.close();
                         ctx.release();
                     }
@@ -170,6 +174,7 @@ public class SePersistenceContextExtension implements Extension {
                         return false;
                     }
                 });
+                bootstrap.addPersistenceUnit(unitName);
 
             } else {
                 throw new RuntimeException("There can only be one producer per persistence unit");
@@ -208,4 +213,17 @@ public class SePersistenceContextExtension implements Extension {
         }
     }
 
+    /**
+     * Start building the persistence units if eager bootstrap is enabled
+     */
+    void afterDeploymentValidation(@Observes AfterDeploymentValidation adv) {
+        if (EntityManagerFactoryBootstrap.isEagerBootstrapEnabled()) {
+            bootstrap.start();
+        }
+    }
+
+    void beforeShutdown(@Observes BeforeShutdown bs) {
+        bootstrap.shutdown();
+    }
+
 }
@@ -0,0 +1,388 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.inject.spi.BeanManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.jboss.seam.persistence.metrics.PersistenceMetrics;
+import org.jboss.seam.persistence.metrics.PersistenceMetricsFactory;
+import org.jboss.seam.persistence.metrics.TenantMetrics;
+import org.jboss.seam.persistence.util.BeanManagerUtils;
+import org.jboss.solder.logging.Logger;
+
+/**
+ * Caches the entity manager factories of the tenants of a {@link MultiTenant}
+ * seam managed persistence context.
+ * <p/>
+ * Persistence contexts lease the factory of their tenant while they are open,
+ * and a factory is only closed once nothing holds a lease on it. Factories are
+ * built on the threads shared with {@link EntityManagerFactoryBootstrap}, and a
+ * tenant's factory is only built once however many persistence contexts ask
+ * for it at the same time.
+ */
+public class TenantEntityManagerFactoryCache {
+
+    private static final Logger log = Logger.getLogger(TenantEntityManagerFactoryCache.class);
+
+    private final Set<Annotation> qualifiers;
+
+    private final String unitName;
+
+    /**
+     * properties that every tenant's factory is built with
+     */
+    private final Map<String, Object> properties;
+
+    private final int maxTenants;
+
+    private final long maxIdleMillis;
+
+    private final BeanManager manager;
+
+    private final ConcurrentMap<String, TenantFactory> factories = new ConcurrentHashMap<String, TenantFactory>();
+
+    private volatile TenantResolver resolver;
+
+    private volatile PersistenceMetrics metrics;
+
+    /**
+     * evicts idle factories, or null if they are only evicted to make room for
+     * other tenants
+     */
+    private ScheduledThreadPoolExecutor evictionExecutor;
+
+    private boolean closed;
+
+    /**
+     * @param maxIdleMillis the time after which unused factories are closed,
+     *                      or 0 if they are only closed to make room for
+     *                      other tenants
+     */
+    public TenantEntityManagerFactoryCache(Set<Annotation> qualifiers, String unitName, Map<String, Object> properties, int maxTenants, long maxIdleMillis, BeanManager manager) {
+        if (maxTenants < 1) {
+            throw new IllegalArgumentException("At least one tenant must be cached for persistence context with qualifiers " + qualifiers);
+        }
+        this.qualifiers = new HashSet<Annotation>(qualifiers);
+        this.unitName = unitName;
+        this.properties = properties;
+        this.maxTenants = maxTenants;
+        this.maxIdleMillis = maxIdleMillis;
+        this.manager = manager;
+    }
+
+    Set<Annotation> getQualifiers() {
+        return qualifiers;
+    }
+
+    /**
+     * Returns the tenant of the current request
+     */
+    String getCurrentTenant() {
+        String tenant = getResolver().getCurrentTenant();
+        if (tenant == null) {
+            throw new IllegalStateException("TenantResolver returned no tenant for persistence context with qualifiers " + qualifiers);
+        }
+        return tenant;
+    }
+
+    /**
+     * Leases the factory of the given tenant, waiting for it to be built if
+     * necessary. The factory is not closed until the lease is given back with
+     * {@link #release(TenantFactory)}.
+     */
+    public TenantFactory acquire(String tenant) {
+        for (; ; ) {
+            TenantFactory factory = factories.get(tenant);
+            boolean created = false;
+            if (factory == null) {
+                // the resolver may need the request context, so this cannot
+                // be done by the thread that builds the factory
+                Map<String, Object> tenantProperties = new HashMap<String, Object>(properties);
+                Map<String, Object> resolved = getResolver().getProperties(tenant);
+                if (resolved != null) {
+                    tenantProperties.putAll(resolved);
+                }
+                TenantFactory newFactory = new TenantFactory(tenant, tenantProperties);
+                factory = factories.putIfAbsent(tenant, newFactory);
+                if (factory == null) {
+                    factory = newFactory;
+                    created = true;
+                }
+            }
+            if (!factory.lease()) {
+                // the factory was evicted after we looked it up
+                continue;
+            }
+            if (created) {
+                factory.metrics.tenantMissed();
+                build(factory);
+                evictIfRequired();
+            } else if (factory.task.isDone()) {
+                factory.metrics.tenantHit();
+            } else {
+                factory.metrics.tenantMissed();
+            }
+            try {
+                // fails if the factory could not be built
+                factory.task.getResult();
+                return factory;
+            } catch (RuntimeException e) {
+                // let the next persistence context try again
+                factory.release();
+                factories.remove(tenant, factory);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gives back a lease taken by {@link #acquire(String)}. The lease is given
+     * back to the factory that was acquired, rather than to whichever factory
+     * is now cached for its tenant, so a factory that was evicted and built
+     * again for the same tenant keeps its own leases.
+     */
+    public void release(TenantFactory factory) {
+        factory.release();
+    }
+
+    /**
+     * Closes the factories that have not been used for too long, and the least
+     * recently used factories if more than the maximum number of tenants are
+     * cached. Factories that are leased or still being built are left open.
+     */
+    public void evictIfRequired() {
+        long now = System.currentTimeMillis();
+        int excess = factories.size() - maxTenants;
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        for (TenantFactory factory : factories.values()) {
+            long lastUsed = factory.lastUsed;
+            if (maxIdleMillis > 0 && now - lastUsed > maxIdleMillis && evict(factory)) {
+                --excess;
+            } else if (excess > 0) {
+                candidates.add(new Candidate(factory, lastUsed));
+            }
+        }
+        if (excess > 0) {
+            Collections.sort(candidates);
+            for (Candidate candidate : candidates) {
+                if (excess <= 0) {
+                    break;
+                }
+                if (evict(candidate.factory)) {
+                    --excess;
+                }
+            }
+        }
+    }
+
+    private boolean evict(TenantFactory factory) {
+        if (!factory.closeIfUnused()) {
+            return false;
+        }
+        factories.remove(factory.tenant, factory);
+        factory.metrics.tenantEvicted();
+        getMetrics().releaseTenantMetrics(qualifiers, factory.tenant);
+        log.debug("Closing EntityManagerFactory of tenant " + factory.tenant + " for persistence context with qualifiers " + qualifiers);
+        closeFactory(factory);
+        return true;
+    }
+
+    /**
+     * Closes all factories, whether they are leased or not. This is called
+     * when the application shuts down.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (evictionExecutor != null) {
+                evictionExecutor.shutdownNow();
+                evictionExecutor = null;
+            }
+        }
+        for (TenantFactory factory : factories.values()) {
+            factories.remove(factory.tenant, factory);
+            // waits for factories that are being built, so they are not leaked
+            EntityManagerFactory emf = factory.task.abandon();
+            if (emf != null) {
+                closeFactory(factory, emf);
+            }
+        }
+    }
+
+    private static void closeFactory(TenantFactory factory) {
+        EntityManagerFactory emf;
+        try {
+            emf = factory.task.getResult();
+        } catch (RuntimeException e) {
+            // it was never built
+            return;
+        }
+        closeFactory(factory, emf);
+    }
+
+    private static void closeFactory(TenantFactory factory, EntityManagerFactory emf) {
+        PersistenceProviderCache.remove(emf);
+        try {
+            emf.close();
+        } catch (RuntimeException e) {
+            log.debug("Could not close EntityManagerFactory of tenant " + factory.tenant, e);
+        }
+    }
+
+    private PersistenceMetrics getMetrics() {
+        PersistenceMetrics result = metrics;
+        if (result == null) {
+            result = PersistenceMetricsFactory.getMetrics(manager);
+            metrics = result;
+        }
+        return result;
+    }
+
+    private TenantResolver getResolver() {
+        TenantResolver result = resolver;
+        if (result == null) {
+            result = BeanManagerUtils.getContextualInstance(manager, TenantResolver.class);
+            if (result == null) {
+                throw new RuntimeException("Could not find TenantResolver bean for multi tenant persistence context with qualifiers " + qualifiers);
+            }
+            resolver = result;
+        }
+        return result;
+    }
+
+    private synchronized void build(TenantFactory factory) {
+        if (closed) {
+            throw new IllegalStateException("Persistence context with qualifiers " + qualifiers + " has been shut down");
+        }
+        if (evictionExecutor == null && maxIdleMillis > 0) {
+            evictionExecutor = new ScheduledThreadPoolExecutor(1, new EntityManagerFactoryBootstrap.BootstrapThreadFactory());
+            long period = Math.max(1000, maxIdleMillis / 2);
+            evictionExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    evictIfRequired();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+        EntityManagerFactoryBootstrap.getExecutor().execute(factory.task.getRunnable());
+    }
+
+    /**
+     * the cached factory of a tenant, which is handed out to the persistence
+     * contexts that lease it
+     */
+    public final class TenantFactory {
+        private final String tenant;
+
+        private final EntityManagerFactoryTask task;
+
+        private final TenantMetrics metrics;
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private int leases;
+
+        private boolean closed;
+
+        TenantFactory(final String tenant, final Map<String, Object> properties) {
+            this.tenant = tenant;
+            this.metrics = getMetrics().getTenantMetrics(qualifiers, tenant);
+            // persistence.xml is located through the TCCL
+            final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            this.task = new EntityManagerFactoryTask(new Callable<EntityManagerFactory>() {
+                public EntityManagerFactory call() throws Exception {
+                    Thread.currentThread().setContextClassLoader(loader);
+                    try {
+                        long start = System.nanoTime();
+                        EntityManagerFactory emf = EntityManagerFactoryBootstrap.createEntityManagerFactory(unitName, properties);
+                        metrics.tenantBootstrapped(System.nanoTime() - start);
+                        return emf;
+                    } finally {
+                        Thread.currentThread().setContextClassLoader(null);
+                    }
+                }
+            });
+        }
+
+        public String getTenant() {
+            return tenant;
+        }
+
+        /**
+         * Returns the entity manager factory, which has already been built
+         * when this was returned by {@link TenantEntityManagerFactoryCache#acquire(String)}
+         */
+        public EntityManagerFactory getEntityManagerFactory() {
+            return task.getResult();
+        }
+
+        synchronized boolean lease() {
+            if (closed) {
+                return false;
+            }
+            ++leases;
+            lastUsed = System.currentTimeMillis();
+            return true;
+        }
+
+        synchronized void release() {
+            --leases;
+            lastUsed = System.currentTimeMillis();
+        }
+
+        synchronized boolean closeIfUnused() {
+            if (closed || leases > 0 || !task.isDone()) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+    }
+
+    /**
+     * a factory that may be evicted, with its last use fixed so that sorting is
+     * stable
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        private final TenantFactory factory;
+
+        private final long lastUsed;
+
+        Candidate(TenantFactory factory, long lastUsed) {
+            this.factory = factory;
+            this.lastUsed = lastUsed;
+        }
+
+        public int compareTo(Candidate other) {
+            return lastUsed < other.lastUsed ? -1 : (lastUsed == other.lastUsed ? 0 : 1);
+        }
+    }
+}
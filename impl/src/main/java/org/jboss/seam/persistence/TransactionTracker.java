@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the transaction that is running on the current thread, so seam
+ * managed persistence contexts do not have to ask the transaction manager
+ * whether a transaction is active on every call.
+ * <p/>
+ * Each transaction that is begun is given a unique id. A persistence context
+ * that found no active transaction remembers the id that was current at the
+ * time, and only checks again once a new transaction has begun on the thread.
+ * <p/>
+ * This relies on every transaction being begun through
+ * {@link #transactionBegun()}, for example by enabling the
+ * {@link TransactionTrackingDecorator}, so it is disabled unless the
+ * <code>org.jboss.seam.persistence.trackTransactions</code> system property
+ * is set to true when the application is deployed. Transactions that are
+ * begun any other way, such as EJB container managed transactions, will not
+ * be joined when it is enabled.
+ */
+public final class TransactionTracker {
+
+    public static final String PROPERTY_NAME = "org.jboss.seam.persistence.trackTransactions";
+
+    /**
+     * the id of a persistence context that has not checked for a transaction
+     */
+    public static final long UNCHECKED = -1;
+
+    private static final AtomicLong transactionIds = new AtomicLong();
+
+    private static final ThreadLocal<long[]> currentTransactionId = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private TransactionTracker() {
+    }
+
+    /**
+     * Returns true if tracking is enabled through system properties. This is
+     * read when persistence contexts are registered, so that it applies to a
+     * whole deployment.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY_NAME);
+    }
+
+    /**
+     * Must be called after a transaction has been begun on the current thread
+     */
+    public static void transactionBegun() {
+        currentTransactionId.get()[0] = transactionIds.incrementAndGet();
+    }
+
+    /**
+     * Should be called after the transaction on the current thread has
+     * completed
+     */
+    public static void transactionCompleted() {
+        currentTransactionId.get()[0] = 0;
+    }
+
+    /**
+     * Returns the id of the last transaction that was begun on this thread, or
+     * 0 if there is none
+     */
+    public static long getCurrentTransactionId() {
+        return currentTransactionId.get()[0];
+    }
+}
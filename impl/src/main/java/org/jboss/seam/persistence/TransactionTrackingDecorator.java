@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence;
+
+import javax.decorator.Decorator;
+import javax.decorator.Delegate;
+import javax.enterprise.inject.Any;
+import javax.inject.Inject;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+
+import org.jboss.seam.transaction.SeamTransaction;
+
+/**
+ * Reports transactions that are begun and completed through a
+ * {@link SeamTransaction} to the {@link TransactionTracker}. It must be enabled
+ * in beans.xml:
+ * <p/>
+ * <pre>
+ * &lt;decorators&gt;
+ *    &lt;class&gt;org.jboss.seam.persistence.TransactionTrackingDecorator&lt;/class&gt;
+ * &lt;/decorators&gt;
+ * </pre>
+ * <p/>
+ * Decorators are only enabled for the archive whose beans.xml lists them. In
+ * a non-flat deployment, such as an EAR, it must be enabled in the beans.xml
+ * of every module that begins transactions, otherwise those transactions are
+ * not tracked and persistence contexts will not join them.
+ */
+@Decorator
+public abstract class TransactionTrackingDecorator implements SeamTransaction {
+
+    @Inject
+    @Delegate
+    @Any
+    private SeamTransaction delegate;
+
+    public void begin() throws NotSupportedException, SystemException {
+        delegate.begin();
+        TransactionTracker.transactionBegun();
+    }
+
+    public void commit() throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SecurityException, IllegalStateException, SystemException {
+        try {
+            delegate.commit();
+        } finally {
+            TransactionTracker.transactionCompleted();
+        }
+    }
+
+    public void rollback() throws IllegalStateException, SecurityException, SystemException {
+        try {
+            delegate.rollback();
+        } finally {
+            TransactionTracker.transactionCompleted();
+        }
+    }
+}
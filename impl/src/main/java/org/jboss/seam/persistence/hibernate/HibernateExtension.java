@@ -18,6 +18,7 @@ package org.jboss.seam.persistence.hibernate;
 
 import javax.enterprise.inject.spi.AfterBeanDiscovery;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
 
 interface HibernateExtension {
@@ -25,4 +26,6 @@ interface HibernateExtension {
 
     public abstract void afterBeanDiscovery(AfterBeanDiscovery event);
 
+    public abstract void beforeShutdown(BeforeShutdown event);
+
 }
\ No newline at end of file
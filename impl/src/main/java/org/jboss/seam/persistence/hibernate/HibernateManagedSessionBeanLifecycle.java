@@ -27,13 +27,20 @@ import javax.enterprise.context.ContextNotActiveException;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.persistence.EntityManager;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.jboss.solder.logging.Logger;
 import org.jboss.seam.persistence.HibernatePersistenceProvider;
 import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.ManagedPersistenceContextExtension;
+import org.jboss.seam.persistence.PersistenceContextMethodTable;
 import org.jboss.seam.persistence.PersistenceContexts;
+import org.jboss.seam.persistence.PersistenceContextsImpl;
+import org.jboss.seam.persistence.metrics.PersistenceContextMetrics;
+import org.jboss.seam.persistence.metrics.PersistenceMetricsFactory;
+import org.jboss.seam.persistence.util.BeanManagerUtils;
 import org.jboss.solder.bean.ContextualLifecycle;
 import org.jboss.solder.literal.DefaultLiteral;
 
@@ -49,6 +56,8 @@ public class HibernateManagedSessionBeanLifecycle implements ContextualLifecycle
 
     private final Constructor<?> proxyConstructor;
 
+    private final PersistenceContextMethodTable methodTable;
+
     private HibernatePersistenceProvider persistenceProvider = new HibernatePersistenceProvider();
 
     private PersistenceContexts persistenceContexts;
@@ -59,10 +68,40 @@ public class HibernateManagedSessionBeanLifecycle implements ContextualLifecycle
 
     private SessionFactory sessionFactory;
 
+    private final SessionPool pool;
+
+    private int batchSize;
+
+    private boolean cacheQueries;
+
+    private String queryCacheRegion;
+
+    private boolean readOnly;
+
+    private boolean trackTransactions;
+
+    /**
+     * the id of this session's definition in the
+     * {@link org.jboss.seam.persistence.PersistenceContextDefinitionRegistry},
+     * which is looked up when the first session is created
+     */
+    private volatile int definitionId = -1;
+
+    private volatile PersistenceContextMetrics metrics;
+
     public HibernateManagedSessionBeanLifecycle(Set<Annotation> qualifiers, ClassLoader loader, BeanManager manager) {
+        this(qualifiers, loader, manager, null);
+    }
+
+    /**
+     * @param pool the pool to recycle sessions through, or null if they should
+     *             not be pooled
+     */
+    public HibernateManagedSessionBeanLifecycle(Set<Annotation> qualifiers, ClassLoader loader, BeanManager manager, SessionPool pool) {
         this.manager = manager;
+        this.pool = pool;
         Set<Class<?>> additionalinterfaces = persistenceProvider.getAdditionalSessionInterfaces();
-        Class<?>[] interfaces = new Class[additionalinterfaces.size() + 3];
+        Class<?>[] interfaces = new Class[additionalinterfaces.size() + 4];
         int count = 0;
         for (Class<?> i : additionalinterfaces) {
             interfaces[count++] = i;
@@ -71,7 +110,9 @@ public class HibernateManagedSessionBeanLifecycle implements ContextualLifecycle
         interfaces[count++] = Session.class;
         interfaces[count++] = Serializable.class;
         interfaces[count++] = ManagedPersistenceContext.class;
+        interfaces[count++] = ManagedHibernateSession.class;
         proxyClass = Proxy.getProxyClass(loader, interfaces);
+        methodTable = new PersistenceContextMethodTable(interfaces);
         try {
             proxyConstructor = proxyClass.getConstructor(InvocationHandler.class);
         } catch (Exception e) {
@@ -84,18 +125,72 @@ public class HibernateManagedSessionBeanLifecycle implements ContextualLifecycle
         }
     }
 
+    /**
+     * Enables batch mode for all persistence contexts created by this
+     * lifecycle
+     *
+     * @see ManagedPersistenceContext#setBatchSize(int)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Makes all sessions created by this lifecycle read only
+     *
+     * @see org.jboss.seam.persistence.ReadOnly
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @see org.jboss.seam.persistence.TransactionTracker
+     */
+    public void setTrackTransactions(boolean trackTransactions) {
+        this.trackTransactions = trackTransactions;
+    }
+
+    /**
+     * Marks queries containing EL as cacheable for all persistence contexts
+     * created by this lifecycle
+     *
+     * @param region the query cache region, or null for the default region
+     * @see org.jboss.seam.persistence.CacheableQueries
+     */
+    public void setQueryCache(boolean cacheQueries, String region) {
+        this.cacheQueries = cacheQueries;
+        this.queryCacheRegion = region;
+    }
+
     /**
      * creates the proxy
      */
     public Session create(Bean<Session> bean, CreationalContext<Session> arg0) {
         try {
-            SessionFactory sf = getSessionFactory();
-            Session session = sf.openSession();
-            session = (Session) persistenceProvider.proxyDelegate(session);
-            HibernateManagedSessionProxyHandler handler = new HibernateManagedSessionProxyHandler(session, manager, bean.getQualifiers(), persistenceProvider, manager);
+            Session session = pool == null ? null : pool.borrow();
+            if (session == null) {
+                SessionFactory sf = getSessionFactory();
+                session = sf.openSession();
+                session = (Session) persistenceProvider.proxyDelegate(session);
+            }
+            HibernateManagedSessionProxyHandler handler = new HibernateManagedSessionProxyHandler(session, manager, bean.getQualifiers(), persistenceProvider, manager, methodTable);
+            handler.setPool(pool);
+            handler.setBatchSize(batchSize);
+            handler.setQueryCache(cacheQueries, queryCacheRegion);
+            handler.setReadOnly(readOnly);
+            handler.setTrackTransactions(trackTransactions);
+            handler.setDefinitionId(getDefinitionId(bean));
+            handler.setMetrics(getMetrics(bean));
+            if (readOnly) {
+                HibernatePersistenceProvider.setReadOnly(session);
+            }
             Session proxy = (Session) proxyConstructor.newInstance(handler);
+            handler.getMetrics().persistenceContextCreated();
             try {
-                ((ManagedPersistenceContext) proxy).changeFlushMode(getPersistenceContexts().getFlushMode());
+                // this is not counted as a flush mode change
+                handler.touch((ManagedPersistenceContext) proxy);
+                handler.changeFushMode(getPersistenceContexts().getFlushMode());
             } catch (ContextNotActiveException e) {
 
             }
@@ -111,12 +206,38 @@ public class HibernateManagedSessionBeanLifecycle implements ContextualLifecycle
         ((ManagedPersistenceContext) session).closeAfterTransaction();
         arg1.release();
         try {
-            getPersistenceContexts().untouch((ManagedPersistenceContext) session);
+            PersistenceContexts persistenceContexts = getPersistenceContexts();
+            if (definitionId >= 0 && persistenceContexts instanceof PersistenceContextsImpl) {
+                ((PersistenceContextsImpl) persistenceContexts).untouch(definitionId, (ManagedPersistenceContext) session);
+            } else {
+                persistenceContexts.untouch((ManagedPersistenceContext) session);
+            }
         } catch (ContextNotActiveException e) {
             log.debug("Could not untouch PersistenceContext as conversation scope not active");
         }
     }
 
+    /**
+     * managed sessions report EntityManager as their bean type, so they are
+     * registered under it
+     */
+    private int getDefinitionId(Bean<Session> bean) {
+        if (definitionId < 0) {
+            ManagedPersistenceContextExtension extension = BeanManagerUtils.getContextualInstance(manager, ManagedPersistenceContextExtension.class);
+            if (extension != null) {
+                definitionId = extension.getDefinitionRegistry().register(bean.getQualifiers(), EntityManager.class).getId();
+            }
+        }
+        return definitionId;
+    }
+
+    private PersistenceContextMetrics getMetrics(Bean<Session> bean) {
+        if (metrics == null) {
+            metrics = PersistenceMetricsFactory.getMetrics(manager).getPersistenceContextMetrics(bean.getQualifiers(), EntityManager.class);
+        }
+        return metrics;
+    }
+
     private PersistenceContexts getPersistenceContexts() {
         if (persistenceContexts == null) {
             Bean<PersistenceContexts> bean = (Bean) manager.resolve(manager.getBeans(PersistenceContexts.class, DefaultLiteral.INSTANCE));
@@ -19,6 +19,7 @@ package org.jboss.seam.persistence.hibernate;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.spi.AfterBeanDiscovery;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.Extension;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
 
@@ -64,4 +65,10 @@ public class HibernateManagedSessionExtension implements Extension {
             delegate.afterBeanDiscovery(event);
         }
     }
+
+    public void beforeShutdown(@Observes BeforeShutdown event) {
+        if (enabled) {
+            delegate.beforeShutdown(event);
+        }
+    }
 }
@@ -17,10 +17,13 @@
 package org.jboss.seam.persistence.hibernate;
 
 import java.lang.annotation.Annotation;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.enterprise.context.Dependent;
+import javax.enterprise.context.RequestScoped;
 import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Alternative;
 import javax.enterprise.inject.Produces;
@@ -31,6 +34,7 @@ import javax.enterprise.inject.spi.AnnotatedMember;
 import javax.enterprise.inject.spi.AnnotatedMethod;
 import javax.enterprise.inject.spi.Bean;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
 
 import org.hibernate.Session;
@@ -38,6 +42,11 @@ import org.hibernate.SessionFactory;
 import org.jboss.solder.logging.Logger;
 import org.jboss.seam.persistence.HibernatePersistenceProvider;
 import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.BatchMode;
+import org.jboss.seam.persistence.CacheableQueries;
+import org.jboss.seam.persistence.PersistenceContextPool;
+import org.jboss.seam.persistence.ReadOnly;
+import org.jboss.seam.persistence.TransactionTracker;
 import org.jboss.solder.bean.BeanBuilder;
 import org.jboss.solder.core.ExtensionManaged;
 import org.jboss.solder.core.Veto;
@@ -58,6 +67,8 @@ import org.jboss.solder.reflection.annotated.Annotateds;
 public class HibernateManagedSessionExtensionImpl implements HibernateExtension {
     Set<Bean<?>> beans = new HashSet<Bean<?>>();
 
+    private final List<SessionPool> pools = new ArrayList<SessionPool>();
+
     private static final Logger log = Logger.getLogger(HibernateManagedSessionExtensionImpl.class);
 
     private static final HibernatePersistenceProvider persistenceProvider = new HibernatePersistenceProvider();
@@ -100,7 +111,24 @@ public class HibernateManagedSessionExtensionImpl implements HibernateExtension
 
     private void registerManagedSession(Set<Annotation> qualifiers, Class<? extends Annotation> scope, boolean alternative, BeanManager manager, ClassLoader loader, AnnotatedMember<?> member, Class<?> declaringClass) {
         // create the new bean to be registered later
-        HibernateManagedSessionBeanLifecycle lifecycle = new HibernateManagedSessionBeanLifecycle(qualifiers, loader, manager);
+        SessionPool pool = null;
+        int poolSize = PersistenceContextPool.getConfiguredSize();
+        if (poolSize > 0 && scope == RequestScoped.class) {
+            pool = new SessionPool(qualifiers.toString(), poolSize);
+            pools.add(pool);
+        }
+        HibernateManagedSessionBeanLifecycle lifecycle = new HibernateManagedSessionBeanLifecycle(qualifiers, loader, manager, pool);
+        BatchMode batchMode = member.getAnnotation(BatchMode.class);
+        if (batchMode != null) {
+            lifecycle.setBatchSize(batchMode.value());
+        }
+        lifecycle.setReadOnly(member.isAnnotationPresent(ReadOnly.class));
+        lifecycle.setTrackTransactions(TransactionTracker.isEnabled());
+        CacheableQueries cacheableQueries = member.getAnnotation(CacheableQueries.class);
+        if (cacheableQueries != null) {
+            String region = cacheableQueries.region();
+            lifecycle.setQueryCache(true, region.length() == 0 ? null : region);
+        }
         AnnotatedTypeBuilder<Session> typeBuilder = new AnnotatedTypeBuilder().setJavaClass(Session.class);
         BeanBuilder<Session> builder = new BeanBuilder<Session>(manager).readFromType(typeBuilder.create());
         builder.qualifiers(qualifiers);
@@ -132,4 +160,10 @@ public class HibernateManagedSessionExtensionImpl implements HibernateExtension
 
     }
 
+    public void beforeShutdown(@Observes BeforeShutdown event) {
+        for (SessionPool pool : pools) {
+            pool.close();
+        }
+    }
+
 }
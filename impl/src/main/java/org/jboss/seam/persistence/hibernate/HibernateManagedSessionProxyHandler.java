@@ -23,8 +23,14 @@ import org.jboss.solder.logging.Logger;
 import org.jboss.seam.persistence.FlushModeType;
 import org.jboss.seam.persistence.HibernatePersistenceProvider;
 import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.PersistenceContextMethodTable;
 import org.jboss.seam.persistence.PersistenceContexts;
-import org.jboss.seam.persistence.QueryParser;
+import org.jboss.seam.persistence.PersistenceContextsImpl;
+import org.jboss.seam.persistence.TransactionTracker;
+import org.jboss.seam.persistence.metrics.PersistenceContextMetrics;
+import org.jboss.seam.persistence.metrics.PersistenceMetricsFactory;
+import org.jboss.seam.persistence.ParsedQuery;
+import org.jboss.seam.persistence.ParsedQueryCache;
 import org.jboss.seam.persistence.util.BeanManagerUtils;
 import org.jboss.seam.persistence.util.InstanceResolver;
 import org.jboss.solder.el.Expressions;
@@ -32,6 +38,7 @@ import org.jboss.solder.literal.DefaultLiteral;
 import org.jboss.seam.transaction.SeamTransaction;
 import org.jboss.seam.transaction.literal.DefaultTransactionLiteral;
 
+import javax.el.ELContext;
 import javax.enterprise.context.ContextNotActiveException;
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.inject.Instance;
@@ -57,7 +64,7 @@ import java.util.Set;
 public class HibernateManagedSessionProxyHandler implements InvocationHandler, Serializable, Synchronization {
     private static final long serialVersionUID = -6539267789786229774L;
 
-    private final Session delegate;
+    private Session delegate;
 
     private PersistenceContexts persistenceContexts;
 
@@ -67,10 +74,52 @@ public class HibernateManagedSessionProxyHandler implements InvocationHandler, S
 
     private final HibernatePersistenceProvider provider;
 
-    private boolean persistenceContextsTouched = false;
+    /**
+     * this is not serialized, so a deserialized persistence context touches
+     * the {@link PersistenceContexts} again when it is next used
+     */
+    private transient boolean persistenceContextsTouched = false;
+
+    /**
+     * the id of this session's definition, or -1 if it has to be looked up
+     * when the session is touched
+     */
+    private int definitionId = -1;
 
     private boolean closeOnTransactionCommit = false;
 
+    /**
+     * true once the session has been given back to the pool, after which it
+     * may belong to another persistence context
+     */
+    private boolean released;
+
+    /**
+     * the number of entities to save between flushes, or 0 if batch mode is
+     * disabled
+     */
+    private int batchSize;
+
+    /**
+     * entities saved since the last batch flush
+     */
+    private transient int unflushedEntities;
+
+    /**
+     * true if queries containing EL are marked cacheable
+     */
+    private boolean cacheQueries;
+
+    /**
+     * the query cache region, or null for the default region
+     */
+    private String queryCacheRegion;
+
+    /**
+     * true if writes are rejected
+     */
+    private boolean readOnly;
+
     static final Logger log = Logger.getLogger(HibernateManagedSessionProxyHandler.class);
 
     private final Instance<Expressions> expressionsInstance;
@@ -78,43 +127,144 @@ public class HibernateManagedSessionProxyHandler implements InvocationHandler, S
     private transient SeamTransaction seamTransaction;
     private transient boolean synchronizationRegistered;
 
+    /**
+     * the id of the transaction that was current the last time we found no
+     * active transaction, only used if the {@link TransactionTracker} is
+     * enabled
+     */
+    private transient long checkedTransactionId = TransactionTracker.UNCHECKED;
+
+    /**
+     * true if transactions are only looked for once a new one has begun on
+     * the current thread
+     */
+    private boolean trackTransactions;
+
+    private transient PersistenceContextMethodTable methodTable;
+
+    private transient PersistenceContextMetrics metrics;
+
+    private transient SessionPool pool;
+
+    /**
+     * creation time for metrics, this is 0 after deserialization
+     */
+    private transient long createdAt;
+
+    private transient ParsedQueryCache parsedQueryCache;
+
     public HibernateManagedSessionProxyHandler(Session delegate, BeanManager beanManager, Set<Annotation> qualifiers, HibernatePersistenceProvider provider, BeanManager manager) {
-        this.qualifiers = qualifiers;
+        this(delegate, beanManager, qualifiers, provider, manager, null);
+    }
+
+    public HibernateManagedSessionProxyHandler(Session delegate, BeanManager beanManager, Set<Annotation> qualifiers, HibernatePersistenceProvider provider, BeanManager manager, PersistenceContextMethodTable methodTable) {
+        this.methodTable = methodTable;
+        this.qualifiers = Collections.unmodifiableSet(qualifiers);
         this.provider = provider;
         this.delegate = delegate;
         this.expressionsInstance = InstanceResolver.getInstance(Expressions.class, beanManager);
         this.manager = manager;
+        this.createdAt = System.nanoTime();
     }
 
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         touch((ManagedPersistenceContext) proxy);
-        if ("changeFlushMode".equals(method.getName()) && method.getParameterTypes().length == 1 && method.getParameterTypes()[0].equals(FlushModeType.class)) {
-            changeFushMode((FlushModeType) args[0]);
-            return null;
-        }
-        if ("getBeanType".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            return EntityManager.class;
-        }
-        if ("getQualifiers".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            return Collections.unmodifiableSet(qualifiers);
+        PersistenceContextMethodTable.MethodType methodType = getMethodTable(proxy).getMethodType(method);
+        if (released && usesSession(methodType)) {
+            throw new IllegalStateException("Persistence context with qualifiers " + qualifiers + " has been closed");
         }
-        if ("getProvider".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            return provider;
-        }
-        if ("closeAfterTransaction".equals(method.getName()) && method.getParameterTypes().length == 0) {
-            closeAfterTransaction();
-            return null;
-        }
-        if ("createQuery".equals(method.getName()) && method.getParameterTypes().length > 0 && method.getParameterTypes()[0].equals(String.class)) {
-            return handleCreateQueryWithString(method, args);
+        switch (methodType) {
+            case CHANGE_FLUSH_MODE:
+                changeFushMode((FlushModeType) args[0]);
+                getMetrics().flushModeChanged();
+                return null;
+            case GET_BEAN_TYPE:
+                return EntityManager.class;
+            case GET_QUALIFIERS:
+                return qualifiers;
+            case GET_PROVIDER:
+                return provider;
+            case CLOSE_AFTER_TRANSACTION:
+                closeAfterTransaction();
+                return null;
+            case SET_BATCH_SIZE:
+                setBatchSize((Integer) args[0]);
+                return null;
+            case GET_BATCH_SIZE:
+                return batchSize;
+            case ITERATE:
+                if (args[0] instanceof javax.persistence.Query) {
+                    throw new IllegalArgumentException("A managed Hibernate session cannot iterate over a JPA query, create the query with the session instead");
+                }
+                if (!synchronizationRegistered) {
+                    joinTransactionIfRequired();
+                }
+                getMetrics().invoked();
+                if (args[0] instanceof Class<?>) {
+                    return HibernatePersistenceProvider.iterate(delegate, (Class<?>) args[0], (Integer) args[1]);
+                }
+                return HibernatePersistenceProvider.iterate(delegate, (org.hibernate.Query) args[0], (Integer) args[1]);
+            case CREATE_QUERY:
+                return handleCreateQueryWithString(method, args);
+            case GET_TRANSACTION:
+            case SET_FLUSH_MODE:
+                return method.invoke(delegate, args);
+            case FLUSH:
+                if (!synchronizationRegistered) {
+                    joinTransactionIfRequired();
+                }
+                getMetrics().invoked();
+                if (getMetrics().isEnabled()) {
+                    long start = System.nanoTime();
+                    try {
+                        return method.invoke(delegate, args);
+                    } finally {
+                        getMetrics().flushed(System.nanoTime() - start);
+                    }
+                }
+                return method.invoke(delegate, args);
+            case PERSIST:
+                checkWritable();
+                if (!synchronizationRegistered) {
+                    joinTransactionIfRequired();
+                }
+                getMetrics().invoked();
+                Object result = method.invoke(delegate, args);
+                afterPersist();
+                return result;
+            case WRITE:
+                checkWritable();
+                // fall through
+            default:
+                if (!synchronizationRegistered) {
+                    joinTransactionIfRequired();
+                }
+                getMetrics().invoked();
+                return method.invoke(delegate, args);
         }
-        if (!"setFlushMode".equals(method.getName()) && !"getTransaction".equals(method.getName())) {
-            if (!synchronizationRegistered) {
-                joinTransaction();
-            }
+    }
+
+    private static boolean usesSession(PersistenceContextMethodTable.MethodType methodType) {
+        switch (methodType) {
+            case CHANGE_FLUSH_MODE:
+            case GET_BEAN_TYPE:
+            case GET_QUALIFIERS:
+            case GET_PROVIDER:
+            case CLOSE_AFTER_TRANSACTION:
+            case SET_BATCH_SIZE:
+            case GET_BATCH_SIZE:
+                return false;
+            default:
+                return true;
         }
+    }
 
-        return method.invoke(delegate, args);
+    private PersistenceContextMethodTable getMethodTable(Object proxy) {
+        if (methodTable == null) {
+            // the table is not serialized, so rebuild it after deserialization
+            methodTable = new PersistenceContextMethodTable(proxy.getClass().getInterfaces());
+        }
+        return methodTable;
     }
 
     protected Object handleCreateQueryWithString(Method method, Object[] args) throws Throwable {
@@ -122,13 +272,22 @@ public class HibernateManagedSessionProxyHandler implements InvocationHandler, S
             return method.invoke(delegate, args);
         }
         String ejbql = (String) args[0];
-        if (ejbql.indexOf('#') > 0) {
-            QueryParser qp = new QueryParser(expressionsInstance.get(), ejbql);
+        if (ejbql.indexOf("#{") != -1) {
+            Expressions expressions = expressionsInstance.get();
+            ParsedQuery parsed = getParsedQueryCache().getParsedQuery(ejbql, expressions);
+            getMetrics().queryRewritten();
             Object[] newArgs = args.clone();
-            newArgs[0] = qp.getEjbql();
+            newArgs[0] = parsed.getEjbql();
             Query query = (Query) method.invoke(delegate, newArgs);
-            for (int i = 0; i < qp.getParameterValues().size(); i++) {
-                query.setParameter(QueryParser.getParameterName(i), qp.getParameterValues().get(i));
+            ELContext context = expressions.getELContext();
+            for (int i = 0; i < parsed.getParameterCount(); i++) {
+                query.setParameter(parsed.getParameterName(i), parsed.getParameterValue(i, context));
+            }
+            if (cacheQueries) {
+                query.setCacheable(true);
+                if (queryCacheRegion != null) {
+                    query.setCacheRegion(queryCacheRegion);
+                }
             }
             return query;
         } else {
@@ -136,6 +295,29 @@ public class HibernateManagedSessionProxyHandler implements InvocationHandler, S
         }
     }
 
+    private ParsedQueryCache getParsedQueryCache() {
+        if (parsedQueryCache == null) {
+            parsedQueryCache = BeanManagerUtils.getContextualInstance(manager, ParsedQueryCache.class);
+        }
+        return parsedQueryCache;
+    }
+
+    private void joinTransactionIfRequired() throws SystemException {
+        if (trackTransactions) {
+            long currentTransactionId = TransactionTracker.getCurrentTransactionId();
+            if (currentTransactionId == checkedTransactionId) {
+                // no transaction has begun on this thread since the last check
+                return;
+            }
+            joinTransaction();
+            if (!synchronizationRegistered) {
+                checkedTransactionId = currentTransactionId;
+            }
+        } else {
+            joinTransaction();
+        }
+    }
+
     private void joinTransaction() throws SystemException {
         SeamTransaction transaction = getTransaction();
         if (transaction.isActive()) {
@@ -149,18 +331,128 @@ public class HibernateManagedSessionProxyHandler implements InvocationHandler, S
         }
     }
 
+    PersistenceContextMetrics getMetrics() {
+        if (metrics == null) {
+            // the metrics are not serialized
+            metrics = PersistenceMetricsFactory.getMetrics(manager).getPersistenceContextMetrics(qualifiers, EntityManager.class);
+        }
+        return metrics;
+    }
+
     private void closeAfterTransaction() throws SystemException {
+        if (createdAt != 0) {
+            getMetrics().persistenceContextDestroyed(System.nanoTime() - createdAt);
+        }
         SeamTransaction transaction = getTransaction();
         if (transaction.isActive()) {
             closeOnTransactionCommit = true;
         } else {
-            if (delegate.isOpen()) {
-                delegate.close();
+            if (!released && delegate.isOpen()) {
+                if (pool != null && pool.release(delegate)) {
+                    // drop the reference so the pooled session cannot be
+                    // reached through this persistence context
+                    released = true;
+                    delegate = null;
+                } else {
+                    delegate.close();
+                }
             }
         }
     }
 
-    private void changeFushMode(FlushModeType flushModeType) {
+    /**
+     * Counts a saved entity, and flushes and clears the persistence
+     * context if a full batch has been saved in the current transaction
+     */
+    private void afterPersist() throws SystemException {
+        if (batchSize > 0 && ++unflushedEntities >= batchSize && getTransaction().isActive()) {
+            PersistenceContextMetrics metrics = getMetrics();
+            long start = System.nanoTime();
+            delegate.flush();
+            metrics.flushed(System.nanoTime() - start);
+            delegate.clear();
+            metrics.batchFlushed(unflushedEntities);
+            unflushedEntities = 0;
+        }
+    }
+
+    void setBatchSize(int batchSize) {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("Batch size must not be negative: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        unflushedEntities = 0;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @see org.jboss.seam.persistence.TransactionTracker
+     */
+    void setTrackTransactions(boolean trackTransactions) {
+        this.trackTransactions = trackTransactions;
+    }
+
+    /**
+     * @see org.jboss.seam.persistence.ReadOnly
+     */
+    void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("Session with qualifiers " + qualifiers + " is read only");
+        }
+    }
+
+    /**
+     * @see org.jboss.seam.persistence.CacheableQueries
+     */
+    void setQueryCache(boolean cacheQueries, String queryCacheRegion) {
+        this.cacheQueries = cacheQueries;
+        this.queryCacheRegion = queryCacheRegion;
+    }
+
+    /**
+     * Sets the pool that the session is returned to when it is destroyed
+     * outside of a transaction
+     */
+    /**
+     * @param metrics the metrics to record to, or null to look them up when
+     *                they are first needed
+     */
+    void setMetrics(PersistenceContextMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @see org.jboss.seam.persistence.PersistenceContextDefinitionRegistry
+     */
+    void setDefinitionId(int definitionId) {
+        this.definitionId = definitionId;
+    }
+
+    void setPool(SessionPool pool) {
+        this.pool = pool;
+    }
+
+    void changeFushMode(FlushModeType flushModeType) {
+        if (released) {
+            // the session now belongs to another persistence context
+            return;
+        }
+        if (!delegate.isOpen()) {
+            // the persistence context has already been destroyed, but may
+            // still be referenced as touched by a long running conversation
+            return;
+        }
+        if (readOnly) {
+            // read only sessions never flush
+            return;
+        }
         switch (flushModeType) {
             case AUTO:
                 delegate.setFlushMode(FlushMode.AUTO);
@@ -181,7 +473,12 @@ public class HibernateManagedSessionProxyHandler implements InvocationHandler, S
             try {
                 // we need to do this first to prevent an infinite loop
                 persistenceContextsTouched = true;
-                getPersistenceContexts().touch(delegate);
+                PersistenceContexts persistenceContexts = getPersistenceContexts();
+                if (definitionId >= 0 && persistenceContexts instanceof PersistenceContextsImpl) {
+                    ((PersistenceContextsImpl) persistenceContexts).touch(definitionId, delegate);
+                } else {
+                    persistenceContexts.touch(delegate);
+                }
             } catch (ContextNotActiveException e) {
                 persistenceContextsTouched = false;
                 log.debug("Not touching pc " + this + "as conversation scope not active");
@@ -191,6 +488,7 @@ public class HibernateManagedSessionProxyHandler implements InvocationHandler, S
 
     public void afterCompletion(int status) {
         synchronizationRegistered = false;
+        checkedTransactionId = TransactionTracker.UNCHECKED;
         if (closeOnTransactionCommit && delegate.isOpen()) {
             delegate.close();
         }
@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.hibernate;
+
+import org.hibernate.Session;
+import org.jboss.seam.persistence.HibernatePersistenceProvider;
+import org.jboss.seam.persistence.PersistenceContextPool;
+
+/**
+ * Pool of idle sessions for a request scoped managed Hibernate session
+ *
+ * @see HibernatePersistenceProvider#reset(Session)
+ */
+public class SessionPool extends PersistenceContextPool<Session> {
+
+    public SessionPool(String name, int size) {
+        super(name, size);
+    }
+
+    @Override
+    protected boolean isReusable(Session session) {
+        return session.isOpen() && !session.getTransaction().isActive();
+    }
+
+    @Override
+    protected void reset(Session session) {
+        HibernatePersistenceProvider.reset(session);
+    }
+
+    @Override
+    protected void close(Session session) {
+        session.close();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.jboss.seam.persistence.PersistenceContextsImpl.PersistenceContextDefintition;
+import org.jboss.solder.logging.Logger;
+
+/**
+ * Records metrics for each set of persistence context qualifiers, and
+ * registers them with the platform MBean server under
+ * <code>org.jboss.seam.persistence:type=PersistenceContextMetrics</code>
+ */
+public class JmxPersistenceMetrics implements PersistenceMetrics {
+
+    public static final String DOMAIN = "org.jboss.seam.persistence";
+
+    private static final Logger log = Logger.getLogger(JmxPersistenceMetrics.class);
+
+    private final ConcurrentMap<PersistenceContextDefintition, RecordingPersistenceContextMetrics> metrics = new ConcurrentHashMap<PersistenceContextDefintition, RecordingPersistenceContextMetrics>();
+
+    private final ConcurrentMap<TenantKey, RecordingTenantMetrics> tenantMetrics = new ConcurrentHashMap<TenantKey, RecordingTenantMetrics>();
+
+    private final List<ObjectName> registered = Collections.synchronizedList(new ArrayList<ObjectName>());
+
+    private final MBeanServer server;
+
+    public JmxPersistenceMetrics() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxPersistenceMetrics(MBeanServer server) {
+        this.server = server;
+    }
+
+    public PersistenceContextMetrics getPersistenceContextMetrics(Set<Annotation> qualifiers, Class<?> beanType) {
+        PersistenceContextDefintition definition = new PersistenceContextDefintition(qualifiers, beanType);
+        RecordingPersistenceContextMetrics result = metrics.get(definition);
+        if (result != null) {
+            return result;
+        }
+        result = new RecordingPersistenceContextMetrics(definition.getQualifiers().toString());
+        RecordingPersistenceContextMetrics existing = metrics.putIfAbsent(definition, result);
+        if (existing != null) {
+            return existing;
+        }
+        register(definition, result);
+        return result;
+    }
+
+    public TenantMetrics getTenantMetrics(Set<Annotation> qualifiers, String tenant) {
+        TenantKey key = new TenantKey(qualifiers, tenant);
+        RecordingTenantMetrics result = tenantMetrics.get(key);
+        if (result != null) {
+            return result;
+        }
+        result = new RecordingTenantMetrics(qualifiers.toString(), tenant);
+        RecordingTenantMetrics existing = tenantMetrics.putIfAbsent(key, result);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            ObjectName name = getTenantObjectName(qualifiers, tenant);
+            // the interface is not named after the class, so it must be given explicitly
+            server.registerMBean(new StandardMBean(result, TenantMetricsMBean.class), name);
+            registered.add(name);
+        } catch (Exception e) {
+            log.warn("Could not register metrics for tenant " + tenant + " of persistence context " + qualifiers + " with JMX", e);
+        }
+        return result;
+    }
+
+    public void releaseTenantMetrics(Set<Annotation> qualifiers, String tenant) {
+        if (tenantMetrics.remove(new TenantKey(qualifiers, tenant)) == null) {
+            return;
+        }
+        try {
+            ObjectName name = getTenantObjectName(qualifiers, tenant);
+            if (registered.remove(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            log.debug("Could not unregister metrics for tenant " + tenant + " of persistence context " + qualifiers, e);
+        }
+    }
+
+    public void close() {
+        synchronized (registered) {
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (Exception e) {
+                    log.debug("Could not unregister MBean " + name, e);
+                }
+            }
+            registered.clear();
+        }
+    }
+
+    private static ObjectName getTenantObjectName(Set<Annotation> qualifiers, String tenant) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=TenantMetrics,qualifiers=" + ObjectName.quote(qualifiers.toString()) + ",tenant=" + ObjectName.quote(tenant));
+    }
+
+    private void register(PersistenceContextDefintition definition, RecordingPersistenceContextMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=PersistenceContextMetrics,qualifiers=" + ObjectName.quote(definition.getQualifiers().toString()));
+            server.registerMBean(new StandardMBean(metrics, PersistenceContextMetricsMBean.class), name);
+            registered.add(name);
+        } catch (Exception e) {
+            log.warn("Could not register persistence context metrics for " + definition.getQualifiers() + " with JMX", e);
+        }
+    }
+
+    private static class TenantKey {
+        private final Set<Annotation> qualifiers;
+
+        private final String tenant;
+
+        TenantKey(Set<Annotation> qualifiers, String tenant) {
+            this.qualifiers = qualifiers;
+            this.tenant = tenant;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TenantKey)) {
+                return false;
+            }
+            TenantKey other = (TenantKey) obj;
+            return tenant.equals(other.tenant) && qualifiers.equals(other.qualifiers);
+        }
+
+        @Override
+        public int hashCode() {
+            return qualifiers.hashCode() * 31 + tenant.hashCode();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+import java.lang.annotation.Annotation;
+import java.util.Set;
+
+/**
+ * The default metrics implementation, which records nothing
+ */
+public class NoOpPersistenceMetrics implements PersistenceMetrics, PersistenceContextMetrics, TenantMetrics {
+
+    public static final NoOpPersistenceMetrics INSTANCE = new NoOpPersistenceMetrics();
+
+    public PersistenceContextMetrics getPersistenceContextMetrics(Set<Annotation> qualifiers, Class<?> beanType) {
+        return this;
+    }
+
+    public TenantMetrics getTenantMetrics(Set<Annotation> qualifiers, String tenant) {
+        return this;
+    }
+
+    public void releaseTenantMetrics(Set<Annotation> qualifiers, String tenant) {
+    }
+
+    public void close() {
+    }
+
+    public boolean isEnabled() {
+        return false;
+    }
+
+    public void persistenceContextCreated() {
+    }
+
+    public void persistenceContextDestroyed(long lifetimeNanos) {
+    }
+
+    public void invoked() {
+    }
+
+    public void flushed(long durationNanos) {
+    }
+
+    public void batchFlushed(int entityCount) {
+    }
+
+    public void entitiesEvicted(int entityCount) {
+    }
+
+    public void queryRewritten() {
+    }
+
+    public void flushModeChanged() {
+    }
+
+    public void tenantHit() {
+    }
+
+    public void tenantMissed() {
+    }
+
+    public void tenantBootstrapped(long durationNanos) {
+    }
+
+    public void tenantEvicted() {
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+/**
+ * Records metrics for all persistence contexts with the same qualifiers. All
+ * methods may be called concurrently, and must be cheap.
+ */
+public interface PersistenceContextMetrics {
+
+    /**
+     * Returns false if nothing is recorded. Callers can use this to avoid
+     * timing operations.
+     */
+    public abstract boolean isEnabled();
+
+    public abstract void persistenceContextCreated();
+
+    /**
+     * @param lifetimeNanos the time between creation and destruction
+     */
+    public abstract void persistenceContextDestroyed(long lifetimeNanos);
+
+    /**
+     * A method was invoked on the persistence context
+     */
+    public abstract void invoked();
+
+    public abstract void flushed(long durationNanos);
+
+    /**
+     * A persistence context in batch mode was flushed and cleared. This is
+     * called in addition to {@link #flushed(long)}.
+     *
+     * @param entityCount the number of entities persisted since the last
+     *                    batch flush
+     */
+    public abstract void batchFlushed(int entityCount);
+
+    /**
+     * Clean entities were detached from a bounded persistence context
+     *
+     * @param entityCount the number of entities that were detached
+     */
+    public abstract void entitiesEvicted(int entityCount);
+
+    /**
+     * A query containing EL was rewritten to use parameters
+     */
+    public abstract void queryRewritten();
+
+    public abstract void flushModeChanged();
+}
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+/**
+ * JMX view of the metrics of the persistence contexts with a given set of
+ * qualifiers. All times are in nanoseconds.
+ */
+public interface PersistenceContextMetricsMBean {
+
+    public abstract String getQualifiers();
+
+    public abstract long getCreated();
+
+    public abstract long getDestroyed();
+
+    public abstract long getActive();
+
+    public abstract long getInvocations();
+
+    public abstract long getQueriesRewritten();
+
+    public abstract long getFlushModeChanges();
+
+    public abstract long getFlushes();
+
+    public abstract double getFlushTimeMean();
+
+    public abstract long getFlushTime99thPercentile();
+
+    public abstract long getFlushTimeMax();
+
+    public abstract long getBatchFlushes();
+
+    public abstract long getBatchedEntities();
+
+    public abstract long getEvictions();
+
+    public abstract long getEvictedEntities();
+
+    public abstract double getLifetimeMean();
+
+    public abstract long getLifetime99thPercentile();
+
+    public abstract long getLifetimeMax();
+}
@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+import java.lang.annotation.Annotation;
+import java.util.Set;
+
+/**
+ * SPI for collecting metrics about Seam managed persistence contexts and
+ * managed Hibernate sessions.
+ * <p/>
+ * Implementations are services rather than beans, and are loaded from
+ * <p/>
+ * META-INF/services/org.jboss.seam.persistence.metrics.PersistenceMetrics
+ * <p/>
+ * If no implementation is found, metrics are disabled unless the
+ * <code>org.jboss.seam.persistence.metrics</code> system property is set to
+ * <code>jmx</code>, in which case they are exported through JMX.
+ *
+ * @see PersistenceMetricsFactory
+ */
+public interface PersistenceMetrics {
+
+    /**
+     * Returns the metrics for the persistence context with the given
+     * qualifiers and bean type. This is called once per persistence context
+     * instance, so implementations should cache the result.
+     */
+    public abstract PersistenceContextMetrics getPersistenceContextMetrics(Set<Annotation> qualifiers, Class<?> beanType);
+
+    /**
+     * Returns the metrics for one tenant of the multi tenant persistence
+     * context with the given qualifiers. This is called each time the
+     * tenant's entity manager factory is added to the cache, so
+     * implementations should cache the result.
+     */
+    public abstract TenantMetrics getTenantMetrics(Set<Annotation> qualifiers, String tenant);
+
+    /**
+     * Called when the tenant's entity manager factory is evicted from the
+     * cache. The metrics may be discarded, as
+     * {@link #getTenantMetrics(Set, String)} is called again if the tenant
+     * returns.
+     */
+    public abstract void releaseTenantMetrics(Set<Annotation> qualifiers, String tenant);
+
+    /**
+     * Releases any resources held by the metrics, called when the application
+     * shuts down
+     */
+    public abstract void close();
+}
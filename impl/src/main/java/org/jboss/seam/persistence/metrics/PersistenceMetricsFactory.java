@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+import java.util.Iterator;
+
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.jboss.seam.persistence.ManagedPersistenceContextExtension;
+import org.jboss.seam.persistence.util.BeanManagerUtils;
+import org.jboss.solder.logging.Logger;
+import org.jboss.solder.util.service.ServiceLoader;
+
+/**
+ * Creates the {@link PersistenceMetrics} of an application. This is the first
+ * implementation found by the service loader, the JMX implementation if the
+ * <code>org.jboss.seam.persistence.metrics</code> system property is set to
+ * <code>jmx</code>, or {@link NoOpPersistenceMetrics}.
+ * <p/>
+ * Each application's metrics are owned by its
+ * {@link ManagedPersistenceContextExtension}, and are closed when that
+ * application shuts down.
+ */
+public class PersistenceMetricsFactory {
+
+    public static final String PROPERTY_NAME = "org.jboss.seam.persistence.metrics";
+
+    private static final Logger log = Logger.getLogger(PersistenceMetricsFactory.class);
+
+    private PersistenceMetricsFactory() {
+    }
+
+    /**
+     * Returns the metrics of the application that the given BeanManager
+     * belongs to, or {@link NoOpPersistenceMetrics} if it has none. This looks
+     * up the extension, so callers should cache the result.
+     */
+    public static PersistenceMetrics getMetrics(BeanManager manager) {
+        ManagedPersistenceContextExtension extension = BeanManagerUtils.getContextualInstance(manager, ManagedPersistenceContextExtension.class);
+        if (extension == null) {
+            return NoOpPersistenceMetrics.INSTANCE;
+        }
+        return extension.getMetrics();
+    }
+
+    /**
+     * Creates new metrics, which the caller must close
+     */
+    public static PersistenceMetrics createMetrics() {
+        Iterator<PersistenceMetrics> services = ServiceLoader.load(PersistenceMetrics.class).iterator();
+        if (services.hasNext()) {
+            PersistenceMetrics result = services.next();
+            log.info("Using persistence metrics " + result.getClass().getName());
+            return result;
+        }
+        if ("jmx".equalsIgnoreCase(System.getProperty(PROPERTY_NAME))) {
+            log.info("Exporting persistence metrics through JMX");
+            return new JmxPersistenceMetrics();
+        }
+        return NoOpPersistenceMetrics.INSTANCE;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and times the operations of the persistence contexts with a given
+ * set of qualifiers
+ */
+public class RecordingPersistenceContextMetrics implements PersistenceContextMetrics, PersistenceContextMetricsMBean {
+
+    private final String qualifiers;
+
+    private final AtomicLong created = new AtomicLong();
+
+    private final AtomicLong destroyed = new AtomicLong();
+
+    private final AtomicLong invocations = new AtomicLong();
+
+    private final AtomicLong queriesRewritten = new AtomicLong();
+
+    private final AtomicLong flushModeChanges = new AtomicLong();
+
+    private final AtomicLong batchFlushes = new AtomicLong();
+
+    private final AtomicLong batchedEntities = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong evictedEntities = new AtomicLong();
+
+    private final LatencyHistogram flushTimes = new LatencyHistogram();
+
+    private final LatencyHistogram lifetimes = new LatencyHistogram();
+
+    public RecordingPersistenceContextMetrics(String qualifiers) {
+        this.qualifiers = qualifiers;
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public void persistenceContextCreated() {
+        created.incrementAndGet();
+    }
+
+    public void persistenceContextDestroyed(long lifetimeNanos) {
+        destroyed.incrementAndGet();
+        lifetimes.record(lifetimeNanos);
+    }
+
+    public void invoked() {
+        invocations.incrementAndGet();
+    }
+
+    public void flushed(long durationNanos) {
+        flushTimes.record(durationNanos);
+    }
+
+    public void batchFlushed(int entityCount) {
+        batchFlushes.incrementAndGet();
+        batchedEntities.addAndGet(entityCount);
+    }
+
+    public void entitiesEvicted(int entityCount) {
+        evictions.incrementAndGet();
+        evictedEntities.addAndGet(entityCount);
+    }
+
+    public void queryRewritten() {
+        queriesRewritten.incrementAndGet();
+    }
+
+    public void flushModeChanged() {
+        flushModeChanges.incrementAndGet();
+    }
+
+    public String getQualifiers() {
+        return qualifiers;
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getDestroyed() {
+        return destroyed.get();
+    }
+
+    public long getActive() {
+        return created.get() - destroyed.get();
+    }
+
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    public long getQueriesRewritten() {
+        return queriesRewritten.get();
+    }
+
+    public long getFlushModeChanges() {
+        return flushModeChanges.get();
+    }
+
+    public long getFlushes() {
+        return flushTimes.getCount();
+    }
+
+    public double getFlushTimeMean() {
+        return flushTimes.getMean();
+    }
+
+    public long getFlushTime99thPercentile() {
+        return flushTimes.getValueAtPercentile(99);
+    }
+
+    public long getFlushTimeMax() {
+        return flushTimes.getMax();
+    }
+
+    public long getBatchFlushes() {
+        return batchFlushes.get();
+    }
+
+    public long getBatchedEntities() {
+        return batchedEntities.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getEvictedEntities() {
+        return evictedEntities.get();
+    }
+
+    public double getLifetimeMean() {
+        return lifetimes.getMean();
+    }
+
+    public long getLifetime99thPercentile() {
+        return lifetimes.getValueAtPercentile(99);
+    }
+
+    public long getLifetimeMax() {
+        return lifetimes.getMax();
+    }
+
+    public LatencyHistogram getFlushTimes() {
+        return flushTimes;
+    }
+
+    public LatencyHistogram getLifetimes() {
+        return lifetimes;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts cache hits and misses and times the bootstrap of the entity manager
+ * factory of a single tenant
+ */
+public class RecordingTenantMetrics implements TenantMetrics, TenantMetricsMBean {
+
+    private final String qualifiers;
+
+    private final String tenant;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final LatencyHistogram bootstrapTimes = new LatencyHistogram();
+
+    public RecordingTenantMetrics(String qualifiers, String tenant) {
+        this.qualifiers = qualifiers;
+        this.tenant = tenant;
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public void tenantHit() {
+        hits.incrementAndGet();
+    }
+
+    public void tenantMissed() {
+        misses.incrementAndGet();
+    }
+
+    public void tenantBootstrapped(long durationNanos) {
+        bootstrapTimes.record(durationNanos);
+    }
+
+    public void tenantEvicted() {
+        evictions.incrementAndGet();
+    }
+
+    public String getQualifiers() {
+        return qualifiers;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getBootstraps() {
+        return bootstrapTimes.getCount();
+    }
+
+    public double getBootstrapTimeMean() {
+        return bootstrapTimes.getMean();
+    }
+
+    public long getBootstrapTime99thPercentile() {
+        return bootstrapTimes.getValueAtPercentile(99);
+    }
+
+    public long getBootstrapTimeMax() {
+        return bootstrapTimes.getMax();
+    }
+
+    public LatencyHistogram getBootstrapTimes() {
+        return bootstrapTimes;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+/**
+ * Records how the entity manager factory of a single tenant of a multi tenant
+ * persistence context is used. All methods may be called concurrently, and
+ * must be cheap.
+ */
+public interface TenantMetrics {
+
+    /**
+     * Returns false if nothing is recorded. Callers can use this to avoid
+     * timing operations.
+     */
+    public abstract boolean isEnabled();
+
+    /**
+     * A persistence context found the tenant's factory in the cache
+     */
+    public abstract void tenantHit();
+
+    /**
+     * A persistence context had to wait for the tenant's factory to be built
+     */
+    public abstract void tenantMissed();
+
+    /**
+     * @param durationNanos the time taken to build the tenant's factory
+     */
+    public abstract void tenantBootstrapped(long durationNanos);
+
+    /**
+     * The tenant's factory was closed to make room for other tenants, or
+     * because it had not been used for too long
+     */
+    public abstract void tenantEvicted();
+}
@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.metrics;
+
+/**
+ * JMX view of the metrics of one tenant of a multi tenant persistence
+ * context. All times are in nanoseconds.
+ */
+public interface TenantMetricsMBean {
+
+    public abstract String getQualifiers();
+
+    public abstract String getTenant();
+
+    public abstract long getHits();
+
+    public abstract long getMisses();
+
+    public abstract long getEvictions();
+
+    public abstract long getBootstraps();
+
+    public abstract double getBootstrapTimeMean();
+
+    public abstract long getBootstrapTime99thPercentile();
+
+    public abstract long getBootstrapTimeMax();
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.search;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.search.batchindexing.MassIndexerProgressMonitor;
+import org.jboss.solder.core.Veto;
+
+/**
+ * Progress of a single indexing run started by a {@link SearchIndexer}. All
+ * methods may be called while the run is in progress.
+ */
+@Veto
+public class IndexingProgress implements MassIndexerProgressMonitor {
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong entitiesLoaded = new AtomicLong();
+
+    private final AtomicLong documentsBuilt = new AtomicLong();
+
+    private final AtomicLong documentsAdded = new AtomicLong();
+
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile long endTime;
+
+    private volatile Future<?> future;
+
+    public void addToTotalCount(long count) {
+        totalCount.addAndGet(count);
+    }
+
+    public void entitiesLoaded(int size) {
+        entitiesLoaded.addAndGet(size);
+    }
+
+    public void documentsBuilt(int number) {
+        documentsBuilt.addAndGet(number);
+    }
+
+    public void documentsAdded(long increment) {
+        documentsAdded.addAndGet(increment);
+    }
+
+    public void indexingCompleted() {
+        endTime = System.currentTimeMillis();
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Returns the number of entities to index, or 0 if it is not known
+     */
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getEntitiesLoaded() {
+        return entitiesLoaded.get();
+    }
+
+    public long getDocumentsBuilt() {
+        return documentsBuilt.get();
+    }
+
+    public long getDocumentsAdded() {
+        return documentsAdded.get();
+    }
+
+    /**
+     * Returns the percentage of documents that have been added to the index,
+     * or -1 if the total is not known
+     */
+    public double getPercentComplete() {
+        long total = totalCount.get();
+        if (total == 0) {
+            return isCompleted() ? 100 : -1;
+        }
+        return Math.min(100, documentsAdded.get() * 100.0 / total);
+    }
+
+    public boolean isCompleted() {
+        return endTime != 0;
+    }
+
+    /**
+     * Returns the time the run has taken so far, or took if it is complete
+     */
+    public long getElapsedMillis() {
+        long end = endTime;
+        return (end == 0 ? System.currentTimeMillis() : end) - startTime;
+    }
+
+    /**
+     * Cancels a run that was started in the background
+     *
+     * @return false if the run could not be cancelled, e.g. because it has
+     *         already completed
+     */
+    public boolean cancel() {
+        Future<?> f = future;
+        return f != null && f.cancel(true);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexingProgress[documentsAdded=" + getDocumentsAdded() + ", totalCount=" + getTotalCount() + ", completed=" + isCompleted() + ", elapsedMillis=" + getElapsedMillis() + "]";
+    }
+}
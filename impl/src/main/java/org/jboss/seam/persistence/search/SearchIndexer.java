@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.search;
+
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.search.MassIndexer;
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.search.jpa.Search;
+import org.jboss.seam.persistence.KeysetQueryIterator;
+import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.PagedQueryIterator;
+import org.jboss.seam.persistence.QueryIterator;
+import org.jboss.solder.core.Veto;
+import org.jboss.solder.logging.Logger;
+
+/**
+ * Builds the Hibernate Search indexes of the entities of a persistence
+ * context.
+ * <p/>
+ * When Hibernate Search is on the class path, an indexer is available for
+ * injection with the same qualifiers as each seam managed persistence
+ * context:
+ * <p/>
+ * <pre>
+ * &#064;Inject
+ * SearchIndexer indexer;
+ * </pre>
+ * <p/>
+ * A full rebuild uses the Hibernate Search <code>MassIndexer</code>, which
+ * loads entities on its own threads and sessions. An incremental re-index of
+ * the entities changed since a point in time runs through the persistence
+ * context in the current transaction.
+ */
+@Veto
+public class SearchIndexer {
+
+    private static final Logger log = Logger.getLogger(SearchIndexer.class);
+
+    private final FullTextEntityManager entityManager;
+
+    private int batchSize = 25;
+
+    private int threadsToLoadObjects = 2;
+
+    private int threadsForSubsequentFetching = 4;
+
+    private boolean purgeAllOnStart = true;
+
+    private volatile IndexingProgress progress;
+
+    public SearchIndexer(EntityManager entityManager) {
+        if (entityManager instanceof FullTextEntityManager) {
+            this.entityManager = (FullTextEntityManager) entityManager;
+        } else {
+            this.entityManager = Search.getFullTextEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Sets the number of entities loaded and indexed at a time
+     */
+    public SearchIndexer batchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads used by a full rebuild to load entities
+     */
+    public SearchIndexer threadsToLoadObjects(int threads) {
+        this.threadsToLoadObjects = threads;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads used by a full rebuild to load the lazy
+     * associations of entities
+     */
+    public SearchIndexer threadsForSubsequentFetching(int threads) {
+        this.threadsForSubsequentFetching = threads;
+        return this;
+    }
+
+    /**
+     * Sets whether a full rebuild removes all existing documents first. This
+     * is true by default.
+     */
+    public SearchIndexer purgeAllOnStart(boolean purgeAllOnStart) {
+        this.purgeAllOnStart = purgeAllOnStart;
+        return this;
+    }
+
+    /**
+     * Starts rebuilding the indexes of the given types, or of all indexed
+     * types if none are given, in the background
+     */
+    public IndexingProgress start(Class<?>... types) {
+        IndexingProgress progress = new IndexingProgress();
+        progress.setFuture(createIndexer(progress, types).start());
+        return progress;
+    }
+
+    /**
+     * Rebuilds the indexes of the given types, or of all indexed types if none
+     * are given, and waits for the rebuild to finish
+     */
+    public IndexingProgress startAndWait(Class<?>... types) throws InterruptedException {
+        IndexingProgress progress = new IndexingProgress();
+        createIndexer(progress, types).startAndWait();
+        log.info("Rebuilt search indexes in " + progress.getElapsedMillis() + "ms: " + progress);
+        return progress;
+    }
+
+    private MassIndexer createIndexer(IndexingProgress progress, Class<?>... types) {
+        this.progress = progress;
+        return entityManager.createIndexer(types)
+                .batchSizeToLoadObjects(batchSize)
+                .threadsToLoadObjects(threadsToLoadObjects)
+                .threadsForSubsequentFetching(threadsForSubsequentFetching)
+                .purgeAllOnStart(purgeAllOnStart)
+                .progressMonitor(progress);
+    }
+
+    /**
+     * Re-indexes the entities of the given type whose timestamp attribute is
+     * at or after <code>since</code>. This must be called in a transaction.
+     * Entities are streamed through the persistence context and written to
+     * the index one batch at a time.
+     *
+     * @param timestampAttribute the name of a {@link Date} attribute that is
+     *                           updated whenever the entity changes
+     */
+    public <T> IndexingProgress reindexChangedSince(Class<T> type, String timestampAttribute, Date since) {
+        IndexingProgress progress = new IndexingProgress();
+        this.progress = progress;
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> criteria = builder.createQuery(type);
+        Root<T> root = criteria.from(type);
+        Path<Date> timestamp = root.get(timestampAttribute);
+        criteria.select(root).where(builder.greaterThanOrEqualTo(timestamp, since));
+        // pages are only stable if the results have a total order
+        criteria.orderBy(builder.asc(root.get(KeysetQueryIterator.getIdAttribute(entityManager, type))));
+        TypedQuery<T> query = entityManager.createQuery(criteria);
+
+        QueryIterator<T> entities;
+        if (entityManager instanceof ManagedPersistenceContext) {
+            entities = ((ManagedPersistenceContext) entityManager).iterate(query, batchSize);
+        } else {
+            entities = new PagedQueryIterator<T>(entityManager, query, batchSize);
+        }
+        try {
+            int pending = 0;
+            while (entities.hasNext()) {
+                entityManager.index(entities.next());
+                progress.entitiesLoaded(1);
+                // write the batch before the iterator evicts it
+                if (++pending == batchSize) {
+                    entityManager.flushToIndexes();
+                    progress.documentsAdded(pending);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                entityManager.flushToIndexes();
+                progress.documentsAdded(pending);
+            }
+        } finally {
+            entities.close();
+        }
+        progress.indexingCompleted();
+        log.debug("Re-indexed " + progress.getDocumentsAdded() + " " + type.getName() + " entities changed since " + since);
+        return progress;
+    }
+
+    /**
+     * Returns the progress of the last run started by this indexer, or null
+     * if none has been started
+     */
+    public IndexingProgress getProgress() {
+        return progress;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.search;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.persistence.EntityManager;
+
+import org.jboss.solder.bean.BeanBuilder;
+import org.jboss.solder.bean.ContextualLifecycle;
+import org.jboss.solder.core.Veto;
+
+/**
+ * Lifecycle for the {@link SearchIndexer} that is registered alongside a seam
+ * managed persistence context.
+ * <p/>
+ * This class refers to Hibernate Search, so it must only be used once the
+ * persistence provider has found Hibernate Search on the class path.
+ */
+@Veto
+public class SearchIndexerBeanLifecycle implements ContextualLifecycle<SearchIndexer> {
+
+    private final BeanManager manager;
+
+    private final Annotation[] qualifiers;
+
+    public SearchIndexerBeanLifecycle(Set<Annotation> qualifiers, BeanManager manager) {
+        this.manager = manager;
+        this.qualifiers = qualifiers.toArray(new Annotation[qualifiers.size()]);
+    }
+
+    /**
+     * Creates a dependent {@link SearchIndexer} bean with the given qualifiers
+     */
+    public static Bean<SearchIndexer> createBean(Set<Annotation> qualifiers, Class<?> beanClass, BeanManager manager) {
+        BeanBuilder<SearchIndexer> builder = new BeanBuilder<SearchIndexer>(manager);
+        Set<Type> types = new HashSet<Type>();
+        types.add(SearchIndexer.class);
+        types.add(Object.class);
+        builder.beanClass(beanClass).qualifiers(qualifiers).types(types);
+        builder.beanLifecycle(new SearchIndexerBeanLifecycle(qualifiers, manager));
+        builder.toString("Search indexer for Seam Managed Persistence Context with qualifiers [" + qualifiers + "]");
+        return builder.create();
+    }
+
+    public SearchIndexer create(Bean<SearchIndexer> bean, CreationalContext<SearchIndexer> creationalContext) {
+        Bean<EntityManager> entityManagerBean = (Bean) manager.resolve(manager.getBeans(EntityManager.class, qualifiers));
+        if (entityManagerBean == null) {
+            throw new RuntimeException("Could not find EntityManager bean with qualifiers " + Arrays.toString(qualifiers));
+        }
+        // a dependent SMPC is destroyed when the indexer's creational context
+        // is released
+        EntityManager entityManager = (EntityManager) manager.getReference(entityManagerBean, EntityManager.class, creationalContext);
+        return new SearchIndexer(entityManager);
+    }
+
+    public void destroy(Bean<SearchIndexer> bean, SearchIndexer instance, CreationalContext<SearchIndexer> creationalContext) {
+        creationalContext.release();
+    }
+}
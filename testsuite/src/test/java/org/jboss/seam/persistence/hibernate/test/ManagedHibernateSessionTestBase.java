@@ -27,6 +27,8 @@ import javax.transaction.SystemException;
 
 import junit.framework.Assert;
 import org.hibernate.Session;
+import org.jboss.seam.persistence.QueryIterator;
+import org.jboss.seam.persistence.hibernate.ManagedHibernateSession;
 import org.jboss.seam.persistence.test.util.HelloService;
 import org.jboss.seam.persistence.test.util.Hotel;
 import org.jboss.seam.persistence.test.util.ManagedHibernateSessionProvider;
@@ -67,4 +69,28 @@ public class ManagedHibernateSessionTestBase {
         transaction.rollback();
     }
 
+    @Test
+    public void testIterateHibernateQuery() throws Exception {
+        transaction.begin();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                session.persist(new Hotel("iterate" + i, "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+            }
+            session.flush();
+            QueryIterator<Hotel> hotels = ((ManagedHibernateSession) session).iterate(session.createQuery("select h from Hotel h where h.name like 'iterate%' order by h.name"), 2);
+            try {
+                for (int i = 0; i < 3; ++i) {
+                    Assert.assertTrue(hotels.hasNext());
+                    Assert.assertEquals("iterate" + i, hotels.next().getName());
+                }
+                Assert.assertFalse(hotels.hasNext());
+            } finally {
+                hotels.close();
+            }
+        } finally {
+            // the other tests count every hotel
+            transaction.rollback();
+        }
+    }
+
 }
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.hibernate.test;
+
+import javax.inject.Inject;
+
+import junit.framework.Assert;
+import org.hibernate.Session;
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.persistence.test.util.ReadOnlyHibernateSessionProvider;
+import org.jboss.seam.transaction.DefaultTransaction;
+import org.jboss.seam.transaction.SeamTransaction;
+import org.junit.Test;
+
+public class ReadOnlyHibernateSessionTestBase {
+
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{ReadOnlyHibernateSessionTestBase.class, Hotel.class, ReadOnlyHibernateSessionProvider.class, HelloService.class};
+    }
+
+    @Inject
+    @DefaultTransaction
+    SeamTransaction transaction;
+
+    @Inject
+    Session session;
+
+    @Test
+    public void testWritesAreRejected() throws Exception {
+        int id = createHotel("rejected");
+        Hotel hotel = (Hotel) session.get(Hotel.class, id);
+        try {
+            session.persist(new Hotel("persisted", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+            Assert.fail("persist must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            session.save(new Hotel("saved", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+            Assert.fail("save must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            session.merge(hotel);
+            Assert.fail("merge must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            session.delete(hotel);
+            Assert.fail("delete must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals("rejected", getName(id));
+    }
+
+    @Test
+    public void testLoadedEntitiesAreNotFlushed() throws Exception {
+        int id = createHotel("unchanged");
+        transaction.begin();
+        try {
+            Hotel hotel = (Hotel) session.get(Hotel.class, id);
+            Assert.assertTrue(session.isReadOnly(hotel));
+            hotel.setName("changed");
+            transaction.commit();
+        } catch (Exception e) {
+            transaction.rollback();
+            throw e;
+        }
+        Assert.assertEquals("unchanged", getName(id));
+    }
+
+    /**
+     * Saves a hotel through a session that is not read only
+     */
+    private int createHotel(String name) {
+        Session writer = session.getSessionFactory().openSession();
+        try {
+            writer.beginTransaction();
+            Hotel hotel = new Hotel(name, "Fake St", "Wollongong", "NSW", "2518", "Australia");
+            writer.save(hotel);
+            writer.getTransaction().commit();
+            return hotel.getId();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String getName(int id) {
+        Session reader = session.getSessionFactory().openSession();
+        try {
+            return ((Hotel) reader.get(Hotel.class, id)).getName();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import junit.framework.Assert;
+import org.jboss.seam.persistence.metrics.PersistenceMetricsFactory;
+import org.jboss.seam.persistence.metrics.RecordingPersistenceContextMetrics;
+import org.jboss.seam.persistence.test.util.BoundedPersistenceContextProvider;
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.transaction.DefaultTransaction;
+import org.jboss.seam.transaction.SeamTransaction;
+import org.junit.Test;
+
+/**
+ * Tests an SMPC that is bounded to 10 entities. The test deployment must be
+ * created with JMX metrics enabled, so that evictions are counted.
+ */
+public class BoundedPersistenceContextTestBase {
+
+    private static final int HOTEL_COUNT = 20;
+
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{BoundedPersistenceContextTestBase.class, Hotel.class, BoundedPersistenceContextProvider.class, HelloService.class};
+    }
+
+    @Inject
+    @DefaultTransaction
+    SeamTransaction transaction;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    BeanManager manager;
+
+    @Test
+    public void testFindDetachesCleanLeastRecentlyUsedEntities() throws Exception {
+        transaction.begin();
+        try {
+            List<Integer> ids = createHotels();
+            long evicted = getMetrics().getEvictedEntities();
+
+            Hotel dirty = em.find(Hotel.class, ids.get(0));
+            dirty.setName("dirty");
+            Hotel clean = em.find(Hotel.class, ids.get(1));
+            List<Hotel> hotels = new ArrayList<Hotel>();
+            for (int i = 2; i < HOTEL_COUNT; ++i) {
+                hotels.add(em.find(Hotel.class, ids.get(i)));
+            }
+
+            // the bound was checked after each find, and contains neither
+            // counts as a use nor checks the bound
+            Assert.assertTrue(em.contains(dirty));
+            Assert.assertFalse(em.contains(clean));
+            Assert.assertTrue(em.contains(hotels.get(hotels.size() - 1)));
+            Assert.assertTrue(countManaged(hotels) < hotels.size());
+            Assert.assertTrue(getMetrics().getEvictedEntities() > evicted);
+        } finally {
+            transaction.rollback();
+        }
+    }
+
+    @Test
+    public void testQueryResultsAreEvicted() throws Exception {
+        transaction.begin();
+        try {
+            createHotels();
+            long evicted = getMetrics().getEvictedEntities();
+
+            List<Hotel> hotels = em.createQuery("select h from Hotel h where h.name like 'bounded%' order by h.id", Hotel.class).getResultList();
+            Assert.assertEquals(HOTEL_COUNT, hotels.size());
+            Hotel dirty = hotels.remove(0);
+            dirty.setName("dirty");
+            // the bound is checked after the next find, rather than while
+            // the results are loaded
+            Assert.assertSame(dirty, em.find(Hotel.class, dirty.getId()));
+
+            Assert.assertTrue(em.contains(dirty));
+            // the bound leaves room for the dirty hotel
+            Assert.assertTrue(countManaged(hotels) < 10);
+            Assert.assertEquals(HOTEL_COUNT - 1 - countManaged(hotels), getMetrics().getEvictedEntities() - evicted);
+        } finally {
+            transaction.rollback();
+        }
+    }
+
+    @Test
+    public void testBoundIsOnlyCheckedWhenEntitiesAreLoaded() throws Exception {
+        transaction.begin();
+        try {
+            createHotels();
+            long evicted = getMetrics().getEvictedEntities();
+
+            List<Hotel> hotels = em.createQuery("select h from Hotel h where h.name like 'bounded%' order by h.id", Hotel.class).getResultList();
+            Assert.assertEquals(HOTEL_COUNT, hotels.size());
+            // neither contains nor flush load entities, so they leave the
+            // query results in the persistence context
+            em.flush();
+            Assert.assertEquals(HOTEL_COUNT, countManaged(hotels));
+            Assert.assertEquals(evicted, getMetrics().getEvictedEntities());
+
+            em.createQuery("select count(h) from Hotel h");
+            Assert.assertTrue(countManaged(hotels) <= 10);
+            Assert.assertTrue(getMetrics().getEvictedEntities() > evicted);
+        } finally {
+            transaction.rollback();
+        }
+    }
+
+    /**
+     * Persists the hotels and clears the persistence context, so that the
+     * tests load them again
+     */
+    private List<Integer> createHotels() {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < HOTEL_COUNT; ++i) {
+            Hotel hotel = new Hotel("bounded" + i, "Fake St", "Wollongong", "NSW", "2518", "Australia");
+            em.persist(hotel);
+            em.flush();
+            ids.add(hotel.getId());
+        }
+        em.clear();
+        return ids;
+    }
+
+    private int countManaged(List<Hotel> hotels) {
+        int count = 0;
+        for (Hotel hotel : hotels) {
+            if (em.contains(hotel)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private RecordingPersistenceContextMetrics getMetrics() {
+        Bean<?> bean = manager.resolve(manager.getBeans(EntityManager.class));
+        return (RecordingPersistenceContextMetrics) PersistenceMetricsFactory.getMetrics(manager).getPersistenceContextMetrics(bean.getQualifiers(), EntityManager.class);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import junit.framework.Assert;
+import org.jboss.seam.persistence.test.util.CacheableQueriesProvider;
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.persistence.test.util.HotelNameProducer;
+import org.jboss.seam.transaction.DefaultTransaction;
+import org.jboss.seam.transaction.SeamTransaction;
+import org.junit.Test;
+
+/**
+ * Checks that queries rewritten by a persistence context with
+ * <code>@CacheableQueries</code> are marked cacheable
+ */
+public class CacheableQueriesTestBase {
+
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{CacheableQueriesTestBase.class, Hotel.class, HotelNameProducer.class, CacheableQueriesProvider.class, HelloService.class};
+    }
+
+    @Inject
+    @DefaultTransaction
+    SeamTransaction transaction;
+
+    @Inject
+    EntityManager em;
+
+    @Test
+    public void testQueryWithELIsCacheable() throws Exception {
+        transaction.begin();
+        try {
+            em.persist(new Hotel("Hilton", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+            em.flush();
+            Query query = em.createQuery("select h from Hotel h where h.name = #{hotelName}");
+            Map<String, Object> hints = query.getHints();
+            Assert.assertEquals(Boolean.TRUE, hints.get("org.hibernate.cacheable"));
+            Assert.assertEquals("lookups", hints.get("org.hibernate.cacheRegion"));
+            List<?> result = query.getResultList();
+            Assert.assertFalse(result.isEmpty());
+        } finally {
+            transaction.rollback();
+        }
+    }
+
+    @Test
+    public void testQueryWithoutELIsNotCacheable() throws Exception {
+        transaction.begin();
+        try {
+            Map<String, Object> hints = em.createQuery("select h from Hotel h").getHints();
+            Assert.assertTrue(hints == null || !hints.containsKey("org.hibernate.cacheable"));
+        } finally {
+            transaction.rollback();
+        }
+    }
+}
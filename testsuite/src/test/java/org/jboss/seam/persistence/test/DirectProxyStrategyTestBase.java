@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.reflect.Proxy;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.persistence.EntityManager;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+
+import junit.framework.Assert;
+import org.jboss.seam.persistence.DelegatingManagedPersistenceContext;
+import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.ProxyStrategy;
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.persistence.test.util.HotelNameProducer;
+import org.jboss.seam.persistence.test.util.ManagedPersistenceContextProvider;
+import org.junit.Test;
+
+/**
+ * Runs the SMPC tests against persistence contexts created with the
+ * {@link ProxyStrategy#DIRECT} strategy. Runners must set the strategy before
+ * the archive is deployed.
+ */
+public class DirectProxyStrategyTestBase extends ManagedPersistenceContextTestBase {
+
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{DirectProxyStrategyTestBase.class, ManagedPersistenceContextTestBase.class, Hotel.class, ManagedPersistenceContextProvider.class, HotelNameProducer.class, HelloService.class};
+    }
+
+    @Test
+    public void testPersistenceContextIsNotAJdkProxy() {
+        Bean<EntityManager> bean = (Bean) manager.resolve(manager.getBeans(EntityManager.class));
+        CreationalContext<EntityManager> ctx = manager.createCreationalContext(bean);
+        EntityManager created = bean.create(ctx);
+        try {
+            Assert.assertTrue(created instanceof DelegatingManagedPersistenceContext);
+            Assert.assertFalse(Proxy.isProxyClass(created.getClass()));
+            // every additional bean type must be implemented, or the client
+            // proxy could not call the instance
+            for (java.lang.reflect.Type type : bean.getTypes()) {
+                if (type instanceof Class<?>) {
+                    Assert.assertTrue(type.toString(), ((Class<?>) type).isInstance(created));
+                }
+            }
+        } finally {
+            bean.destroy(created, ctx);
+        }
+    }
+
+    @Test
+    public void testELQueryThroughDirectPersistenceContext() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        transaction.begin();
+        em.persist(new Hotel("Hilton", "Direct St", "Wollongong", "NSW", "2518", "Australia"));
+        em.flush();
+        Hotel untyped = (Hotel) em.createQuery("select h from Hotel h where h.name=#{hotelName} and h.address='Direct St'").getSingleResult();
+        Hotel typed = em.createQuery("select h from Hotel h where h.name=#{hotelName} and h.address='Direct St'", Hotel.class).getSingleResult();
+        Assert.assertSame(untyped, typed);
+        Assert.assertEquals(EntityManager.class, ((ManagedPersistenceContext) em).getBeanType());
+        transaction.rollback();
+    }
+}
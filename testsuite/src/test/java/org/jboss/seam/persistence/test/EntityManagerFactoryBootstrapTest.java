@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.spi.PersistenceProvider;
+import javax.persistence.spi.PersistenceProviderResolver;
+import javax.persistence.spi.PersistenceProviderResolverHolder;
+import javax.persistence.spi.PersistenceUnitInfo;
+import javax.persistence.spi.ProviderUtil;
+
+import org.jboss.seam.persistence.EntityManagerFactoryBootstrap;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks lazy and eager bootstrap of SE persistence units against a
+ * persistence provider that records the factories it builds
+ */
+public class EntityManagerFactoryBootstrapTest {
+
+    private RecordingPersistenceProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = new RecordingPersistenceProvider();
+        PersistenceProviderResolverHolder.setPersistenceProviderResolver(new PersistenceProviderResolver() {
+            public List<PersistenceProvider> getPersistenceProviders() {
+                return Collections.<PersistenceProvider>singletonList(provider);
+            }
+
+            public void clearCachedProviders() {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        PersistenceProviderResolverHolder.setPersistenceProviderResolver(null);
+    }
+
+    @Test
+    public void testLazyBootstrapBuildsOnFirstRequest() {
+        EntityManagerFactoryBootstrap bootstrap = new EntityManagerFactoryBootstrap();
+        bootstrap.addPersistenceUnit("lazy");
+        Assert.assertNull(provider.factories.get("lazy"));
+        EntityManagerFactory emf = bootstrap.getEntityManagerFactory("lazy");
+        Assert.assertSame(provider.factories.get("lazy").factory, emf);
+        bootstrap.shutdown();
+        Assert.assertFalse(provider.factories.get("lazy").closed);
+    }
+
+    @Test
+    public void testEagerBootstrapBuildsBeforeRequest() throws InterruptedException {
+        EntityManagerFactoryBootstrap bootstrap = new EntityManagerFactoryBootstrap();
+        bootstrap.addPersistenceUnit("eager");
+        bootstrap.start();
+        Assert.assertTrue(provider.awaitBuilt("eager"));
+        EntityManagerFactory emf = bootstrap.getEntityManagerFactory("eager");
+        Assert.assertSame(provider.factories.get("eager").factory, emf);
+        Assert.assertEquals(1, provider.built);
+        bootstrap.shutdown();
+        Assert.assertFalse(provider.factories.get("eager").closed);
+    }
+
+    @Test
+    public void testLazyFailureIsPropagated() {
+        EntityManagerFactoryBootstrap bootstrap = new EntityManagerFactoryBootstrap();
+        bootstrap.addPersistenceUnit("broken");
+        try {
+            bootstrap.getEntityManagerFactory("broken");
+            Assert.fail("expected the build to fail");
+        } catch (PersistenceException e) {
+            Assert.assertSame(provider.failure, e);
+        }
+    }
+
+    @Test
+    public void testEagerFailureIsPropagated() {
+        EntityManagerFactoryBootstrap bootstrap = new EntityManagerFactoryBootstrap();
+        bootstrap.addPersistenceUnit("broken");
+        bootstrap.start();
+        try {
+            bootstrap.getEntityManagerFactory("broken");
+            Assert.fail("expected the build to fail");
+        } catch (PersistenceException e) {
+            Assert.assertSame(provider.failure, e);
+        }
+        bootstrap.shutdown();
+    }
+
+    @Test
+    public void testShutdownClosesUnusedFactory() throws InterruptedException {
+        EntityManagerFactoryBootstrap bootstrap = new EntityManagerFactoryBootstrap();
+        bootstrap.addPersistenceUnit("unused");
+        bootstrap.start();
+        Assert.assertTrue(provider.awaitBuilt("unused"));
+        bootstrap.shutdown();
+        Assert.assertTrue(provider.factories.get("unused").closed);
+    }
+
+    @Test
+    public void testShutdownClosesFactoryThatIsBeingBuilt() throws InterruptedException {
+        final EntityManagerFactoryBootstrap bootstrap = new EntityManagerFactoryBootstrap();
+        bootstrap.addPersistenceUnit("slow");
+        bootstrap.start();
+        Assert.assertTrue(provider.slowStarted.await(10, TimeUnit.SECONDS));
+        Thread shutdown = new Thread() {
+            @Override
+            public void run() {
+                bootstrap.shutdown();
+            }
+        };
+        shutdown.start();
+        provider.slowRelease.countDown();
+        shutdown.join(10000);
+        Assert.assertFalse(shutdown.isAlive());
+        Assert.assertTrue(provider.factories.get("slow").closed);
+    }
+
+    private static class RecordingPersistenceProvider implements PersistenceProvider {
+
+        final Map<String, FactoryHandler> factories = new ConcurrentHashMap<String, FactoryHandler>();
+
+        final PersistenceException failure = new PersistenceException("broken");
+
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+
+        final CountDownLatch slowRelease = new CountDownLatch(1);
+
+        volatile int built;
+
+        public EntityManagerFactory createEntityManagerFactory(String unitName, Map map) {
+            if (unitName.equals("broken")) {
+                throw failure;
+            }
+            if (unitName.equals("slow")) {
+                slowStarted.countDown();
+                try {
+                    slowRelease.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            FactoryHandler handler = new FactoryHandler();
+            synchronized (this) {
+                ++built;
+                factories.put(unitName, handler);
+                notifyAll();
+            }
+            return handler.factory;
+        }
+
+        synchronized boolean awaitBuilt(String unitName) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            while (!factories.containsKey(unitName) && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            return factories.containsKey(unitName);
+        }
+
+        public EntityManagerFactory createContainerEntityManagerFactory(PersistenceUnitInfo info, Map map) {
+            throw new UnsupportedOperationException();
+        }
+
+        public ProviderUtil getProviderUtil() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class FactoryHandler implements InvocationHandler {
+
+        final EntityManagerFactory factory = (EntityManagerFactory) Proxy.newProxyInstance(EntityManagerFactoryBootstrapTest.class.getClassLoader(), new Class<?>[]{EntityManagerFactory.class}, this);
+
+        volatile boolean closed;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("close")) {
+                closed = true;
+                return null;
+            } else if (method.getName().equals("isOpen")) {
+                return !closed;
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.jboss.seam.persistence.HibernatePersistenceProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the {@link HibernatePersistenceProvider} wraps entity managers
+ * in their Hibernate Search equivalent, and counts the entity managers it
+ * could not wrap
+ */
+public class FullTextWrappingTest {
+
+    @Test
+    public void testEntityManagerIsWrapped() {
+        long failures = HibernatePersistenceProvider.getFullTextWrappingFailures();
+        EntityManager entityManager = (EntityManager) Proxy.newProxyInstance(FullTextWrappingTest.class.getClassLoader(), new Class<?>[]{EntityManager.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        EntityManager wrapped = new HibernatePersistenceProvider().proxyEntityManager(entityManager);
+        Assert.assertTrue(wrapped instanceof FullTextEntityManager);
+        Assert.assertEquals(failures, HibernatePersistenceProvider.getFullTextWrappingFailures());
+    }
+
+    @Test
+    public void testWrappingFailureIsCounted() {
+        long failures = HibernatePersistenceProvider.getFullTextWrappingFailures();
+        // Hibernate Search refuses to wrap a null entity manager
+        Assert.assertNull(new HibernatePersistenceProvider().proxyEntityManager(null));
+        Assert.assertEquals(failures + 1, HibernatePersistenceProvider.getFullTextWrappingFailures());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.jboss.seam.persistence.HibernatePersistenceProvider;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the {@link HibernatePersistenceProvider} marks queries as
+ * cacheable with query hints, and evicts through the Hibernate second level
+ * cache
+ */
+public class HibernateQueryCacheTest {
+
+    @Test
+    public void testQueryIsCacheableInRegion() {
+        Map<String, Object> hints = new HashMap<String, Object>();
+        new HibernatePersistenceProvider().setCacheable(query(hints), "lookups");
+        Assert.assertEquals(Boolean.TRUE, hints.get("org.hibernate.cacheable"));
+        Assert.assertEquals("lookups", hints.get("org.hibernate.cacheRegion"));
+    }
+
+    @Test
+    public void testQueryIsCacheableInDefaultRegion() {
+        Map<String, Object> hints = new HashMap<String, Object>();
+        new HibernatePersistenceProvider().setCacheable(query(hints), null);
+        Assert.assertEquals(Boolean.TRUE, hints.get("org.hibernate.cacheable"));
+        Assert.assertFalse(hints.containsKey("org.hibernate.cacheRegion"));
+    }
+
+    @Test
+    public void testEntityEviction() {
+        List<String> calls = new ArrayList<String>();
+        HibernatePersistenceProvider provider = new HibernatePersistenceProvider();
+        EntityManager entityManager = entityManager(calls);
+        provider.evict(entityManager, Hotel.class);
+        provider.evict(entityManager, Hotel.class, 1);
+        Assert.assertEquals(2, calls.size());
+        Assert.assertEquals("evictEntityRegion " + Hotel.class.getName(), calls.get(0));
+        Assert.assertEquals("evictEntity " + Hotel.class.getName() + " 1", calls.get(1));
+    }
+
+    @Test
+    public void testQueryRegionEviction() {
+        List<String> calls = new ArrayList<String>();
+        HibernatePersistenceProvider provider = new HibernatePersistenceProvider();
+        EntityManager entityManager = entityManager(calls);
+        provider.evictQueryRegion(entityManager, "lookups");
+        provider.evictQueryRegion(entityManager, null);
+        Assert.assertEquals(2, calls.size());
+        Assert.assertEquals("evictQueryRegion lookups", calls.get(0));
+        Assert.assertEquals("evictDefaultQueryRegion", calls.get(1));
+    }
+
+    private static Query query(final Map<String, Object> hints) {
+        return (Query) Proxy.newProxyInstance(HibernateQueryCacheTest.class.getClassLoader(), new Class<?>[]{Query.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("setHint")) {
+                    hints.put((String) args[0], args[1]);
+                    return proxy;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * an entity manager whose Hibernate session records the calls made to the
+     * second level cache
+     */
+    private static EntityManager entityManager(final List<String> calls) {
+        final Cache cache = (Cache) Proxy.newProxyInstance(HibernateQueryCacheTest.class.getClassLoader(), new Class<?>[]{Cache.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                StringBuilder call = new StringBuilder(method.getName());
+                if (args != null) {
+                    for (Object arg : args) {
+                        call.append(' ').append(arg instanceof Class<?> ? ((Class<?>) arg).getName() : arg);
+                    }
+                }
+                calls.add(call.toString());
+                return null;
+            }
+        });
+        final SessionFactory sessionFactory = (SessionFactory) Proxy.newProxyInstance(HibernateQueryCacheTest.class.getClassLoader(), new Class<?>[]{SessionFactory.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getCache")) {
+                    return cache;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final Session session = (Session) Proxy.newProxyInstance(HibernateQueryCacheTest.class.getClassLoader(), new Class<?>[]{Session.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getSessionFactory")) {
+                    return sessionFactory;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final EntityManagerFactory factory = (EntityManagerFactory) Proxy.newProxyInstance(HibernateQueryCacheTest.class.getClassLoader(), new Class<?>[]{EntityManagerFactory.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("isOpen")) {
+                    return true;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return (EntityManager) Proxy.newProxyInstance(HibernateQueryCacheTest.class.getClassLoader(), new Class<?>[]{EntityManager.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getEntityManagerFactory")) {
+                    return factory;
+                } else if (method.getName().equals("getDelegate")) {
+                    return session;
+                } else if (method.getName().equals("unwrap") && args[0] == Session.class) {
+                    return session;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
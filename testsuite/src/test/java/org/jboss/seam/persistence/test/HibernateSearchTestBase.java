@@ -28,6 +28,8 @@ import org.apache.lucene.queryParser.MultiFieldQueryParser;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.util.Version;
 import org.hibernate.search.jpa.FullTextEntityManager;
+import org.jboss.seam.persistence.search.IndexingProgress;
+import org.jboss.seam.persistence.search.SearchIndexer;
 import org.jboss.seam.persistence.test.util.HelloService;
 import org.jboss.seam.persistence.test.util.IndexedHotel;
 import org.jboss.seam.persistence.test.util.ManagedPersistenceContextProvider;
@@ -48,6 +50,9 @@ public class HibernateSearchTestBase {
     @Inject
     FullTextEntityManager em;
 
+    @Inject
+    SearchIndexer indexer;
+
     @Test
     public void testFullTextEntityManager() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
         Assert.assertTrue(em instanceof FullTextEntityManager);
@@ -79,4 +84,23 @@ public class HibernateSearchTestBase {
         transaction.commit();
 
     }
+
+    @Test
+    public void testMassIndexing() throws Exception {
+        transaction.begin();
+        em.persist(new IndexedHotel("Mass Indexed", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+        em.flush();
+        transaction.commit();
+
+        IndexingProgress progress = indexer.batchSize(5).threadsToLoadObjects(1).startAndWait(IndexedHotel.class);
+        Assert.assertTrue(progress.isCompleted());
+        Assert.assertTrue(progress.getDocumentsAdded() >= 1);
+        Assert.assertSame(progress, indexer.getProgress());
+
+        transaction.begin();
+        MultiFieldQueryParser parser = new MultiFieldQueryParser(Version.LUCENE_30, new String[]{"name"}, new StandardAnalyzer(Version.LUCENE_30));
+        javax.persistence.Query persistenceQuery = em.createFullTextQuery(parser.parse("Mass"), IndexedHotel.class);
+        Assert.assertEquals(1, persistenceQuery.getResultList().size());
+        transaction.commit();
+    }
 }
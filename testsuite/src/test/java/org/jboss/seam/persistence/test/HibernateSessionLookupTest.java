@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.jboss.seam.persistence.HibernatePersistenceProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the {@link HibernatePersistenceProvider} only checks the
+ * delegate of the first entity manager of each factory, and unwraps the
+ * session after that
+ */
+public class HibernateSessionLookupTest {
+
+    @Test
+    public void testDelegateIsCheckedOncePerFactory() {
+        EntityManagerFactory factory = factory();
+        Map<String, Integer> calls = new HashMap<String, Integer>();
+        HibernatePersistenceProvider provider = new HibernatePersistenceProvider();
+        Assert.assertTrue(provider.isCorrectProvider(entityManager(factory, true, calls)));
+        EntityManager entityManager = entityManager(factory, true, calls);
+        provider.setFlushModeManual(entityManager);
+        provider.setFlushModeManual(entityManager);
+        Assert.assertEquals(Integer.valueOf(1), calls.get("getDelegate"));
+        Assert.assertEquals(Integer.valueOf(2), calls.get("unwrap"));
+        Assert.assertEquals(Integer.valueOf(2), calls.get("setFlushMode"));
+    }
+
+    @Test
+    public void testOtherProvidersAreNotUnwrapped() {
+        EntityManagerFactory factory = factory();
+        Map<String, Integer> calls = new HashMap<String, Integer>();
+        HibernatePersistenceProvider provider = new HibernatePersistenceProvider();
+        Assert.assertFalse(provider.isCorrectProvider(entityManager(factory, false, calls)));
+        Assert.assertFalse(provider.isCorrectProvider(entityManager(factory, false, calls)));
+        try {
+            provider.setFlushModeManual(entityManager(factory, false, calls));
+            Assert.fail("manual flushing requires Hibernate");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals(Integer.valueOf(1), calls.get("getDelegate"));
+        Assert.assertNull(calls.get("unwrap"));
+    }
+
+    private static EntityManagerFactory factory() {
+        return (EntityManagerFactory) Proxy.newProxyInstance(HibernateSessionLookupTest.class.getClassLoader(), new Class<?>[]{EntityManagerFactory.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("isOpen")) {
+                    return true;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * an entity manager that counts the calls made to it and to its session
+     *
+     * @param hibernate true if the entity manager is backed by a session
+     */
+    private static EntityManager entityManager(final EntityManagerFactory factory, final boolean hibernate, final Map<String, Integer> calls) {
+        final Session session = (Session) Proxy.newProxyInstance(HibernateSessionLookupTest.class.getClassLoader(), new Class<?>[]{Session.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("setFlushMode") && args[0] == FlushMode.MANUAL) {
+                    count(calls, "setFlushMode");
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return (EntityManager) Proxy.newProxyInstance(HibernateSessionLookupTest.class.getClassLoader(), new Class<?>[]{EntityManager.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getEntityManagerFactory")) {
+                    return factory;
+                }
+                count(calls, method.getName());
+                if (method.getName().equals("getDelegate")) {
+                    return hibernate ? session : new Object();
+                } else if (method.getName().equals("unwrap")) {
+                    if (hibernate && args[0] == Session.class) {
+                        return session;
+                    }
+                    throw new PersistenceException("cannot unwrap " + args[0]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static void count(Map<String, Integer> calls, String name) {
+        Integer count = calls.get(name);
+        calls.put(name, count == null ? 1 : count + 1);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import javax.enterprise.inject.spi.BeanManager;
+
+import org.jboss.seam.persistence.InjectionEventListener;
+import org.jboss.seam.persistence.test.util.VersionedHotel;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the {@link InjectionEventListener} leaves entities without
+ * injection points alone
+ */
+public class InjectionEventListenerTest {
+
+    @Test
+    public void testEntityWithoutInjectionPointsIsUntouched() {
+        CountingInjectionEventListener listener = new CountingInjectionEventListener();
+        VersionedHotel hotel = new VersionedHotel("Hilton");
+        hotel.setId(1);
+        hotel.setVersion(2);
+        for (int i = 0; i < 3; ++i) {
+            listener.load(hotel);
+        }
+        listener.load(new VersionedHotel("Ritz"));
+        Assert.assertEquals("Hilton", hotel.getName());
+        Assert.assertEquals(1, hotel.getId());
+        Assert.assertEquals(2, hotel.getVersion());
+        Assert.assertEquals(0, listener.beanManagerLookups);
+    }
+
+    @Test
+    public void testAlternatingEntitiesWithoutInjectionPoints() {
+        CountingInjectionEventListener listener = new CountingInjectionEventListener();
+        for (int i = 0; i < 3; ++i) {
+            listener.load(new VersionedHotel("Hotel " + i));
+            listener.load("not an entity");
+        }
+        Assert.assertEquals(0, listener.beanManagerLookups);
+    }
+
+    /**
+     * the BeanManager is only needed to inject entities, so it must not be
+     * looked up here
+     */
+    private static class CountingInjectionEventListener extends InjectionEventListener {
+        int beanManagerLookups;
+
+        @Override
+        public BeanManager getBeanManager() {
+            ++beanManagerLookups;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.persistence.EntityManager;
+
+import org.jboss.seam.persistence.metrics.JmxPersistenceMetrics;
+import org.jboss.seam.persistence.metrics.PersistenceContextMetrics;
+import org.jboss.seam.persistence.metrics.TenantMetrics;
+import org.jboss.solder.literal.DefaultLiteral;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the MBeans that {@link JmxPersistenceMetrics} registers
+ */
+public class JmxPersistenceMetricsTest {
+
+    private static final Set<Annotation> QUALIFIERS = Collections.<Annotation>singleton(DefaultLiteral.INSTANCE);
+
+    private MBeanServer server;
+
+    private JmxPersistenceMetrics metrics;
+
+    @Before
+    public void setUp() {
+        server = MBeanServerFactory.newMBeanServer();
+        metrics = new JmxPersistenceMetrics(server);
+    }
+
+    @Test
+    public void testPersistenceContextIsRegisteredOnceUnderItsQualifiers() throws Exception {
+        PersistenceContextMetrics first = metrics.getPersistenceContextMetrics(QUALIFIERS, EntityManager.class);
+        Assert.assertSame(first, metrics.getPersistenceContextMetrics(QUALIFIERS, EntityManager.class));
+        Set<ObjectName> names = server.queryNames(new ObjectName(JmxPersistenceMetrics.DOMAIN + ":type=PersistenceContextMetrics,*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+        Assert.assertEquals(2, name.getKeyPropertyList().size());
+        Assert.assertEquals(QUALIFIERS.toString(), ObjectName.unquote(name.getKeyProperty("qualifiers")));
+    }
+
+    @Test
+    public void testEvictedTenantIsUnregistered() throws Exception {
+        TenantMetrics first = metrics.getTenantMetrics(QUALIFIERS, "acme");
+        Assert.assertSame(first, metrics.getTenantMetrics(QUALIFIERS, "acme"));
+        metrics.getTenantMetrics(QUALIFIERS, "initech");
+        Assert.assertEquals(2, countTenants());
+        metrics.releaseTenantMetrics(QUALIFIERS, "acme");
+        Assert.assertEquals(1, countTenants());
+        Assert.assertNotSame(first, metrics.getTenantMetrics(QUALIFIERS, "acme"));
+        Assert.assertEquals(2, countTenants());
+    }
+
+    @Test
+    public void testCloseUnregistersEverything() throws Exception {
+        metrics.getPersistenceContextMetrics(QUALIFIERS, EntityManager.class);
+        metrics.getTenantMetrics(QUALIFIERS, "acme");
+        metrics.close();
+        Assert.assertTrue(server.queryNames(new ObjectName(JmxPersistenceMetrics.DOMAIN + ":*"), null).isEmpty());
+    }
+
+    private int countTenants() throws Exception {
+        return server.queryNames(new ObjectName(JmxPersistenceMetrics.DOMAIN + ":type=TenantMetrics,*"), null).size();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import org.jboss.seam.persistence.metrics.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the bucketing and percentile maths of {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getMean(), 0);
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (long value = 0; value < 16; ++value) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            Assert.assertEquals(value, histogram.getValueAtPercentile(50));
+        }
+    }
+
+    @Test
+    public void testNegativeValuesAreRecordedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        Assert.assertEquals(1, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testRelativeErrorIsBounded() {
+        for (long value = 1; value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            // a second, larger value stops the result being capped by the maximum
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+            long reported = histogram.getValueAtPercentile(50);
+            Assert.assertTrue("reported " + reported + " for " + value, reported >= value);
+            Assert.assertTrue("reported " + reported + " for " + value, reported - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; ++value) {
+            histogram.record(value * 1000);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500500, histogram.getMean(), 0.001);
+        assertWithinBucket(500000, histogram.getValueAtPercentile(50));
+        assertWithinBucket(990000, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(1000000, histogram.getValueAtPercentile(100));
+        assertWithinBucket(1000, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testPercentileIsCappedByMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        Assert.assertEquals(1000, histogram.getValueAtPercentile(99));
+    }
+
+    private static void assertWithinBucket(long expected, long reported) {
+        Assert.assertTrue("expected about " + expected + " but was " + reported, reported >= expected && reported - expected <= expected / 8);
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.jboss.seam.persistence.test;
 
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.transaction.HeuristicMixedException;
@@ -25,12 +27,16 @@ import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 
 import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.seam.persistence.ParsedQuery;
+import org.jboss.seam.persistence.ParsedQueryCache;
 import org.jboss.seam.persistence.test.util.HelloService;
 import org.jboss.seam.persistence.test.util.Hotel;
 import org.jboss.seam.persistence.test.util.HotelNameProducer;
+import org.jboss.seam.persistence.test.util.HotelFilter;
 import org.jboss.seam.persistence.test.util.ManagedPersistenceContextProvider;
 import org.jboss.seam.transaction.DefaultTransaction;
 import org.jboss.seam.transaction.SeamTransaction;
+import org.jboss.solder.el.Expressions;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -39,7 +45,7 @@ import org.junit.runner.RunWith;
 public class ManagedPersistenceContextELTestBase {
 
     public static Class<?>[] getTestClasses() {
-        return new Class[]{ManagedPersistenceContextELTestBase.class, Hotel.class, ManagedPersistenceContextProvider.class, HotelNameProducer.class, HelloService.class};
+        return new Class[]{ManagedPersistenceContextELTestBase.class, Hotel.class, ManagedPersistenceContextProvider.class, HotelNameProducer.class, HotelFilter.class, HelloService.class};
     }
 
     @Inject
@@ -49,6 +55,15 @@ public class ManagedPersistenceContextELTestBase {
     @Inject
     EntityManager em;
 
+    @Inject
+    ParsedQueryCache parsedQueryCache;
+
+    @Inject
+    HotelFilter hotelFilter;
+
+    @Inject
+    Expressions expressions;
+
     @Test
     public void testELInInquery() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
         transaction.begin();
@@ -71,4 +86,52 @@ public class ManagedPersistenceContextELTestBase {
 
     }
 
+    @Test
+    public void testELQueryIsParsedOnce() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        String query = "select h from Hotel h where h.name=#{hotelName} and h.city='Wollongong'";
+        transaction.begin();
+        em.createQuery(query).getResultList();
+        long misses = parsedQueryCache.getMisses();
+        long hits = parsedQueryCache.getHits();
+        em.createQuery(query).getResultList();
+        Assert.assertEquals(misses, parsedQueryCache.getMisses());
+        Assert.assertEquals(hits + 1, parsedQueryCache.getHits());
+        transaction.commit();
+    }
+
+    @Test
+    public void testCompiledExpressionIsEvaluatedEachTime() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        String query = "select h from Hotel h where h.name=#{hotelFilter.name} and h.city='Compiled'";
+        transaction.begin();
+        em.persist(new Hotel("First", "Fake St", "Compiled", "NSW", "2518", "Australia"));
+        em.persist(new Hotel("Second", "Fake St", "Compiled", "NSW", "2518", "Australia"));
+        em.flush();
+
+        hotelFilter.setName("First");
+        Assert.assertEquals("First", ((Hotel) em.createQuery(query).getSingleResult()).getName());
+        ParsedQuery parsed = parsedQueryCache.getParsedQuery(query, expressions);
+        Assert.assertEquals(1, parsed.getParameterCount());
+        Assert.assertEquals("#{hotelFilter.name}", parsed.getExpressions().get(0));
+
+        // the cached expression must not have captured the first value
+        hotelFilter.setName("Second");
+        Assert.assertEquals("Second", ((Hotel) em.createQuery(query).getSingleResult()).getName());
+        Assert.assertSame(parsed, parsedQueryCache.getParsedQuery(query, expressions));
+        transaction.rollback();
+    }
+
+    @Test
+    public void testELInStringLiteralIsNotEvaluated() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        transaction.begin();
+        Hotel h = new Hotel("Hilton", "#{notEl}", "Wollongong", "NSW", "2518", "Australia");
+        em.persist(h);
+        em.flush();
+        // only matches if the literal is passed through unchanged
+        List<?> hotels = em.createQuery("select h from Hotel h where h.name=#{hotelName} and h.address = '#{notEl}'").getResultList();
+        Assert.assertEquals(1, hotels.size());
+        Assert.assertSame(h, hotels.get(0));
+        // rolled back so the other tests still find a single Hilton
+        transaction.rollback();
+    }
+
 }
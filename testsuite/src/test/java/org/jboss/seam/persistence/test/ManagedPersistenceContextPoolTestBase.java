@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import junit.framework.Assert;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.jboss.seam.persistence.EntityManagerPool;
+import org.jboss.seam.persistence.ManagedPersistenceContextExtension;
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.persistence.test.util.ManagedPersistenceContextProvider;
+import org.junit.Test;
+
+/**
+ * Tests pooling of request scoped SMPCs. The test deployment must be created
+ * with the pool size system property set. Each request is simulated by
+ * creating and destroying the SMPC bean instance, and transactions are
+ * begun on the entity manager itself, as the seam transaction belongs to the
+ * SMPC of the current request.
+ */
+public class ManagedPersistenceContextPoolTestBase {
+
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{ManagedPersistenceContextPoolTestBase.class, Hotel.class, ManagedPersistenceContextProvider.class, HelloService.class};
+    }
+
+    @Inject
+    BeanManager manager;
+
+    @Inject
+    ManagedPersistenceContextExtension extension;
+
+    @Test
+    public void testClearedEntityManagerIsReusedByNextRequest() {
+        Bean<EntityManager> bean = getBean();
+        EntityManagerPool pool = extension.getPool(bean.getQualifiers());
+        Assert.assertNotNull(pool);
+
+        CreationalContext<EntityManager> ctx = manager.createCreationalContext(bean);
+        EntityManager em = bean.create(ctx);
+        em.getTransaction().begin();
+        Hotel hotel = new Hotel("pooled", "Fake St", "Wollongong", "NSW", "2518", "Australia");
+        em.persist(hotel);
+        em.getTransaction().commit();
+        Assert.assertTrue(em.contains(hotel));
+        Object session = em.getDelegate();
+        bean.destroy(em, ctx);
+        try {
+            em.find(Hotel.class, hotel.getId());
+            Assert.fail("the released SMPC must not reach the pooled entity manager");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        long hits = pool.getHits();
+        CreationalContext<EntityManager> nextCtx = manager.createCreationalContext(bean);
+        EntityManager next = bean.create(nextCtx);
+        try {
+            Assert.assertEquals(hits + 1, pool.getHits());
+            Assert.assertSame(session, next.getDelegate());
+            Assert.assertFalse(next.contains(hotel));
+            Hotel loaded = next.find(Hotel.class, hotel.getId());
+            Assert.assertNotNull(loaded);
+            Assert.assertNotSame(hotel, loaded);
+        } finally {
+            bean.destroy(next, nextCtx);
+        }
+    }
+
+    @Test
+    public void testEntityManagerWithActiveTransactionIsNotPooled() {
+        Bean<EntityManager> bean = getBean();
+        EntityManagerPool pool = extension.getPool(bean.getQualifiers());
+        Assert.assertNotNull(pool);
+
+        CreationalContext<EntityManager> ctx = manager.createCreationalContext(bean);
+        EntityManager em = bean.create(ctx);
+        // the SMPC does not know about this transaction, so it offers the
+        // entity manager to the pool when it is destroyed
+        EntityTransaction entityTransaction = em.getTransaction();
+        entityTransaction.begin();
+        Object session = em.getDelegate();
+        long rejected = pool.getRejected();
+        bean.destroy(em, ctx);
+        entityTransaction.rollback();
+        Assert.assertEquals(rejected + 1, pool.getRejected());
+
+        CreationalContext<EntityManager> nextCtx = manager.createCreationalContext(bean);
+        EntityManager next = bean.create(nextCtx);
+        try {
+            Assert.assertNotSame(session, next.getDelegate());
+        } finally {
+            bean.destroy(next, nextCtx);
+        }
+    }
+
+    @Test
+    public void testSessionStateIsResetForNextRequest() {
+        Bean<EntityManager> bean = getBean();
+
+        CreationalContext<EntityManager> ctx = manager.createCreationalContext(bean);
+        EntityManager em = bean.create(ctx);
+        Session session = (Session) em.getDelegate();
+        session.enableFilter("hotelCity").setParameter("city", "Nowhere");
+        session.setDefaultReadOnly(true);
+        session.setCacheMode(CacheMode.IGNORE);
+        bean.destroy(em, ctx);
+
+        CreationalContext<EntityManager> nextCtx = manager.createCreationalContext(bean);
+        EntityManager next = bean.create(nextCtx);
+        try {
+            Assert.assertSame(session, next.getDelegate());
+            Assert.assertNull(session.getEnabledFilter("hotelCity"));
+            Assert.assertFalse(session.isDefaultReadOnly());
+            Assert.assertEquals(CacheMode.NORMAL, session.getCacheMode());
+        } finally {
+            bean.destroy(next, nextCtx);
+        }
+    }
+
+    @Test
+    public void testEntityManagerWithPropertySetIsNotPooled() {
+        Bean<EntityManager> bean = getBean();
+        EntityManagerPool pool = extension.getPool(bean.getQualifiers());
+
+        CreationalContext<EntityManager> ctx = manager.createCreationalContext(bean);
+        EntityManager em = bean.create(ctx);
+        em.setProperty("javax.persistence.lock.timeout", 1000);
+        Object session = em.getDelegate();
+        long rejected = pool.getRejected();
+        bean.destroy(em, ctx);
+        Assert.assertEquals(rejected + 1, pool.getRejected());
+
+        CreationalContext<EntityManager> nextCtx = manager.createCreationalContext(bean);
+        EntityManager next = bean.create(nextCtx);
+        try {
+            Assert.assertNotSame(session, next.getDelegate());
+        } finally {
+            bean.destroy(next, nextCtx);
+        }
+    }
+
+    private Bean<EntityManager> getBean() {
+        return (Bean) manager.resolve(manager.getBeans(EntityManager.class));
+    }
+}
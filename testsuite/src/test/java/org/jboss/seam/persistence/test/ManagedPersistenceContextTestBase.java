@@ -18,8 +18,12 @@ package org.jboss.seam.persistence.test;
 
 import java.util.List;
 
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.NotSupportedException;
@@ -27,6 +31,8 @@ import javax.transaction.RollbackException;
 import javax.transaction.SystemException;
 
 import junit.framework.Assert;
+import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.QueryIterator;
 import org.jboss.seam.persistence.test.util.HelloService;
 import org.jboss.seam.persistence.test.util.Hotel;
 import org.jboss.seam.persistence.test.util.ManagedPersistenceContextProvider;
@@ -47,6 +53,9 @@ public class ManagedPersistenceContextTestBase {
     @Inject
     EntityManager em;
 
+    @Inject
+    BeanManager manager;
+
     @Test
     public void testManagedPersistenceContext() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
         transaction.begin();
@@ -67,4 +76,79 @@ public class ManagedPersistenceContextTestBase {
         transaction.rollback();
     }
 
+    @Test
+    public void testDestroyingInjectedFactoryDoesNotCloseSharedFactory() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        Bean<EntityManagerFactory> bean = (Bean) manager.resolve(manager.getBeans(EntityManagerFactory.class));
+        CreationalContext<EntityManagerFactory> ctx = manager.createCreationalContext(bean);
+        EntityManagerFactory emf = (EntityManagerFactory) manager.getReference(bean, EntityManagerFactory.class, ctx);
+        Assert.assertTrue(emf.isOpen());
+        // destroys the injected instance, as happens when the bean it was
+        // injected into is destroyed
+        ctx.release();
+
+        transaction.begin();
+        Assert.assertTrue(em.getEntityManagerFactory().isOpen());
+        em.persist(new Hotel("destroyed", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+        em.flush();
+        transaction.rollback();
+    }
+
+    @Test
+    public void testBatchModeFlushesAndClears() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        ManagedPersistenceContext smpc = (ManagedPersistenceContext) em;
+        smpc.setBatchSize(2);
+        try {
+            Assert.assertEquals(2, smpc.getBatchSize());
+            transaction.begin();
+            Hotel first = new Hotel("batch1", "Fake St", "Wollongong", "NSW", "2518", "Australia");
+            em.persist(first);
+            Assert.assertTrue(em.contains(first));
+            Hotel second = new Hotel("batch2", "Fake St", "Wollongong", "NSW", "2518", "Australia");
+            em.persist(second);
+            // the second persist completes the batch
+            Assert.assertFalse(em.contains(first));
+            Assert.assertFalse(em.contains(second));
+            transaction.rollback();
+        } finally {
+            smpc.setBatchSize(0);
+        }
+    }
+
+    @Test
+    public void testIterate() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        ManagedPersistenceContext smpc = (ManagedPersistenceContext) em;
+        transaction.begin();
+        for (int i = 0; i < 5; ++i) {
+            em.persist(new Hotel("iterate" + i, "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+        }
+        em.flush();
+
+        QueryIterator<Hotel> hotels = smpc.iterate(em.createQuery("select h from Hotel h where h.name like 'iterate%' order by h.name"), 2);
+        try {
+            int count = 0;
+            while (hotels.hasNext()) {
+                Hotel hotel = hotels.next();
+                Assert.assertEquals("iterate" + count, hotel.getName());
+                Assert.assertTrue(em.contains(hotel));
+                ++count;
+            }
+            Assert.assertEquals(5, count);
+        } finally {
+            hotels.close();
+        }
+
+        QueryIterator<Hotel> all = smpc.iterate(Hotel.class, 2);
+        try {
+            int count = 0;
+            while (all.hasNext()) {
+                all.next();
+                ++count;
+            }
+            Assert.assertTrue(count >= 5);
+        } finally {
+            all.close();
+        }
+        transaction.rollback();
+    }
+
 }
@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.enterprise.inject.Default;
+import javax.enterprise.inject.Instance;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.util.AnnotationLiteral;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import org.jboss.seam.persistence.TenantEntityManagerFactoryCache;
+import org.jboss.seam.persistence.TenantEntityManagerFactoryCache.TenantFactory;
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.persistence.test.util.MultiTenantProvider;
+import org.jboss.seam.persistence.test.util.TestTenantResolver;
+import org.jboss.seam.transaction.DefaultTransaction;
+import org.jboss.seam.transaction.SeamTransaction;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MultiTenantTestBase {
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{MultiTenantTestBase.class, Hotel.class, MultiTenantProvider.class, TestTenantResolver.class, HelloService.class};
+    }
+
+    @Inject
+    @DefaultTransaction
+    SeamTransaction transaction;
+
+    /**
+     * the SMPC is dependent, so every lookup creates a new persistence
+     * context for the current tenant
+     */
+    @Inject
+    Instance<EntityManager> entityManagers;
+
+    @Inject
+    TestTenantResolver tenantResolver;
+
+    @Inject
+    BeanManager manager;
+
+    @Test
+    public void testTenantsUseSeparateDatabases() throws Exception {
+        tenantResolver.setCurrentTenant("first");
+        transaction.begin();
+        EntityManager first = entityManagers.get();
+        first.persist(new Hotel("First Hotel", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+        transaction.commit();
+
+        tenantResolver.setCurrentTenant("second");
+        EntityManager second = entityManagers.get();
+        Assert.assertTrue(second.createQuery("select h from Hotel h").getResultList().isEmpty());
+        Assert.assertFalse(first.getEntityManagerFactory() == second.getEntityManagerFactory());
+
+        tenantResolver.setCurrentTenant("first");
+        EntityManager firstAgain = entityManagers.get();
+        Assert.assertEquals(1, firstAgain.createQuery("select h from Hotel h").getResultList().size());
+        Assert.assertSame(first.getEntityManagerFactory(), firstAgain.getEntityManagerFactory());
+    }
+
+    @Test
+    public void testEvictionSkipsLeasedFactories() {
+        TenantEntityManagerFactoryCache cache = createCache(1, 0);
+        try {
+            TenantFactory first = cache.acquire("evictFirst");
+            TenantFactory second = cache.acquire("evictSecond");
+            // both are leased, so neither may be closed to make room
+            cache.evictIfRequired();
+            Assert.assertTrue(first.getEntityManagerFactory().isOpen());
+            Assert.assertTrue(second.getEntityManagerFactory().isOpen());
+
+            cache.release(first);
+            cache.evictIfRequired();
+            Assert.assertFalse(first.getEntityManagerFactory().isOpen());
+            Assert.assertTrue(second.getEntityManagerFactory().isOpen());
+            cache.release(second);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testIdleFactoriesAreEvicted() throws Exception {
+        TenantEntityManagerFactoryCache cache = createCache(10, 1);
+        try {
+            TenantFactory idle = cache.acquire("idle");
+            TenantFactory busy = cache.acquire("busy");
+            cache.release(idle);
+            Thread.sleep(50);
+            cache.evictIfRequired();
+            Assert.assertFalse(idle.getEntityManagerFactory().isOpen());
+            // a leased factory is never idle
+            Assert.assertTrue(busy.getEntityManagerFactory().isOpen());
+            cache.release(busy);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testFailedBuildIsRetried() {
+        TenantEntityManagerFactoryCache cache = createCache(10, 0);
+        try {
+            tenantResolver.setBroken("retry", true);
+            try {
+                cache.acquire("retry");
+                Assert.fail("the factory of a broken tenant must not be built");
+            } catch (RuntimeException e) {
+                // expected
+            }
+            tenantResolver.setBroken("retry", false);
+            TenantFactory factory = cache.acquire("retry");
+            Assert.assertTrue(factory.getEntityManagerFactory().isOpen());
+            cache.release(factory);
+        } finally {
+            tenantResolver.setBroken("retry", false);
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testReleaseOnlyAffectsTheLeasedFactory() {
+        TenantEntityManagerFactoryCache cache = createCache(1, 0);
+        try {
+            // leased throughout, so only the other tenant can make room
+            TenantFactory other = cache.acquire("other");
+            TenantFactory evicted = cache.acquire("rebuilt");
+            cache.release(evicted);
+            cache.evictIfRequired();
+            Assert.assertFalse(evicted.getEntityManagerFactory().isOpen());
+
+            TenantFactory rebuilt = cache.acquire("rebuilt");
+            Assert.assertNotSame(evicted, rebuilt);
+            // a second release of the evicted factory's lease must not give
+            // up the lease on the factory that replaced it
+            cache.release(evicted);
+            cache.release(other);
+            cache.evictIfRequired();
+            Assert.assertTrue(rebuilt.getEntityManagerFactory().isOpen());
+            Assert.assertFalse(other.getEntityManagerFactory().isOpen());
+            cache.release(rebuilt);
+        } finally {
+            cache.close();
+        }
+    }
+
+    private TenantEntityManagerFactoryCache createCache(int maxTenants, long maxIdleMillis) {
+        Set<Annotation> qualifiers = Collections.<Annotation>singleton(new AnnotationLiteral<Default>() {
+        });
+        return new TenantEntityManagerFactoryCache(qualifiers, "seamPersistencePu", Collections.<String, Object>emptyMap(), maxTenants, maxIdleMillis, manager);
+    }
+}
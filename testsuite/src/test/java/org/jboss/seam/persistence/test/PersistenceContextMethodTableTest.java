@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.hibernate.Session;
+import org.jboss.seam.persistence.FlushModeType;
+import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.PersistenceContextMethodTable;
+import org.jboss.seam.persistence.PersistenceContextMethodTable.MethodType;
+import org.jboss.seam.persistence.hibernate.ManagedHibernateSession;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the classification of proxy methods in the
+ * {@link PersistenceContextMethodTable}
+ */
+public class PersistenceContextMethodTableTest {
+
+    private final PersistenceContextMethodTable entityManagerTable = new PersistenceContextMethodTable(EntityManager.class, ManagedPersistenceContext.class);
+
+    private final PersistenceContextMethodTable sessionTable = new PersistenceContextMethodTable(Session.class, ManagedPersistenceContext.class, ManagedHibernateSession.class);
+
+    @Test
+    public void testManagedPersistenceContextMethods() throws NoSuchMethodException {
+        assertType(MethodType.CHANGE_FLUSH_MODE, ManagedPersistenceContext.class, "changeFlushMode", FlushModeType.class);
+        assertType(MethodType.GET_BEAN_TYPE, ManagedPersistenceContext.class, "getBeanType");
+        assertType(MethodType.GET_QUALIFIERS, ManagedPersistenceContext.class, "getQualifiers");
+        assertType(MethodType.GET_PROVIDER, ManagedPersistenceContext.class, "getProvider");
+        assertType(MethodType.CLOSE_AFTER_TRANSACTION, ManagedPersistenceContext.class, "closeAfterTransaction");
+        assertType(MethodType.SET_BATCH_SIZE, ManagedPersistenceContext.class, "setBatchSize", int.class);
+        assertType(MethodType.GET_BATCH_SIZE, ManagedPersistenceContext.class, "getBatchSize");
+        assertType(MethodType.ITERATE, ManagedPersistenceContext.class, "iterate", Query.class, int.class);
+        assertType(MethodType.ITERATE, ManagedPersistenceContext.class, "iterate", Class.class, int.class);
+    }
+
+    @Test
+    public void testEntityManagerMethods() throws NoSuchMethodException {
+        assertType(MethodType.GET_TRANSACTION, EntityManager.class, "getTransaction");
+        assertType(MethodType.SET_FLUSH_MODE, EntityManager.class, "setFlushMode", javax.persistence.FlushModeType.class);
+        assertType(MethodType.FLUSH, EntityManager.class, "flush");
+        assertType(MethodType.PERSIST, EntityManager.class, "persist", Object.class);
+        assertType(MethodType.FIND, EntityManager.class, "find", Class.class, Object.class);
+        assertType(MethodType.FIND, EntityManager.class, "find", Class.class, Object.class, Map.class);
+        assertType(MethodType.FIND, EntityManager.class, "getReference", Class.class, Object.class);
+        assertType(MethodType.WRITE, EntityManager.class, "merge", Object.class);
+        assertType(MethodType.WRITE, EntityManager.class, "remove", Object.class);
+        assertType(MethodType.ENTITY_ARGUMENT, EntityManager.class, "refresh", Object.class);
+        assertType(MethodType.ENTITY_ARGUMENT, EntityManager.class, "lock", Object.class, LockModeType.class);
+        assertType(MethodType.SET_PROPERTY, EntityManager.class, "setProperty", String.class, Object.class);
+        assertType(MethodType.CREATE_QUERY, EntityManager.class, "createQuery", String.class);
+        assertType(MethodType.CREATE_QUERY, EntityManager.class, "createQuery", String.class, Class.class);
+        assertType(MethodType.QUERY, EntityManager.class, "createQuery", CriteriaQuery.class);
+        assertType(MethodType.QUERY, EntityManager.class, "createNamedQuery", String.class);
+        assertType(MethodType.QUERY, EntityManager.class, "createNativeQuery", String.class);
+        assertType(MethodType.PASSTHROUGH, EntityManager.class, "contains", Object.class);
+        assertType(MethodType.PASSTHROUGH, EntityManager.class, "clear");
+        assertType(MethodType.PASSTHROUGH, Object.class, "hashCode");
+    }
+
+    @Test
+    public void testSessionMethods() throws NoSuchMethodException {
+        assertSessionType(MethodType.PERSIST, "save", Object.class);
+        assertSessionType(MethodType.PERSIST, "persist", Object.class);
+        assertSessionType(MethodType.WRITE, "update", Object.class);
+        assertSessionType(MethodType.WRITE, "saveOrUpdate", Object.class);
+        assertSessionType(MethodType.WRITE, "delete", Object.class);
+        assertSessionType(MethodType.WRITE, "merge", Object.class);
+        assertSessionType(MethodType.CREATE_QUERY, "createQuery", String.class);
+        assertSessionType(MethodType.FLUSH, "flush");
+        assertSessionType(MethodType.GET_TRANSACTION, "getTransaction");
+        Assert.assertEquals(MethodType.ITERATE, sessionTable.getMethodType(ManagedHibernateSession.class.getMethod("iterate", org.hibernate.Query.class, int.class)));
+        // only the entity manager versions are routed to read replicas
+        assertSessionType(MethodType.PASSTHROUGH, "get", Class.class, java.io.Serializable.class);
+        assertSessionType(MethodType.PASSTHROUGH, "createSQLQuery", String.class);
+    }
+
+    @Test
+    public void testUnknownMethodsAreClassified() throws NoSuchMethodException {
+        PersistenceContextMethodTable empty = new PersistenceContextMethodTable();
+        Assert.assertEquals(MethodType.FLUSH, empty.getMethodType(EntityManager.class.getMethod("flush")));
+        Assert.assertEquals(MethodType.PASSTHROUGH, empty.getMethodType(Object.class.getMethod("toString")));
+    }
+
+    private void assertType(MethodType expected, Class<?> type, String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        Method method = type.getMethod(name, parameterTypes);
+        Assert.assertEquals(method.toString(), expected, entityManagerTable.getMethodType(method));
+    }
+
+    private void assertSessionType(MethodType expected, String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        Method method = Session.class.getMethod(name, parameterTypes);
+        Assert.assertEquals(method.toString(), expected, sessionTable.getMethodType(method));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.jboss.seam.persistence.FlushModeType;
+import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.PersistenceContextsImpl;
+import org.jboss.seam.persistence.QueryIterator;
+import org.jboss.seam.persistence.SeamPersistenceProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that flush mode changes only reach the persistence contexts that are
+ * currently touched
+ */
+public class PersistenceContextsFanOutTest {
+
+    @Test
+    public void testFlushModeChangeReachesTouchedContexts() {
+        PersistenceContextsImpl persistenceContexts = new PersistenceContextsImpl();
+        RecordingPersistenceContext first = new RecordingPersistenceContext();
+        RecordingPersistenceContext second = new RecordingPersistenceContext();
+        persistenceContexts.touch(0, first);
+        persistenceContexts.touch(3, second);
+
+        persistenceContexts.changeFlushMode(FlushModeType.MANUAL);
+
+        Assert.assertEquals(Collections.singletonList(FlushModeType.MANUAL), first.flushModes);
+        Assert.assertEquals(Collections.singletonList(FlushModeType.MANUAL), second.flushModes);
+    }
+
+    @Test
+    public void testUntouchedContextIsNotChanged() {
+        PersistenceContextsImpl persistenceContexts = new PersistenceContextsImpl();
+        RecordingPersistenceContext touched = new RecordingPersistenceContext();
+        RecordingPersistenceContext untouched = new RecordingPersistenceContext();
+        persistenceContexts.touch(0, touched);
+        persistenceContexts.touch(1, untouched);
+        persistenceContexts.untouch(1, untouched);
+
+        persistenceContexts.changeFlushMode(FlushModeType.COMMIT);
+
+        Assert.assertEquals(Collections.singletonList(FlushModeType.COMMIT), touched.flushModes);
+        Assert.assertTrue(untouched.flushModes.isEmpty());
+    }
+
+    @Test
+    public void testTouchingAgainDoesNotChangeFlushMode() {
+        PersistenceContextsImpl persistenceContexts = new PersistenceContextsImpl();
+        RecordingPersistenceContext context = new RecordingPersistenceContext();
+        persistenceContexts.changeFlushMode(FlushModeType.MANUAL);
+        persistenceContexts.touch(0, context);
+        persistenceContexts.touch(0, context);
+
+        Assert.assertTrue(context.flushModes.isEmpty());
+    }
+
+    private static class RecordingPersistenceContext implements ManagedPersistenceContext {
+
+        final List<FlushModeType> flushModes = new ArrayList<FlushModeType>();
+
+        public void changeFlushMode(FlushModeType flushMode) {
+            flushModes.add(flushMode);
+        }
+
+        public Set<Annotation> getQualifiers() {
+            return Collections.emptySet();
+        }
+
+        public Class<?> getBeanType() {
+            return EntityManager.class;
+        }
+
+        public SeamPersistenceProvider getProvider() {
+            return null;
+        }
+
+        public void closeAfterTransaction() {
+        }
+
+        public void setBatchSize(int batchSize) {
+        }
+
+        public int getBatchSize() {
+            return 0;
+        }
+
+        public <T> QueryIterator<T> iterate(Query query, int fetchSize) {
+            return null;
+        }
+
+        public <T> QueryIterator<T> iterate(Class<T> entityClass, int fetchSize) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.jboss.seam.persistence.DefaultPersistenceProvider;
+import org.jboss.seam.persistence.ExtendedPersistenceProvider;
+import org.jboss.seam.persistence.PersistenceProviderCache;
+import org.jboss.seam.persistence.SeamPersistenceProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the {@link PersistenceProviderCache} resolves the provider once
+ * per factory
+ */
+public class PersistenceProviderCacheTest {
+
+    @Test
+    public void testProviderIsResolvedOncePerFactory() {
+        CountingPersistenceProvider provider = new CountingPersistenceProvider();
+        List<SeamPersistenceProvider> candidates = Collections.<SeamPersistenceProvider>singletonList(provider);
+        FactoryHandler factory = new FactoryHandler();
+        EntityManager em = entityManager(factory.createFactory());
+        try {
+            Assert.assertSame(provider, PersistenceProviderCache.getProvider(em, candidates));
+            Assert.assertSame(provider, PersistenceProviderCache.getProvider(em, candidates));
+            Assert.assertSame(provider, PersistenceProviderCache.getProvider(entityManager(em.getEntityManagerFactory()), candidates));
+            Assert.assertEquals(1, provider.resolved);
+        } finally {
+            PersistenceProviderCache.remove(em.getEntityManagerFactory());
+        }
+    }
+
+    @Test
+    public void testEachFactoryIsResolved() {
+        CountingPersistenceProvider provider = new CountingPersistenceProvider();
+        List<SeamPersistenceProvider> candidates = Collections.<SeamPersistenceProvider>singletonList(provider);
+        EntityManagerFactory first = new FactoryHandler().createFactory();
+        EntityManagerFactory second = new FactoryHandler().createFactory();
+        try {
+            PersistenceProviderCache.getProvider(entityManager(first), candidates);
+            PersistenceProviderCache.getProvider(entityManager(second), candidates);
+            Assert.assertEquals(2, provider.resolved);
+        } finally {
+            PersistenceProviderCache.remove(first);
+            PersistenceProviderCache.remove(second);
+        }
+    }
+
+    @Test
+    public void testRemovedFactoryIsResolvedAgain() {
+        CountingPersistenceProvider provider = new CountingPersistenceProvider();
+        List<SeamPersistenceProvider> candidates = Collections.<SeamPersistenceProvider>singletonList(provider);
+        EntityManagerFactory factory = new FactoryHandler().createFactory();
+        try {
+            PersistenceProviderCache.getProvider(entityManager(factory), candidates);
+            PersistenceProviderCache.remove(factory);
+            PersistenceProviderCache.getProvider(entityManager(factory), candidates);
+            Assert.assertEquals(2, provider.resolved);
+        } finally {
+            PersistenceProviderCache.remove(factory);
+        }
+    }
+
+    @Test
+    public void testProviderWithoutOptionalFeaturesGetsDefaults() {
+        SeamPersistenceProvider provider = (SeamPersistenceProvider) Proxy.newProxyInstance(PersistenceProviderCacheTest.class.getClassLoader(), new Class<?>[]{SeamPersistenceProvider.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        ExtendedPersistenceProvider extended = PersistenceProviderCache.getExtendedProvider(provider);
+        Assert.assertNotNull(extended);
+        Assert.assertEquals(-1, extended.getManagedEntityCount(entityManager(new FactoryHandler().createFactory())));
+        Assert.assertTrue(extended.getBatchProperties(50).isEmpty());
+
+        CountingPersistenceProvider counting = new CountingPersistenceProvider();
+        Assert.assertSame(counting, PersistenceProviderCache.getExtendedProvider(counting));
+    }
+
+    private static EntityManager entityManager(final EntityManagerFactory factory) {
+        return (EntityManager) Proxy.newProxyInstance(PersistenceProviderCacheTest.class.getClassLoader(), new Class<?>[]{EntityManager.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getEntityManagerFactory")) {
+                    return factory;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * a factory that is always open and compares by identity
+     */
+    private static class FactoryHandler implements InvocationHandler {
+
+        EntityManagerFactory createFactory() {
+            return (EntityManagerFactory) Proxy.newProxyInstance(PersistenceProviderCacheTest.class.getClassLoader(), new Class<?>[]{EntityManagerFactory.class}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("isOpen")) {
+                return true;
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("toString")) {
+                return "EntityManagerFactory@" + System.identityHashCode(proxy);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private static class CountingPersistenceProvider extends DefaultPersistenceProvider {
+        private static final long serialVersionUID = 1L;
+
+        int resolved;
+
+        @Override
+        public boolean isCorrectProvider(EntityManager em) {
+            resolved++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import junit.framework.Assert;
+import org.hibernate.Session;
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.persistence.test.util.ReadOnlyPersistenceContextProvider;
+import org.jboss.seam.transaction.DefaultTransaction;
+import org.jboss.seam.transaction.SeamTransaction;
+import org.junit.Test;
+
+public class ReadOnlyPersistenceContextTestBase {
+
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{ReadOnlyPersistenceContextTestBase.class, Hotel.class, ReadOnlyPersistenceContextProvider.class, HelloService.class};
+    }
+
+    @Inject
+    @DefaultTransaction
+    SeamTransaction transaction;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    EntityManagerFactory emf;
+
+    @Test
+    public void testWritesAreRejected() throws Exception {
+        int id = createHotel("rejected");
+        Hotel hotel = em.find(Hotel.class, id);
+        try {
+            em.persist(new Hotel("persisted", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+            Assert.fail("persist must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            em.merge(hotel);
+            Assert.fail("merge must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            em.remove(hotel);
+            Assert.fail("remove must be rejected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals("rejected", getName(id));
+    }
+
+    @Test
+    public void testLoadedEntitiesAreNotFlushed() throws Exception {
+        int id = createHotel("unchanged");
+        transaction.begin();
+        try {
+            Hotel hotel = em.find(Hotel.class, id);
+            Assert.assertTrue(em.unwrap(Session.class).isReadOnly(hotel));
+            hotel.setName("changed");
+            transaction.commit();
+        } catch (Exception e) {
+            transaction.rollback();
+            throw e;
+        }
+        Assert.assertEquals("unchanged", getName(id));
+    }
+
+    /**
+     * Saves a hotel through an entity manager that is not read only. JTA
+     * entity managers, as used on JBoss AS, join the seam transaction instead
+     * of using their own.
+     */
+    private int createHotel(String name) throws Exception {
+        EntityManager writer = emf.createEntityManager();
+        try {
+            EntityTransaction local = getResourceLocalTransaction(writer);
+            if (local == null) {
+                transaction.begin();
+                writer.joinTransaction();
+            } else {
+                local.begin();
+            }
+            Hotel hotel = new Hotel(name, "Fake St", "Wollongong", "NSW", "2518", "Australia");
+            writer.persist(hotel);
+            if (local == null) {
+                transaction.commit();
+            } else {
+                local.commit();
+            }
+            return hotel.getId();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the transaction of a resource local entity manager, or null if
+     * it is a JTA entity manager
+     */
+    private static EntityTransaction getResourceLocalTransaction(EntityManager entityManager) {
+        try {
+            return entityManager.getTransaction();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private String getName(int id) {
+        EntityManager reader = emf.createEntityManager();
+        try {
+            return reader.find(Hotel.class, id).getName();
+        } finally {
+            reader.close();
+        }
+    }
+}
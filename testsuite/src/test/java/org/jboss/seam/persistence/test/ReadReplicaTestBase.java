@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.persistence.test.util.ReadReplicaProvider;
+import org.jboss.seam.persistence.test.util.ReplicaDatabase;
+import org.jboss.seam.transaction.DefaultTransaction;
+import org.jboss.seam.transaction.SeamTransaction;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReadReplicaTestBase {
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{ReadReplicaTestBase.class, Hotel.class, ReadReplicaProvider.class, ReplicaDatabase.class, HelloService.class};
+    }
+
+    @Inject
+    @DefaultTransaction
+    SeamTransaction transaction;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    EntityManagerFactory emf;
+
+    @Inject
+    @ReplicaDatabase
+    EntityManagerFactory replicaEmf;
+
+    @Test
+    public void testReadsRoutedToReplicaUntilWrite() throws Exception {
+        EntityManager replica = replicaEmf.createEntityManager();
+        replica.getTransaction().begin();
+        replica.persist(new Hotel("Replica Hotel", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+        replica.getTransaction().commit();
+        replica.close();
+
+        List<Hotel> hotels = em.createQuery("select h from Hotel h", Hotel.class).getResultList();
+        Assert.assertEquals(1, hotels.size());
+        Assert.assertEquals("Replica Hotel", hotels.get(0).getName());
+
+        transaction.begin();
+        // reads inside a transaction go to the primary
+        Assert.assertTrue(em.createQuery("select h from Hotel h", Hotel.class).getResultList().isEmpty());
+        em.persist(new Hotel("Primary Hotel", "Real St", "Wollongong", "NSW", "2518", "Australia"));
+        transaction.commit();
+
+        // the persistence context now reads its own writes
+        hotels = em.createQuery("select h from Hotel h", Hotel.class).getResultList();
+        Assert.assertEquals(1, hotels.size());
+        Assert.assertEquals("Primary Hotel", hotels.get(0).getName());
+    }
+
+    @Test
+    public void testChangesToFoundEntitiesAreWritten() throws Exception {
+        EntityManager writer = emf.createEntityManager();
+        writer.getTransaction().begin();
+        Hotel hotel = new Hotel("Found Hotel", "Fake St", "Wollongong", "NSW", "2518", "Australia");
+        writer.persist(hotel);
+        writer.getTransaction().commit();
+        writer.close();
+        try {
+            // found outside a transaction, where queries would use the replica
+            Hotel found = em.find(Hotel.class, hotel.getId());
+            Assert.assertNotNull(found);
+            found.setName("Changed Hotel");
+
+            transaction.begin();
+            em.persist(new Hotel("Other Hotel", "Real St", "Wollongong", "NSW", "2518", "Australia"));
+            transaction.commit();
+
+            EntityManager reader = emf.createEntityManager();
+            try {
+                Assert.assertEquals("Changed Hotel", reader.find(Hotel.class, hotel.getId()).getName());
+            } finally {
+                reader.close();
+            }
+        } finally {
+            // the other test expects the primary to be empty
+            writer = emf.createEntityManager();
+            writer.getTransaction().begin();
+            writer.createQuery("delete from Hotel h where h.name in ('Found Hotel', 'Changed Hotel', 'Other Hotel')").executeUpdate();
+            writer.getTransaction().commit();
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import javax.enterprise.context.spi.CreationalContext;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+
+import junit.framework.Assert;
+import org.hibernate.Session;
+import org.jboss.seam.persistence.ManagedPersistenceContext;
+import org.jboss.seam.persistence.test.util.ManagedPersistenceContextProvider;
+import org.jboss.seam.persistence.test.util.VersionedHotel;
+import org.junit.Test;
+
+/**
+ * Tests passivating an SMPC in snapshot mode. The test deployment must be
+ * created with the passivation mode system property set to
+ * <code>snapshot</code>.
+ * <p/>
+ * This only has a Jetty runner. A remote JBoss AS server does not see system
+ * properties set by the test, and the entity count is read from the Hibernate
+ * session statistics.
+ */
+public class SnapshotPassivationTestBase {
+
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{SnapshotPassivationTestBase.class, VersionedHotel.class, ManagedPersistenceContextProvider.class};
+    }
+
+    @Inject
+    BeanManager manager;
+
+    @Test
+    public void testEntitiesAreReattachedAndCheckedOnce() throws Exception {
+        Bean<EntityManager> bean = (Bean) manager.resolve(manager.getBeans(EntityManager.class));
+        CreationalContext<EntityManager> ctx = manager.createCreationalContext(bean);
+        EntityManager em = bean.create(ctx);
+        EntityManagerFactory emf = em.getEntityManagerFactory();
+        byte[] serialized;
+        int unchangedId;
+        int changedId;
+        try {
+            em.getTransaction().begin();
+            VersionedHotel unchanged = new VersionedHotel("unchanged");
+            em.persist(unchanged);
+            VersionedHotel changed = new VersionedHotel("changed");
+            em.persist(changed);
+            em.getTransaction().commit();
+            unchangedId = unchanged.getId();
+            changedId = changed.getId();
+            serialized = serialize(em);
+        } finally {
+            bean.destroy(em, ctx);
+        }
+
+        // another persistence context changes one of the hotels while the
+        // first one is passivated
+        EntityManager other = emf.createEntityManager();
+        try {
+            other.getTransaction().begin();
+            other.find(VersionedHotel.class, changedId).setName("changed elsewhere");
+            other.getTransaction().commit();
+        } finally {
+            other.close();
+        }
+
+        EntityManager restored = (EntityManager) deserialize(serialized);
+        try {
+            try {
+                restored.find(VersionedHotel.class, unchangedId);
+                Assert.fail("the concurrent change was not detected");
+            } catch (OptimisticLockException e) {
+                // expected
+            }
+            // both hotels were reloaded when the persistence context was
+            // restored
+            Assert.assertEquals(2, restored.unwrap(Session.class).getStatistics().getEntityCount());
+            VersionedHotel unchanged = restored.find(VersionedHotel.class, unchangedId);
+            VersionedHotel changed = restored.find(VersionedHotel.class, changedId);
+            Assert.assertTrue(restored.contains(unchanged));
+            Assert.assertEquals("changed elsewhere", changed.getName());
+            Assert.assertEquals(1, changed.getVersion());
+        } finally {
+            ((ManagedPersistenceContext) restored).closeAfterTransaction();
+        }
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
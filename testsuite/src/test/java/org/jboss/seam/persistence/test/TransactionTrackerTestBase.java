@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+
+import junit.framework.Assert;
+import org.jboss.seam.persistence.TransactionTracker;
+import org.jboss.seam.persistence.test.util.ConversationScopedPersistenceContextProvider;
+import org.jboss.seam.persistence.test.util.CountingTransactionDecorator;
+import org.jboss.seam.persistence.test.util.HelloService;
+import org.jboss.seam.persistence.test.util.Hotel;
+import org.jboss.seam.transaction.DefaultTransaction;
+import org.jboss.seam.transaction.SeamTransaction;
+import org.junit.Test;
+
+/**
+ * Tests a conversation scoped persistence context with the
+ * {@link TransactionTracker} enabled
+ */
+public class TransactionTrackerTestBase {
+
+    public static Class<?>[] getTestClasses() {
+        return new Class[]{TransactionTrackerTestBase.class, Hotel.class, ConversationScopedPersistenceContextProvider.class, HelloService.class, CountingTransactionDecorator.class};
+    }
+
+    @Inject
+    @DefaultTransaction
+    SeamTransaction transaction;
+
+    @Inject
+    EntityManager em;
+
+    @Test
+    public void testJoinsTransactionBegunAfterUse() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        // used outside of a transaction, so the persistence context remembers
+        // that none had begun
+        Assert.assertNull(em.find(Hotel.class, -1));
+        Assert.assertEquals(0, TransactionTracker.getCurrentTransactionId());
+
+        transaction.begin();
+        Assert.assertTrue(TransactionTracker.getCurrentTransactionId() != 0);
+        em.persist(new Hotel("tracked1", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+        // fails if the transaction was not joined
+        em.flush();
+        transaction.commit();
+        Assert.assertEquals(0, TransactionTracker.getCurrentTransactionId());
+
+        // the completed transaction must not be enlisted again
+        Assert.assertEquals(1, countTrackedHotels());
+
+        transaction.begin();
+        em.persist(new Hotel("tracked2", "Fake St", "Wollongong", "NSW", "2518", "Australia"));
+        em.flush();
+        transaction.rollback();
+
+        transaction.begin();
+        Assert.assertEquals(1, countTrackedHotels());
+        transaction.commit();
+    }
+
+    @Test
+    public void testTransactionStatusIsCheckedOncePerTransaction() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
+        // the first call outside of a transaction checks for one
+        Assert.assertNull(em.find(Hotel.class, -1));
+
+        // the check is cached until a transaction is begun on this thread
+        CountingTransactionDecorator.reset();
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertNull(em.find(Hotel.class, -1));
+        }
+        Assert.assertEquals(0, CountingTransactionDecorator.getIsActiveCalls());
+
+        // a new transaction is checked for and joined once
+        transaction.begin();
+        CountingTransactionDecorator.reset();
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertNull(em.find(Hotel.class, -1));
+        }
+        Assert.assertEquals(1, CountingTransactionDecorator.getIsActiveCalls());
+        transaction.commit();
+    }
+
+    private long countTrackedHotels() {
+        return (Long) em.createQuery("select count(h) from Hotel h where h.name like 'tracked%'").getSingleResult();
+    }
+}
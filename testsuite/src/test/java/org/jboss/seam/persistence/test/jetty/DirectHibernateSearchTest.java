@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test.jetty;
+
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.seam.persistence.ProxyStrategy;
+import org.jboss.seam.persistence.test.HibernateSearchTestBase;
+import org.jboss.seam.persistence.test.jetty.util.JettyTestUtils;
+import org.jboss.shrinkwrap.api.Archive;
+import org.jboss.shrinkwrap.api.spec.WebArchive;
+import org.junit.AfterClass;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the Hibernate Search tests against a full text persistence context
+ * created with the {@link ProxyStrategy#DIRECT} strategy
+ */
+@RunWith(Arquillian.class)
+public class DirectHibernateSearchTest extends HibernateSearchTestBase {
+    @Deployment
+    public static Archive<?> createTestArchive() {
+        // read by the extension when the embedded container deploys the
+        // archive in this JVM
+        System.setProperty(ProxyStrategy.PROPERTY_NAME, ProxyStrategy.DIRECT.name());
+        WebArchive war = JettyTestUtils.createJPATestArchive();
+        war.addAsWebInfResource("WEB-INF/beans.xml", "beans.xml");
+        war.addClasses(getTestClasses());
+        war.addAsWebInfResource("META-INF/persistence-search.xml", "classes/META-INF/persistence.xml");
+        return war;
+    }
+
+    @AfterClass
+    public static void restoreProxyStrategy() {
+        System.clearProperty(ProxyStrategy.PROPERTY_NAME);
+    }
+}
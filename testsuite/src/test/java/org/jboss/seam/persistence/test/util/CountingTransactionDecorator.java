@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.decorator.Decorator;
+import javax.decorator.Delegate;
+import javax.enterprise.inject.Any;
+import javax.inject.Inject;
+import javax.transaction.SystemException;
+
+import org.jboss.seam.transaction.SeamTransaction;
+
+/**
+ * Counts the calls to {@link SeamTransaction#isActive()}, so tests can check
+ * when persistence contexts ask for the transaction status
+ */
+@Decorator
+public abstract class CountingTransactionDecorator implements SeamTransaction {
+
+    private static final AtomicInteger isActiveCalls = new AtomicInteger();
+
+    @Inject
+    @Delegate
+    @Any
+    private SeamTransaction delegate;
+
+    public boolean isActive() throws SystemException {
+        isActiveCalls.incrementAndGet();
+        return delegate.isActive();
+    }
+
+    public static int getIsActiveCalls() {
+        return isActiveCalls.get();
+    }
+
+    public static void reset() {
+        isActiveCalls.set(0);
+    }
+}
@@ -31,6 +31,9 @@ import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
+import org.hibernate.annotations.Filter;
+import org.hibernate.annotations.FilterDef;
+import org.hibernate.annotations.ParamDef;
 import org.jboss.solder.core.Veto;
 
 /**
@@ -43,6 +46,8 @@ import org.jboss.solder.core.Veto;
  */
 @Entity
 @Table(name = "hotel")
+@FilterDef(name = "hotelCity", parameters = @ParamDef(name = "city", type = "string"))
+@Filter(name = "hotelCity", condition = "city = :city")
 @Veto
 public class Hotel implements Serializable {
     private int id;
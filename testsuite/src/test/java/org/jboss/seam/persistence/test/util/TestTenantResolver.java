@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, Red Hat, Inc. and/or its affiliates, and individual
+ * contributors by the @authors tag. See the copyright.txt in the
+ * distribution for a full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.seam.persistence.test.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.seam.persistence.TenantResolver;
+
+/**
+ * Gives each tenant its own in memory database
+ */
+@ApplicationScoped
+public class TestTenantResolver implements TenantResolver {
+    private String tenant;
+
+    /**
+     * tenants whose factories cannot be built
+     */
+    private final Set<String> broken = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public String getCurrentTenant() {
+        return tenant;
+    }
+
+    public void setCurrentTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    /**
+     * Makes building the tenant's factory fail until this is called again
+     * with <code>false</code>
+     */
+    public void setBroken(String tenant, boolean broken) {
+        if (broken) {
+            this.broken.add(tenant);
+        } else {
+            this.broken.remove(tenant);
+        }
+    }
+
+    public Map<String, Object> getProperties(String tenant) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("javax.persistence.jdbc.url", "jdbc:hsqldb:mem:" + tenant);
+        if (broken.contains(tenant)) {
+            properties.put("hibernate.dialect", "org.jboss.seam.persistence.test.NoSuchDialect");
+        }
+        return properties;
+    }
+}